@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hyland.labs.copo.parser.COPOParser;
+
+/**
+ * The whole {@link COPOParser#process()} of the synthetic file: framing, PDF and metadata. Time is per file, divide
+ * the record count by it for the invoices per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({ "1", "4" })
+    public int threadCount;
+
+    @Param({ "mapped" })
+    public String readerType;
+
+    @Param({ "pdfbox", "fast" })
+    public String pdfRendererType;
+
+    @Param({ "xml" })
+    public String metadataExportType;
+
+    @Benchmark
+    public long process(SyntheticCOPOState state) throws IOException {
+        COPOParser parser = new COPOParser(state.copoFile, state.getOutputPath(), metadataExportType, "acme");
+        parser.setThreadCount(threadCount);
+        parser.setReaderType(readerType);
+        parser.setPdfRendererType(pdfRendererType);
+        parser.process();
+        return parser.getInvoiceCount();
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hyland.labs.copo.parser.COPOFieldExtractors;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.MappedRecordReader;
+import com.hyland.labs.copo.parser.RecordFieldParser;
+import com.hyland.labs.copo.parser.RecordFields;
+import com.hyland.labs.copo.parser.RecordText;
+
+/**
+ * Extraction of the header values of already framed records: byte cursor ({@link COPOFieldExtractors#DEFAULT}) vs
+ * regular expressions ({@link COPOFieldExtractors#REGEX}). Time is per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldExtractionBenchmark {
+
+    @Param({ "default", "regex" })
+    public String extractors;
+
+    List<RecordText> texts;
+
+    RecordFieldParser parser;
+
+    RecordFields fields = new RecordFields();
+
+    int next = 0;
+
+    @Setup
+    public void setup(SyntheticCOPOState state) throws IOException {
+        texts = new ArrayList<>();
+        try (MappedRecordReader reader = new MappedRecordReader(state.copoFile)) {
+            COPORecord record;
+            while ((record = reader.next()) != null) {
+                texts.add(record.getText());
+            }
+        }
+        parser = new RecordFieldParser("regex".equals(extractors) ? COPOFieldExtractors.REGEX
+                : COPOFieldExtractors.DEFAULT);
+    }
+
+    @Benchmark
+    public void extract(Blackhole blackhole) {
+        parser.parse(texts.get(next), fields);
+        blackhole.consume(fields.getInvoiceNumber());
+        next = next + 1 == texts.size() ? 0 : next + 1;
+    }
+
+}
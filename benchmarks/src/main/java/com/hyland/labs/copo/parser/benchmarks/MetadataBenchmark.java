@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hyland.labs.copo.parser.COPORecord;
+
+/**
+ * The metadata of one invoice: JSON object only, JSON file, and XML sidecar for the Alfresco bulk import.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+    @Benchmark
+    public JSONObject getJson(RecordsState records) {
+        return records.nextRecord().toInvoice("acme").getJson();
+    }
+
+    @Benchmark
+    public File toJsonFile(SyntheticCOPOState state, RecordsState records) throws IOException {
+        return records.nextRecord().toInvoice("acme").toJsonFile(state.getOutputPath());
+    }
+
+    @Benchmark
+    public File toXmlFile(SyntheticCOPOState state, RecordsState records) throws IOException {
+        COPORecord record = records.nextRecord();
+        return record.toInvoice("acme").toXmlFilePropertyForAlfrescoBulkImport(state.getOutputPath(),
+                record.getIndex(), "CO_PO-synthetic.txt");
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.PdfRenderer;
+
+/**
+ * {@link com.hyland.labs.copo.parser.Invoice#buildPdf}, one record per invocation, written to the output directory,
+ * with each {@link PdfRenderer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfBenchmark {
+
+    @Param({ "pdfbox", "fast" })
+    public String pdfRendererType;
+
+    PdfRenderer renderer;
+
+    @Setup
+    public void createRenderer() {
+        renderer = PdfRenderer.newRenderer(pdfRendererType);
+    }
+
+    @Benchmark
+    public File buildPdf(SyntheticCOPOState state, RecordsState records) throws IOException {
+        COPORecord record = records.nextRecord();
+        return record.toInvoice("acme").buildPdf(record.getText(), state.getOutputPath(), 2,
+                renderer);
+    }
+
+}
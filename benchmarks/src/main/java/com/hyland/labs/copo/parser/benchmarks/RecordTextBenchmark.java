@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.MappedRecordReader;
+import com.hyland.labs.copo.parser.RecordText;
+
+/**
+ * Frames the records and gets the lines to print (no PDF): with {@link RecordText}, or by concatenating the lines of a
+ * record then splitting them again, as before. Mostly a comparison of the allocations, run it with the GC profiler:
+ * <code>java -jar target/benchmarks.jar RecordText -prof gc</code> (see <code>gc.alloc.rate.norm</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordTextBenchmark {
+
+    @Param({ "recordText", "concatenation" })
+    public String textHandling;
+
+    /**
+     * @return the number of chars printed
+     */
+    @Benchmark
+    public long linesToPrint(SyntheticCOPOState state) throws IOException {
+        return "concatenation".equals(textHandling) ? concatenation(state) : recordText(state);
+    }
+
+    protected long recordText(SyntheticCOPOState state) throws IOException {
+        long chars = 0;
+        try (MappedRecordReader reader = new MappedRecordReader(state.copoFile)) {
+            reader.setReuseTextBuffer(true);
+            COPORecord record;
+            while ((record = reader.next()) != null) {
+                RecordText text = record.getText();
+                for (int i = 0; i < text.getLineCount(); i++) {
+                    chars += text.getLine(i, 2).length();
+                }
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * What COPOParser did before RecordText
+     */
+    protected long concatenation(SyntheticCOPOState state) throws IOException {
+        long chars = 0;
+        try (LineIterator it = FileUtils.lineIterator(state.copoFile, "UTF-8")) {
+            String textForPdf = null;
+            boolean inRecord = false;
+            while (it.hasNext()) {
+                String line = it.nextLine();
+                if (line.startsWith(COPOParser.BEGIN_RECORD_TOKEN)) {
+                    textForPdf = "";
+                    inRecord = true;
+                    continue;
+                }
+                textForPdf += line + "\n";
+                // The matchers of the voucher/company/invoice lines were run on every line
+                Matcher m = COPOParser.VOUCHER_LINE_PATTERN.matcher(line);
+                m.matches();
+                if (inRecord && line.indexOf(COPOParser.END_RECORD_TOKEN) > -1) {
+                    for (String l : textForPdf.split("\n")) {
+                        chars += l.substring(2).length();
+                    }
+                    inRecord = false;
+                }
+            }
+        }
+        return chars;
+    }
+
+}
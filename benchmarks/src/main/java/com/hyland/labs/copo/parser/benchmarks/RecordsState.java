@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.MappedRecordReader;
+
+/**
+ * The records of the synthetic file, framed once, handed in turn to each invocation of a benchmark.
+ */
+@State(Scope.Thread)
+public class RecordsState {
+
+    List<COPORecord> records;
+
+    int next = 0;
+
+    @Setup
+    public void frame(SyntheticCOPOState state) throws IOException {
+        records = new ArrayList<>();
+        try (MappedRecordReader reader = new MappedRecordReader(state.copoFile)) {
+            COPORecord record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+    }
+
+    public COPORecord nextRecord() {
+        COPORecord record = records.get(next);
+        next = next + 1 == records.size() ? 0 : next + 1;
+        return record;
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+/**
+ * A synthetic CO_PO file, generated once per trial in a temporary directory, plus an output directory.
+ * <p>
+ * Change the parameters from the command line, for example: <code>-p recordCount=100000 -p detailLines=80</code>.
+ */
+@State(Scope.Benchmark)
+public class SyntheticCOPOState {
+
+    @Param("10000")
+    public int recordCount;
+
+    @Param("5")
+    public int detailLines;
+
+    @Param("7")
+    public int invoiceNumberWidth;
+
+    @Param("20")
+    public int descriptionWidth;
+
+    public File directory;
+
+    public File copoFile;
+
+    public File outputDirectory;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("copo-benchmark").toFile();
+        outputDirectory = new File(directory, "output");
+        outputDirectory.mkdir();
+
+        SyntheticCOPOGenerator generator = new SyntheticCOPOGenerator(recordCount, detailLines);
+        generator.setInvoiceNumberWidth(invoiceNumberWidth);
+        generator.setDescriptionWidth(descriptionWidth);
+        copoFile = generator.generate(new File(directory, "CO_PO-synthetic.txt"));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public String getOutputPath() {
+        return outputDirectory.getAbsolutePath();
+    }
+
+}
@@ -0,0 +1,362 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Writes the PDF and the metadata file of each invoice as entries of rolling archives, instead of two small files per
+ * invoice: a few large sequential writes, and a few files to transfer.
+ * <p>
+ * The archives are named <code>baseName-00001.zip</code> (or <code>.tar</code>), <code>baseName-00002.zip</code>...
+ * A new one is started when the current one has <code>maxInvoicesPerArchive</code> invoices, or would go over
+ * <code>maxBytesPerArchive</code>. The entries have the names and directories the files would have (see
+ * {@link OutputLayout}), so an extracted archive can be bulk-imported as is.
+ * <p>
+ * Once an archive is complete, its manifest is written next to it, <code>baseName-00001.manifest.ndjson</code>: a JSON
+ * line per invoice of the archive, the same as the lines of {@link ManifestMetadataSink}. A manifest only exists for a
+ * complete archive, so a transfer can wait for it. With the "ndjson" metadata export type, the manifest is the only
+ * metadata.
+ * <p>
+ * The ZIP entries are stored, not compressed: the PDFs and metadata are formatted and their CRC computed by the
+ * workers, an invoice is then only copied to the archive while holding the lock. The TAR archives are POSIX ustar.
+ * <p>
+ * Until its archive is closed, an invoice is only in a buffer, or in an archive that cannot be read: the callback given
+ * to {@link #write(Invoice, long, OutputBuffer, long, ArchivedCallback)} is only called once the archive and its
+ * manifest are complete and forced to the disk.
+ */
+public class ArchiveWriter implements Closeable {
+
+    public static final int DEFAULT_MAX_INVOICES_PER_ARCHIVE = 10000;
+
+    public static final long DEFAULT_MAX_BYTES_PER_ARCHIVE = 1024L * 1024 * 1024;
+
+    public static final String MANIFEST_EXTENSION = ".manifest.ndjson";
+
+    protected static final int BUFFER_SIZE = 1024 * 1024;
+
+    protected static final int TAR_BLOCK_SIZE = 512;
+
+    /**
+     * Called once the archive holding the invoice is complete and on the disk, with its manifest: what was done before
+     * is now safe (see {@link ProgressJournal}). Called while holding the lock of the writer.
+     */
+    public interface ArchivedCallback {
+        void archived() throws IOException;
+    }
+
+    final Path directory;
+
+    final String baseName;
+
+    final boolean zip;
+
+    final String metadataExportType;
+
+    final MetadataWriter writer;
+
+    final OutputLayout layout;
+
+    int maxInvoicesPerArchive = DEFAULT_MAX_INVOICES_PER_ARCHIVE;
+
+    long maxBytesPerArchive = DEFAULT_MAX_BYTES_PER_ARCHIVE;
+
+    final ThreadLocal<OutputBuffer> metadataBuffers = ThreadLocal.withInitial(OutputBuffer::new);
+
+    final ThreadLocal<OutputBuffer> lineBuffers = ThreadLocal.withInitial(OutputBuffer::new);
+
+    // Guarded by this
+    FileChannel channel;
+
+    CountingOutputStream out;
+
+    ZipOutputStream zipOut;
+
+    int archiveNumber = 0;
+
+    int invoicesInArchive = 0;
+
+    final OutputBuffer manifest = new OutputBuffer(64 * 1024);
+
+    // Of the invoices of the current archive
+    final List<ArchivedCallback> callbacks = new ArrayList<>();
+
+    final byte[] tarHeader = new byte[TAR_BLOCK_SIZE];
+
+    /**
+     * @param archiveFormat "zip" or "tar"
+     * @param metadataExportType "xml" or "json" for a metadata entry next to each PDF, "ndjson" for none
+     * @param schemaPrefix required for "xml"
+     * @param layout the directories of the entries, null for none
+     */
+    public ArchiveWriter(Path directory, String baseName, String archiveFormat, String metadataExportType,
+            String schemaPrefix, String copoFileName, OutputLayout layout) {
+        if (directory == null || !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
+        }
+        if (!"zip".equals(archiveFormat) && !"tar".equals(archiveFormat)) {
+            throw new IllegalArgumentException("Archive Format must be either zip or tar (case sensitive).");
+        }
+        if ("xml".equals(metadataExportType) && (schemaPrefix == null || schemaPrefix.isEmpty())) {
+            throw new IllegalArgumentException("The schemaPrefix is not defined.");
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        zip = "zip".equals(archiveFormat);
+        this.metadataExportType = metadataExportType;
+        writer = new MetadataWriter(schemaPrefix, copoFileName);
+        this.layout = layout;
+    }
+
+    public void setMaxInvoicesPerArchive(int maxInvoicesPerArchive) {
+        if (maxInvoicesPerArchive < 1) {
+            throw new IllegalArgumentException("maxInvoicesPerArchive must be at least 1");
+        }
+        this.maxInvoicesPerArchive = maxInvoicesPerArchive;
+    }
+
+    /**
+     * An archive can still be larger than this when a single invoice is
+     */
+    public void setMaxBytesPerArchive(long maxBytesPerArchive) {
+        if (maxBytesPerArchive < 1) {
+            throw new IllegalArgumentException("maxBytesPerArchive must be at least 1");
+        }
+        this.maxBytesPerArchive = maxBytesPerArchive;
+    }
+
+    /**
+     * Adds the PDF of the invoice, its metadata and its manifest line to the current archive
+     *
+     * @param pdfChecksum the CRC32 of the PDF, see {@link Invoice#getPdfChecksum()}
+     * @return the name of the archive, see {@link #getArchiveName(int)}
+     */
+    public String write(Invoice invoice, long index, OutputBuffer pdf, long pdfChecksum) throws IOException {
+        return write(invoice, index, pdf, pdfChecksum, null);
+    }
+
+    /**
+     * Same as {@link #write(Invoice, long, OutputBuffer, long)}, <code>callback</code> is called once the archive is
+     * closed and forced to the disk.
+     */
+    public String write(Invoice invoice, long index, OutputBuffer pdf, long pdfChecksum, ArchivedCallback callback)
+            throws IOException {
+
+        // Formatting is done out of the lock
+        String dir = layout == null ? "" : layout.getRelativeDirectory(invoice);
+        String pdfName = dir + invoice.getFileName() + ".pdf";
+        OutputBuffer metadata = metadataBuffers.get();
+        metadata.clear();
+        String metadataName = null;
+        if ("xml".equals(metadataExportType)) {
+            writer.writeXml(invoice, index, metadata);
+            metadataName = dir + invoice.getFileName() + Invoice.XML_SUFFIX;
+        } else if ("json".equals(metadataExportType)) {
+            writer.writeJson(invoice, metadata);
+            metadataName = dir + invoice.getFileName() + Invoice.JSON_SUFFIX;
+        }
+        long metadataChecksum = metadataName == null ? 0 : crc32(metadata);
+        OutputBuffer line = lineBuffers.get();
+        line.clear();
+        writer.writeJsonLine(invoice, index, dir, line);
+
+        synchronized (this) {
+            long size = pdf.getLength() + metadata.getLength();
+            if (out == null || invoicesInArchive == maxInvoicesPerArchive
+                    || (invoicesInArchive > 0 && out.getByteCount() + size > maxBytesPerArchive)) {
+                nextArchive();
+            }
+            writeEntry(pdfName, pdf, pdfChecksum);
+            if (metadataName != null) {
+                writeEntry(metadataName, metadata, metadataChecksum);
+            }
+            manifest.append(line.bytes, 0, line.length);
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+            invoicesInArchive += 1;
+            return getArchiveName(archiveNumber);
+        }
+    }
+
+    protected static long crc32(OutputBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.bytes, 0, buffer.length);
+        return crc.getValue();
+    }
+
+    protected void writeEntry(String name, OutputBuffer content, long checksum) throws IOException {
+        if (zip) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.getLength());
+            entry.setCompressedSize(content.getLength());
+            entry.setCrc(checksum);
+            zipOut.putNextEntry(entry);
+            content.writeTo(zipOut);
+            zipOut.closeEntry();
+        } else {
+            writeTarHeader(name, content.getLength());
+            content.writeTo(out);
+            int padding = (TAR_BLOCK_SIZE - content.getLength() % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+            Arrays.fill(tarHeader, (byte) 0);
+            out.write(tarHeader, 0, padding);
+        }
+    }
+
+    /**
+     * Writes the ustar header of a regular file
+     */
+    protected void writeTarHeader(String name, long size) throws IOException {
+        byte[] header = tarHeader;
+        Arrays.fill(header, (byte) 0);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = 0;
+        if (nameBytes.length > 100) {
+            // The directories go in the prefix field
+            split = name.lastIndexOf('/', 155);
+            if (split < 1 || nameBytes.length - split - 1 > 100 || nameBytes.length != name.length()) {
+                throw new IOException("Name too long for a TAR entry: " + name);
+            }
+            System.arraycopy(nameBytes, 0, header, 345, split);
+            split += 1;
+        }
+        System.arraycopy(nameBytes, split, header, 0, nameBytes.length - split);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, System.currentTimeMillis() / 1000);
+        header[156] = '0';
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        // The checksum is computed with its own field made of spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    /**
+     * Writes <code>value</code> in octal, zero-padded to <code>length - 1</code> digits, followed by a NUL
+     */
+    protected static void putOctal(byte[] header, int offset, int length, long value) {
+        int i = offset + length - 1;
+        header[i--] = 0;
+        while (i >= offset) {
+            header[i--] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+    protected void nextArchive() throws IOException {
+        closeArchive();
+        archiveNumber += 1;
+        invoicesInArchive = 0;
+        channel = FileChannel.open(directory.resolve(getArchiveName(archiveNumber)), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        if (zip) {
+            zipOut = new ZipOutputStream(out);
+        }
+    }
+
+    protected void closeArchive() throws IOException {
+        if (out == null) {
+            return;
+        }
+        // Only forced when someone waits for it
+        boolean force = !callbacks.isEmpty();
+        if (zip) {
+            zipOut.finish();
+            zipOut = null;
+        } else {
+            // End of archive: 2 empty blocks
+            Arrays.fill(tarHeader, (byte) 0);
+            out.write(tarHeader);
+            out.write(tarHeader);
+        }
+        out.flush();
+        if (force) {
+            channel.force(true);
+        }
+        out.close();
+        out = null;
+        channel = null;
+        try (FileChannel manifestChannel = FileChannel.open(directory.resolve(getManifestName(archiveNumber)),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream manifestOut = Channels.newOutputStream(manifestChannel);
+            manifest.writeTo(manifestOut);
+            if (force) {
+                manifestChannel.force(true);
+            }
+        }
+        manifest.clear();
+        for (ArchivedCallback callback : callbacks) {
+            callback.archived();
+        }
+        callbacks.clear();
+    }
+
+    public String getArchiveName(int archiveNumber) {
+        return String.format("%s-%05d.%s", baseName, archiveNumber, zip ? "zip" : "tar");
+    }
+
+    public String getManifestName(int archiveNumber) {
+        return String.format("%s-%05d%s", baseName, archiveNumber, MANIFEST_EXTENSION);
+    }
+
+    /**
+     * @return the number of archives written so far
+     */
+    public synchronized int getArchiveCount() {
+        return archiveNumber;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (archiveNumber == 0) {
+            // No invoice: still an (empty) archive and manifest, so the importer knows the file was processed
+            nextArchive();
+        }
+        closeArchive();
+    }
+
+}
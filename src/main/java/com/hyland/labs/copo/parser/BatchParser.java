@@ -0,0 +1,296 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/**
+ * Parses several CO_PO files in the same JVM: the classes are loaded and the code compiled by the JIT once for all the
+ * files, and the workers generating the PDFs and metadata are shared (see {@link FairWorkerPool}).
+ * <p>
+ * <code>concurrentFileCount</code> files are read at the same time, each one on its own thread, the largest ones
+ * first. A file that fails does not stop the batch: its error is in its {@link FileSummary}.
+ */
+public class BatchParser {
+
+    /**
+     * Creates and configures the parser of each file. Called concurrently.
+     */
+    public interface ParserFactory {
+        COPOParser newParser(File copoFile);
+    }
+
+    /**
+     * What happened to one file of the batch
+     */
+    public static class FileSummary {
+
+        final File copoFile;
+
+        long invoiceCount;
+
+        long malformedRecordCount;
+
+        long upToDateInvoiceCount;
+
+        long resumedInvoiceCount;
+
+        long nanos;
+
+        // Null if the file was processed
+        String error;
+
+        public FileSummary(File copoFile) {
+            this.copoFile = copoFile;
+        }
+
+        public File getCopoFile() {
+            return copoFile;
+        }
+
+        public long getInvoiceCount() {
+            return invoiceCount;
+        }
+
+        public long getMalformedRecordCount() {
+            return malformedRecordCount;
+        }
+
+        public long getUpToDateInvoiceCount() {
+            return upToDateInvoiceCount;
+        }
+
+        public long getResumedInvoiceCount() {
+            return resumedInvoiceCount;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("file", copoFile.getPath());
+            json.put("status", error == null ? "done" : "failed");
+            json.put("invoices", invoiceCount);
+            json.put("malformed", malformedRecordCount);
+            json.put("upToDate", upToDateInvoiceCount);
+            json.put("resumed", resumedInvoiceCount);
+            json.put("bytes", copoFile.length());
+            json.put("seconds", getSeconds());
+            if (error != null) {
+                json.put("error", error);
+            }
+            return json;
+        }
+    }
+
+    List<File> copoFiles;
+
+    ParserFactory parserFactory;
+
+    int threadCount = Runtime.getRuntime().availableProcessors();
+
+    int concurrentFileCount = 2;
+
+    File summaryFile = null;
+
+    public BatchParser(List<File> copoFiles, ParserFactory parserFactory) {
+        this.copoFiles = copoFiles;
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * @param directoryOrGlob a directory (all its files, except the hidden ones and the dead-letter files), or a glob
+     *            pattern of file names, like <code>/data/CO_PO-*.txt</code>. Not recursive
+     * @return the files, sorted by name
+     */
+    public static List<File> listFiles(String directoryOrGlob) throws IOException {
+        Path path = Paths.get(directoryOrGlob);
+        Path dir;
+        String glob;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            glob = "*";
+        } else {
+            dir = path.getParent() == null ? Paths.get(".") : path.getParent();
+            glob = path.getFileName().toString();
+        }
+        List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (Files.isRegularFile(p) && !name.startsWith(".") && !COPOParser.isReportFileName(name)) {
+                    files.add(p.toFile());
+                }
+            }
+        }
+        files.sort(Comparator.comparing(File::getName));
+        return files;
+    }
+
+    /**
+     * @return true if <code>path</code> is a directory or a glob pattern, rather than a single CO_PO file
+     */
+    public static boolean isBatch(String path) {
+        return new File(path).isDirectory() || path.chars().anyMatch(c -> "*?[{".indexOf(c) > -1);
+    }
+
+    /**
+     * Number of workers shared by all the files, default is the number of cores
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Number of files read at the same time, default is 2. More files keep the workers busy when a file is slow to
+     * read, but use more memory.
+     */
+    public void setConcurrentFileCount(int concurrentFileCount) {
+        if (concurrentFileCount < 1) {
+            throw new IllegalArgumentException("concurrentFileCount must be at least 1");
+        }
+        this.concurrentFileCount = concurrentFileCount;
+    }
+
+    /**
+     * When set, the summary of each file is written to <code>summaryFile</code> as soon as the file is done, as a JSON
+     * line (see {@link FileSummary#toJson()}). Default is null.
+     */
+    public void setSummaryFile(File summaryFile) {
+        this.summaryFile = summaryFile;
+    }
+
+    /**
+     * @return the summary of each file, in the order of the files
+     */
+    public List<FileSummary> run() throws IOException {
+
+        FileSummary[] summaries = new FileSummary[copoFiles.size()];
+        Integer[] order = new Integer[summaries.length];
+        for (int i = 0; i < summaries.length; i++) {
+            summaries[i] = new FileSummary(copoFiles.get(i));
+            order[i] = i;
+        }
+        // The largest files first, so the batch does not end with one large file on one thread
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> copoFiles.get(i).length()).reversed());
+
+        Invoice.warmUp();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(concurrentFileCount, r -> {
+            Thread t = new Thread(r, "copo-file-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try (FairWorkerPool pool = new FairWorkerPool(threadCount);
+                Writer summaryWriter = summaryFile == null ? null
+                        : Files.newBufferedWriter(summaryFile.toPath(), StandardCharsets.UTF_8)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i : order) {
+                FileSummary summary = summaries[i];
+                futures.add(readers.submit(() -> {
+                    process(summary, pool);
+                    if (summaryWriter != null) {
+                        writeSummary(summaryWriter, summary);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                } catch (ExecutionException e) {
+                    RecordPipeline.rethrow(e.getCause());
+                }
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        return Arrays.asList(summaries);
+    }
+
+    protected void process(FileSummary summary, FairWorkerPool pool) {
+        process(summary, parserFactory, pool);
+    }
+
+    /**
+     * Parses the file of the summary with a parser of the factory and the workers of the pool, and fills the summary
+     * (an error is in the summary, not thrown)
+     */
+    protected static void process(FileSummary summary, ParserFactory parserFactory, FairWorkerPool pool) {
+        long start = System.nanoTime();
+        try {
+            COPOParser parser = parserFactory.newParser(summary.copoFile);
+            parser.setWorkerPool(pool);
+            try {
+                parser.process();
+            } finally {
+                summary.invoiceCount = parser.getInvoiceCount();
+                summary.malformedRecordCount = parser.getMalformedRecordCount();
+                summary.upToDateInvoiceCount = parser.getUpToDateInvoiceCount();
+                summary.resumedInvoiceCount = parser.getResumedInvoiceCount();
+            }
+        } catch (Exception e) {
+            summary.error = e.toString();
+        }
+        summary.nanos = System.nanoTime() - start;
+    }
+
+    protected static void writeSummary(Writer writer, FileSummary summary) throws IOException {
+        synchronized (writer) {
+            writer.write(summary.toJson().toString());
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import static com.hyland.labs.copo.parser.LineScanner.bytes;
+
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * The {@link FieldExtractor}s of the CO_PO layout.
+ * <p>
+ * {@link #DEFAULT} reads the bytes of the lines with a {@link LineScanner}, it accepts exactly the lines accepted by the
+ * regular expressions of {@link COPOParser} (see {@link #REGEX}, kept as a reference and for benchmarks).
+ */
+public class COPOFieldExtractors {
+
+    protected static final byte[] VOUCHER = bytes("VOUCHER #");
+
+    protected static final byte[] COMPANY = bytes("COMPANY #");
+
+    protected static final byte[] INV_NUMBER = bytes("INV-NUMBER");
+
+    protected static final byte[] INV_DATE = bytes("INV-DATE");
+
+    protected static final byte[] INV_AMT = bytes("INV-AMT");
+
+    protected static final byte[] PO_NUMBER = bytes("PO-NUMBER");
+
+    protected static final byte[] VNDR_NUMBER = bytes("VNDR-NUMBER");
+
+    protected static final byte[] HNDL_CODE = bytes("HNDL-CODE");
+
+    /**
+     * {@link COPOParser#VOUCHER_LINE_REGEX}: <code>0.VOUCHER # *([A-Z0-9]*)</code>
+     */
+    public static final FieldExtractor VOUCHER_LINE = new FieldExtractor() {
+        @Override
+        public int extract(LineScanner line, RecordFields fields) {
+            if (!line.expect('0') || !line.skip(1) || !line.expect(VOUCHER)) {
+                return 0;
+            }
+            line.skipSpaces();
+            int start = line.getPosition();
+            line.skipUpperAlphanumerics();
+            if (!line.atEnd()) {
+                return 0;
+            }
+            fields.setVoucher(line.decode(start, line.getPosition()));
+            return 1;
+        }
+
+        @Override
+        public String getDescription() {
+            return "voucher";
+        }
+    };
+
+    /**
+     * {@link COPOParser#COMPANY_LINE_REGEX}: <code>0. *COMPANY # *([A-Z0-9]*)</code>
+     */
+    public static final FieldExtractor COMPANY_LINE = new FieldExtractor() {
+        @Override
+        public int extract(LineScanner line, RecordFields fields) {
+            if (!line.expect('0') || !line.skip(1)) {
+                return 0;
+            }
+            line.skipSpaces();
+            if (!line.expect(COMPANY)) {
+                return 0;
+            }
+            line.skipSpaces();
+            int start = line.getPosition();
+            line.skipUpperAlphanumerics();
+            if (!line.atEnd()) {
+                return 0;
+            }
+            fields.setCompany(line.decode(start, line.getPosition()));
+            return 1;
+        }
+
+        @Override
+        public String getDescription() {
+            return "company";
+        }
+    };
+
+    /**
+     * {@link COPOParser#INVOICE_INFO_LINE1_REGEX}, then the values, separated by whitespaces, on the next line:
+     * <code>-. INV-NUMBER INV-DATE INV-AMT PO-NUMBER ...</code>
+     */
+    public static final FieldExtractor INVOICE_INFO_LINES = new FieldExtractor() {
+        @Override
+        public int extract(LineScanner line, RecordFields fields) {
+            if (!line.expect(' ') || !line.skip(1)) {
+                return 0;
+            }
+            line.skipSpaces();
+            if (!line.expect(INV_NUMBER) || line.skipSpaces() == 0 || !line.expect(INV_DATE)) {
+                return 0;
+            }
+            line.skipSpaces();
+            if (!line.expect(INV_AMT)) {
+                return 0;
+            }
+            line.skipSpaces();
+            if (!line.expect(PO_NUMBER)) {
+                return 0;
+            }
+            line.skipSpaces();
+            if (!line.expect(VNDR_NUMBER)) {
+                return 0;
+            }
+            line.skipSpaces();
+            if (!line.expect(HNDL_CODE) || !line.atEnd()) {
+                return 0;
+            }
+
+            // Same as split("\\s+"): the first value is "-." (or empty if the line starts with a whitespace)
+            if (!line.nextLine()) {
+                throw new RuntimeException("No invoice values after the invoice information line");
+            }
+            line.skipNonWhitespaces();
+            String[] values = new String[4];
+            for (int i = 0; i < values.length; i++) {
+                line.skipWhitespaces();
+                int start = line.getPosition();
+                if (line.skipNonWhitespaces() == 0) {
+                    throw new RuntimeException("Expected 4 invoice values after the invoice information line");
+                }
+                values[i] = line.decode(start, line.getPosition());
+            }
+            fields.setInvoiceNumber(values[0]);
+            fields.setInvoiceDateStr(values[1]);
+            fields.setInvoiceAmountStr(values[2]);
+            fields.setPoNumber(values[3]);
+            return 2;
+        }
+
+        @Override
+        public String getDescription() {
+            return "invoice information";
+        }
+    };
+
+    public static final List<FieldExtractor> DEFAULT = List.of(VOUCHER_LINE, COMPANY_LINE, INVOICE_INFO_LINES);
+
+    /**
+     * The previous implementation of {@link #INVOICE_INFO_LINES}: regular expression, then split("\\s+").
+     */
+    public static final FieldExtractor REGEX_INVOICE_INFO_LINES = new FieldExtractor() {
+        @Override
+        public int extract(LineScanner line, RecordFields fields) {
+            Matcher m = COPOParser.INVOICE_INFO_LINE1_PATTERN.matcher(line.decode(0, line.getLength()));
+            if (!m.matches()) {
+                return 0;
+            }
+            if (!line.nextLine()) {
+                throw new RuntimeException("No invoice values after the invoice information line");
+            }
+            String[] values = line.decode(0, line.getLength()).split("\\s+");
+            // First will be "-."
+            fields.setInvoiceNumber(values[1]);
+            fields.setInvoiceDateStr(values[2]);
+            fields.setInvoiceAmountStr(values[3]);
+            fields.setPoNumber(values[4]);
+            return 2;
+        }
+
+        @Override
+        public String getDescription() {
+            return "invoice information";
+        }
+    };
+
+    /**
+     * The regular expressions of {@link COPOParser}, as used before {@link #DEFAULT}.
+     */
+    public static final List<FieldExtractor> REGEX = List.of(
+            new RegexFieldExtractor(COPOParser.VOUCHER_LINE_PATTERN, "voucher", "voucher"),
+            new RegexFieldExtractor(COPOParser.COMPANY_LINE_PATTERN, "company", "company"), REGEX_INVOICE_INFO_LINES);
+
+    private COPOFieldExtractors() {
+    }
+
+}
@@ -20,12 +20,17 @@ package com.hyland.labs.copo.parser;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.regex.Matcher;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
-
 /**
  * Hello world!
  */
@@ -54,6 +59,13 @@ public class COPOParser {
 
     public static final Pattern INVOICE_INFO_LINE2_PATTERN = Pattern.compile(INVOICE_INFO_LINE2_REGEX);
 
+    public static final String DEAD_LETTER_SUFFIX = ".dead-letter.txt";
+
+    public static final String DUPLICATE_REPORT_SUFFIX = ".duplicates.ndjson";
+
+    // Between the invoice number and the occurrence number of a duplicate renamed by the "suffix" policy
+    public static final String DUPLICATE_SEPARATOR = "_";
+
     File copoFile;
 
     String destinationDirectoryPath;
@@ -62,6 +74,125 @@ public class COPOParser {
     
     String schemaPrefix = null;
 
+    int threadCount = Runtime.getRuntime().availableProcessors();
+
+    String readerType = "mapped";
+
+    // Shared with the other files of a batch, instead of the own workers of the parser
+    FairWorkerPool workerPool = null;
+
+    int splitCount = 0;
+
+    String pdfRendererType = "pdfbox";
+
+    String outputLayoutType = "flat";
+
+    // Created by process(), shared by the PDFs and the metadata so each directory is created once
+    OutputLayout outputLayout;
+
+    // One renderer per worker thread, created by process()
+    ThreadLocal<PdfRenderer> pdfRenderers;
+
+    int manifestMaxInvoicesPerFile = 0;
+
+    File journalFile = null;
+
+    boolean resume = false;
+
+    int checkpointInterval = ProgressJournal.DEFAULT_INTERVAL;
+
+    // Set by process()
+    ProgressJournal journal;
+
+    ProgressJournal.Checkpoint resumeCheckpoint;
+
+    // CompressedInput.GZIP or ZSTD, null when the CO_PO file is not compressed
+    String compression;
+
+    long resumedInvoiceCount = 0;
+
+    File contentIndexFile = null;
+
+    boolean forceRebuild = false;
+
+    // Set by process()
+    ContentHashIndex contentIndex;
+
+    long upToDateInvoiceCount = 0;
+
+    String errorPolicy = "fail";
+
+    File deadLetterFile = null;
+
+    // Set by process(), null with the "fail" policy
+    MalformedRecordHandler malformedRecordHandler;
+
+    final AtomicLong malformedRecordCount = new AtomicLong();
+
+    // Malformed records found after they were framed, counted in the records handled
+    final AtomicLong failedRecordCount = new AtomicLong();
+
+    String archiveFormat = null;
+
+    int maxInvoicesPerArchive = ArchiveWriter.DEFAULT_MAX_INVOICES_PER_ARCHIVE;
+
+    long maxBytesPerArchive = ArchiveWriter.DEFAULT_MAX_BYTES_PER_ARCHIVE;
+
+    // Opened and closed by process(), null when the files are written to archives
+    MetadataSink metadataSink;
+
+    // Opened and closed by process(), null unless the files are written to archives
+    ArchiveWriter archiveWriter;
+
+    URI uploadUrl = null;
+
+    int maxUploadsInFlight = HttpUploadSink.DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+
+    int uploadBatchSize = HttpUploadSink.DEFAULT_BATCH_SIZE;
+
+    final Map<String, String> uploadHeaders = new LinkedHashMap<>();
+
+    // Opened and closed by process(), null unless the invoices are uploaded
+    HttpUploadSink uploadSink;
+
+    String duplicatePolicy = null;
+
+    File duplicateReportFile = null;
+
+    // Set by process(), null without duplicate policy: the file names used by the run
+    InvoiceNumberSet fileNames;
+
+    // Set by process(), null without duplicate policy: the duplicates found in file order, by index, until they are
+    // handled. Their file name with the suffix policy, the policy otherwise
+    Map<Long, String> duplicateFileNames;
+
+    // Set by process()
+    DuplicateReport duplicateReport;
+
+    final AtomicLong duplicateInvoiceCount = new AtomicLong();
+
+    final AtomicLong skippedDuplicateCount = new AtomicLong();
+
+    File invoiceIndexFile = null;
+
+    // Opened and closed by process(), null unless the invoices are indexed
+    InvoiceIndexWriter invoiceIndexWriter;
+
+    File totalsFile = null;
+
+    // Of the last run
+    ControlTotals controlTotals;
+
+    // The PDF of an invoice, before it is copied to the archive
+    final ThreadLocal<OutputBuffer> pdfBuffers = ThreadLocal.withInitial(() -> new OutputBuffer(16 * 1024));
+
+    List<FieldExtractor> fieldExtractors = COPOFieldExtractors.DEFAULT;
+
+    // Null unless instrumented
+    ParserMetrics metrics = null;
+
+    long invoiceCount = 0;
+
     public COPOParser(File copoFile, String destinationDirectoryPath, String metadataExportType, String schemaPrefix) {
         this.copoFile = copoFile;
         this.destinationDirectoryPath = destinationDirectoryPath;
@@ -69,8 +200,9 @@ public class COPOParser {
             this.destinationDirectoryPath += "/";
         }
         this.metadataExportType = metadataExportType;
-        if(metadataExportType == null || (!"json".equals(metadataExportType) && !"xml".equals(metadataExportType))) {
-            throw new IllegalArgumentException("Metadata Export Type must be either json or xml (case sensitive).");
+        if(metadataExportType == null || (!"json".equals(metadataExportType) && !"xml".equals(metadataExportType)
+                && !"ndjson".equals(metadataExportType))) {
+            throw new IllegalArgumentException("Metadata Export Type must be either json, xml or ndjson (case sensitive).");
         }
 
         this.schemaPrefix = schemaPrefix;
@@ -84,126 +216,898 @@ public class COPOParser {
         parser.process();
     }
 
+    public static void process(File copoFile, String destinationDirectoryPath, String metadataExportType,
+            String schemaPrefix, int threadCount) throws IOException {
+        COPOParser parser = new COPOParser(copoFile, destinationDirectoryPath, metadataExportType, schemaPrefix);
+        parser.setThreadCount(threadCount);
+        parser.process();
+    }
+
+    /**
+     * Number of render/write workers. With 1, everything runs on the calling thread, as before.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * When set, the records are handled by the workers of the pool, shared with other parsers (see
+     * {@link BatchParser}), and {@link #getThreadCount()} is ignored. Cannot be used with a split. Default is null.
+     */
+    public void setWorkerPool(FairWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * How the CO_PO file is framed into records:
+     * <ul>
+     * <li>"mapped" (default): the file is memory-mapped and scanned as bytes, see {@link MappedRecordReader}</li>
+     * <li>"lines": the file is read and decoded line by line, see {@link LineRecordReader}</li>
+     * </ul>
+     */
+    public void setReaderType(String readerType) {
+        if (!"mapped".equals(readerType) && !"lines".equals(readerType)) {
+            throw new IllegalArgumentException("Reader Type must be either mapped or lines (case sensitive).");
+        }
+        this.readerType = readerType;
+    }
+
+    public String getReaderType() {
+        return readerType;
+    }
+
+    /**
+     * When > 1, the file is cut in <code>splitCount</code> byte ranges, framed and processed in parallel by
+     * {@link #getThreadCount()} threads (see {@link SplitFileParser}). The generated files and their index are the same
+     * as with a sequential run. Requires the "mapped" reader type.
+     */
+    public void setSplitCount(int splitCount) {
+        if (splitCount < 0) {
+            throw new IllegalArgumentException("splitCount cannot be negative");
+        }
+        this.splitCount = splitCount;
+    }
+
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    /**
+     * How the PDFs are written:
+     * <ul>
+     * <li>"pdfbox" (default): with PDFBox, see {@link PdfBoxRenderer}</li>
+     * <li>"fast": directly from a precomputed template, without PDFBox, see {@link TemplatePdfRenderer}</li>
+     * </ul>
+     */
+    public void setPdfRendererType(String pdfRendererType) {
+        PdfRenderer.newRenderer(pdfRendererType);
+        this.pdfRendererType = pdfRendererType;
+    }
+
+    public String getPdfRendererType() {
+        return pdfRendererType;
+    }
+
+    /**
+     * How the generated files are spread in subdirectories of the destination, see {@link OutputLayout}: "flat"
+     * (default), "hash", "company" or "date"
+     */
+    public void setOutputLayout(String outputLayoutType) {
+        new OutputLayout(Paths.get(destinationDirectoryPath), outputLayoutType);
+        this.outputLayoutType = outputLayoutType;
+    }
+
+    public String getOutputLayout() {
+        return outputLayoutType;
+    }
+
+    /**
+     * When set, the PDFs and metadata files are written as entries of rolling archives, "zip" or "tar", see
+     * {@link ArchiveWriter}, instead of files in the destination. Default is null, no archive. Cannot be used with a
+     * content index.
+     */
+    public void setArchiveFormat(String archiveFormat) {
+        if (archiveFormat != null && !"zip".equals(archiveFormat) && !"tar".equals(archiveFormat)) {
+            throw new IllegalArgumentException("Archive Format must be either zip or tar (case sensitive).");
+        }
+        this.archiveFormat = archiveFormat;
+    }
+
+    public String getArchiveFormat() {
+        return archiveFormat;
+    }
+
+    /**
+     * Maximum number of invoices per archive, default is {@value ArchiveWriter#DEFAULT_MAX_INVOICES_PER_ARCHIVE}
+     */
+    public void setMaxInvoicesPerArchive(int maxInvoicesPerArchive) {
+        if (maxInvoicesPerArchive < 1) {
+            throw new IllegalArgumentException("maxInvoicesPerArchive must be at least 1");
+        }
+        this.maxInvoicesPerArchive = maxInvoicesPerArchive;
+    }
+
+    /**
+     * Maximum size of an archive, in bytes, default is {@value ArchiveWriter#DEFAULT_MAX_BYTES_PER_ARCHIVE}
+     */
+    public void setMaxBytesPerArchive(long maxBytesPerArchive) {
+        if (maxBytesPerArchive < 1) {
+            throw new IllegalArgumentException("maxBytesPerArchive must be at least 1");
+        }
+        this.maxBytesPerArchive = maxBytesPerArchive;
+    }
+
+    /**
+     * When set, the PDF and the metadata of each invoice are uploaded to this URL (see {@link HttpUploadSink}) instead
+     * of being written to files. Default is null. Cannot be used with archives or the content index. With a journal,
+     * an invoice is done once its upload is acknowledged, so resuming sends again only the ones that were not.
+     */
+    public void setUploadUrl(URI uploadUrl) {
+        this.uploadUrl = uploadUrl;
+    }
+
+    public URI getUploadUrl() {
+        return uploadUrl;
+    }
+
+    /**
+     * Maximum number of upload requests in flight, default is
+     * {@value HttpUploadSink#DEFAULT_MAX_IN_FLIGHT_REQUESTS}
+     */
+    public void setMaxUploadsInFlight(int maxUploadsInFlight) {
+        if (maxUploadsInFlight < 1) {
+            throw new IllegalArgumentException("maxUploadsInFlight must be at least 1");
+        }
+        this.maxUploadsInFlight = maxUploadsInFlight;
+    }
+
+    /**
+     * Number of invoices per upload request, default is {@value HttpUploadSink#DEFAULT_BATCH_SIZE}
+     */
+    public void setUploadBatchSize(int uploadBatchSize) {
+        if (uploadBatchSize < 1) {
+            throw new IllegalArgumentException("uploadBatchSize must be at least 1");
+        }
+        this.uploadBatchSize = uploadBatchSize;
+    }
+
+    /**
+     * A header added to each upload request, for example <code>Authorization</code>
+     */
+    public void setUploadHeader(String name, String value) {
+        uploadHeaders.put(name, value);
+    }
+
+    /**
+     * With the "ndjson" metadata export type, the maximum number of invoices per manifest file. Default is 0, a single
+     * manifest for the CO_PO file (see {@link ManifestMetadataSink}).
+     */
+    public void setManifestMaxInvoicesPerFile(int manifestMaxInvoicesPerFile) {
+        if (manifestMaxInvoicesPerFile < 0) {
+            throw new IllegalArgumentException("manifestMaxInvoicesPerFile cannot be negative");
+        }
+        this.manifestMaxInvoicesPerFile = manifestMaxInvoicesPerFile;
+    }
+
+    public int getManifestMaxInvoicesPerFile() {
+        return manifestMaxInvoicesPerFile;
+    }
+
+    /**
+     * Journals the progress of the run in <code>journalFile</code>, see {@link ProgressJournal}, so it can be resumed
+     * with {@link #setResume(boolean)} if it fails. Requires the "mapped" reader type, and no split. Default is null, no
+     * journal.
+     */
+    public void setJournalFile(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * When true, {@link #process()} starts right after the last checkpoint of the journal (or from the start of the file
+     * if there is none), instead of regenerating all the files. Requires a journal file.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Number of records between two checkpoints of the journal, default is {@link ProgressJournal#DEFAULT_INTERVAL}.
+     * At most this number of records are regenerated when a run is resumed.
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpointInterval must be at least 1");
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return the number of invoices the last call to {@link #process()} did not generate because they were already
+     *         done by the run it resumed
+     */
+    public long getResumedInvoiceCount() {
+        return resumedInvoiceCount;
+    }
+
+    /**
+     * Keeps the content hash of each generated invoice in <code>contentIndexFile</code>, see {@link ContentHashIndex}.
+     * An invoice whose record did not change since it was generated, and whose files are still in the destination, is
+     * not generated again. Default is null, all the invoices are generated.
+     */
+    public void setContentIndexFile(File contentIndexFile) {
+        this.contentIndexFile = contentIndexFile;
+    }
+
+    public File getContentIndexFile() {
+        return contentIndexFile;
+    }
+
+    /**
+     * Writes an {@link InvoiceIndex} of the generated invoices to <code>invoiceIndexFile</code>, to find them by invoice
+     * number, PO number, voucher, company or date range without reading their metadata. Default is null, no index.
+     * Cannot be used when resuming: the index would miss the invoices of the previous run.
+     */
+    public void setInvoiceIndexFile(File invoiceIndexFile) {
+        this.invoiceIndexFile = invoiceIndexFile;
+    }
+
+    public File getInvoiceIndexFile() {
+        return invoiceIndexFile;
+    }
+
+    /**
+     * Adds up the control totals of the generated invoices (see {@link ControlTotals}), reconciles each one with the
+     * GRAND TOTAL of its record, and writes the report to <code>totalsFile</code> once the run is done. Default is
+     * null, no totals. Cannot be used when resuming: the totals would miss the invoices of the previous run.
+     */
+    public void setTotalsFile(File totalsFile) {
+        this.totalsFile = totalsFile;
+    }
+
+    public File getTotalsFile() {
+        return totalsFile;
+    }
+
+    /**
+     * @return the control totals of the last call to {@link #process()}, null if there is no totals file
+     */
+    public ControlTotals getControlTotals() {
+        return controlTotals;
+    }
+
+    /**
+     * When true, all the invoices are generated, even the ones the content index says are up to date
+     */
+    public void setForceRebuild(boolean forceRebuild) {
+        this.forceRebuild = forceRebuild;
+    }
+
+    /**
+     * @return the number of invoices of the last call to {@link #process()} that were not generated because they were
+     *         up to date (they are counted in {@link #getInvoiceCount()})
+     */
+    public long getUpToDateInvoiceCount() {
+        return upToDateInvoiceCount;
+    }
+
+    /**
+     * What to do with a malformed record (one that cannot be framed, whose values cannot be parsed, or whose invoice
+     * cannot be generated), or with lines that are not part of a record:
+     * <ul>
+     * <li>"fail" (default): the run stops with an exception</li>
+     * <li>"skip": the record is ignored, the run goes on with the next record start</li>
+     * <li>"quarantine": same as "skip", but the record is copied, as is, to the dead-letter file with the reason (see
+     * {@link DeadLetterFile} and {@link #setDeadLetterFile(File)})</li>
+     * </ul>
+     * A malformed record keeps its index, so the next invoices have the same index whatever the policy. "skip" and
+     * "quarantine" require the "mapped" reader type. Errors writing the files still stop the run.
+     */
+    public void setErrorPolicy(String errorPolicy) {
+        if (!"fail".equals(errorPolicy) && !"skip".equals(errorPolicy) && !"quarantine".equals(errorPolicy)) {
+            throw new IllegalArgumentException("Error Policy must be either fail, skip or quarantine (case sensitive).");
+        }
+        this.errorPolicy = errorPolicy;
+    }
+
+    public String getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    /**
+     * The dead-letter file of the "quarantine" error policy. Default is null: the CO_PO file path followed by
+     * {@value #DEAD_LETTER_SUFFIX}.
+     */
+    public void setDeadLetterFile(File deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+    }
+
+    public File getDeadLetterFile() {
+        return deadLetterFile != null ? deadLetterFile : new File(copoFile.getPath() + DEAD_LETTER_SUFFIX);
+    }
+
+    /**
+     * @return the number of malformed records skipped or quarantined by the last call to {@link #process()} (not
+     *         counted in {@link #getInvoiceCount()})
+     */
+    public long getMalformedRecordCount() {
+        return malformedRecordCount.get();
+    }
+
+    /**
+     * What to do with a record whose invoice number was already used by a previous record of the file (its files
+     * would overwrite the previous ones, they are named after the invoice number):
+     * <ul>
+     * <li>null (default): nothing is checked, the last one wins</li>
+     * <li>"suffix": the files of the duplicate are named after the invoice number followed by
+     * {@value #DUPLICATE_SEPARATOR} and its occurrence number, <code>INV0000042_2.pdf</code>; its metadata keep the
+     * invoice number</li>
+     * <li>"skip": the duplicate is not generated (not counted in {@link #getInvoiceCount()})</li>
+     * <li>"fail": the run stops with an exception</li>
+     * </ul>
+     * Each duplicate is written to the report, see {@link DuplicateReport} and {@link #setDuplicateReportFile(File)}.
+     * The invoice numbers are kept in an {@link InvoiceNumberSet}. They are checked in file order, by the thread
+     * reading the records (a split file is read a first time for that), so whatever the number of threads the
+     * occurrence keeping the invoice number is the first one in the file, and the files are the same as with a
+     * sequential run.
+     */
+    public void setDuplicatePolicy(String duplicatePolicy) {
+        if (duplicatePolicy != null && !"suffix".equals(duplicatePolicy) && !"skip".equals(duplicatePolicy)
+                && !"fail".equals(duplicatePolicy)) {
+            throw new IllegalArgumentException("Duplicate Policy must be either suffix, skip or fail (case sensitive).");
+        }
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    public String getDuplicatePolicy() {
+        return duplicatePolicy;
+    }
+
+    /**
+     * @return true if the file is a dead-letter file or a duplicate report (by default next to the CO_PO file), not a
+     *         CO_PO file to parse
+     */
+    public static boolean isReportFileName(String name) {
+        return name.endsWith(DEAD_LETTER_SUFFIX) || name.endsWith(DUPLICATE_REPORT_SUFFIX);
+    }
+
+    /**
+     * The report of the duplicate policy. Default is null: the CO_PO file path followed by
+     * {@value #DUPLICATE_REPORT_SUFFIX}.
+     */
+    public void setDuplicateReportFile(File duplicateReportFile) {
+        this.duplicateReportFile = duplicateReportFile;
+    }
+
+    public File getDuplicateReportFile() {
+        return duplicateReportFile != null ? duplicateReportFile
+                : new File(copoFile.getPath() + DUPLICATE_REPORT_SUFFIX);
+    }
+
+    /**
+     * @return the number of records of the last call to {@link #process()} whose invoice number was already used,
+     *         whatever the duplicate policy
+     */
+    public long getDuplicateInvoiceCount() {
+        return duplicateInvoiceCount.get();
+    }
+
+    /**
+     * The extractors of the header values of each record, default is {@link COPOFieldExtractors#DEFAULT}. To read an
+     * additional header line, add an extractor to the default list; its values are then available with
+     * {@link COPORecord#getOtherField(String)}. Ignored by the "lines" reader type.
+     */
+    public void setFieldExtractors(List<FieldExtractor> fieldExtractors) {
+        this.fieldExtractors = fieldExtractors;
+    }
+
+    /**
+     * Records the counters and the latency of each stage (see {@link ParserMetrics}) in <code>metrics</code>, which can
+     * be shared with other parsers (the files of a batch). Default is null: no instrumentation.
+     */
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the number of invoices generated by the last call to {@link #process()} (when resuming, without the
+     *         invoices of the previous run, see {@link #getResumedInvoiceCount()})
+     */
+    public long getInvoiceCount() {
+        return invoiceCount;
+    }
+
     public void process() throws IOException {
 
-        try (LineIterator it = FileUtils.lineIterator(copoFile, "UTF-8")) {
-
-            String voucher;
-            String company;
-            String invoiceNumber;
-            String invoiceDateStr;
-            String invoiceAmountStr;
-            String poNumber;
-            String textForPdf = "";
-            long invoiceCount = 0;
-            while (it.hasNext()) {
-
-                // ========================================
-                // First line: should be record start
-                // ========================================
-                String line = it.nextLine();
-                if (!isRecordStart(line)) {
-                    throw new RuntimeException(
-                            "Line should be a Record-Start, and starts with '" + BEGIN_RECORD_TOKEN + "'");
+        // The options are all checked before any output is opened (a journal would be truncated)
+        compression = CompressedInput.getCompression(copoFile);
+        if (splitCount > 1) {
+            if (workerPool != null) {
+                throw new IllegalArgumentException("Splitting the file cannot be used with a shared worker pool.");
+            }
+            if (!"mapped".equals(readerType)) {
+                throw new IllegalArgumentException("Splitting the file requires the mapped reader type.");
+            }
+            if (compression != null) {
+                throw new IllegalArgumentException("Splitting the file cannot be used with a compressed file.");
+            }
+        }
+        if (compression != null && "quarantine".equals(errorPolicy)) {
+            throw new IllegalArgumentException("The quarantine error policy cannot be used with a compressed file.");
+        }
+
+        String rendererType = pdfRendererType;
+        pdfRenderers = ThreadLocal.withInitial(() -> PdfRenderer.newRenderer(rendererType));
+        outputLayout = new OutputLayout(Paths.get(destinationDirectoryPath), outputLayoutType);
+
+        resumeCheckpoint = null;
+        resumedInvoiceCount = 0;
+        if (journalFile != null) {
+            if (!"mapped".equals(readerType) || splitCount > 1) {
+                throw new IllegalArgumentException("The journal requires the mapped reader type, without split.");
+            }
+            if (resume) {
+                resumeCheckpoint = ProgressJournal.readLastCheckpoint(journalFile, copoFile);
+                resumedInvoiceCount = resumeCheckpoint == null ? 0 : resumeCheckpoint.getIndex();
+            }
+        } else if (resume) {
+            throw new IllegalArgumentException("Resuming requires a journal file.");
+        }
+
+        if (archiveFormat != null && contentIndexFile != null) {
+            throw new IllegalArgumentException("The content index cannot be used with archives.");
+        }
+        if (uploadUrl != null && (archiveFormat != null || contentIndexFile != null)) {
+            throw new IllegalArgumentException("The upload cannot be used with archives or the content index.");
+        }
+
+        if (invoiceIndexFile != null && resume) {
+            throw new IllegalArgumentException("The invoice index cannot be used when resuming.");
+        }
+        if (totalsFile != null && resume) {
+            throw new IllegalArgumentException("The control totals cannot be used when resuming.");
+        }
+        controlTotals = totalsFile == null ? null : new ControlTotals();
+
+        upToDateInvoiceCount = 0;
+        contentIndex = contentIndexFile == null ? null
+                : new ContentHashIndex(contentIndexFile, metadataExportType, schemaPrefix, pdfRendererType);
+        if (contentIndex != null) {
+            contentIndex.setForceRebuild(forceRebuild);
+        }
+
+        if (!"fail".equals(errorPolicy) && !"mapped".equals(readerType)) {
+            throw new IllegalArgumentException("The " + errorPolicy + " error policy requires the mapped reader type.");
+        }
+        malformedRecordCount.set(0);
+        failedRecordCount.set(0);
+        duplicateInvoiceCount.set(0);
+        skippedDuplicateCount.set(0);
+        fileNames = duplicatePolicy == null ? null : new InvoiceNumberSet();
+        duplicateFileNames = duplicatePolicy == null ? null : new ConcurrentHashMap<>();
+        if (fileNames != null && resumeCheckpoint != null) {
+            addPreviousFileNames();
+        }
+
+        try (ProgressJournal journal = journalFile == null ? null
+                : new ProgressJournal(journalFile, copoFile, resumeCheckpoint, checkpointInterval);
+                DeadLetterFile deadLetter = "quarantine".equals(errorPolicy)
+                        ? new DeadLetterFile(getDeadLetterFile(), copoFile, resumeCheckpoint != null)
+                        : null;
+                MetadataSink sink = archiveFormat == null && uploadUrl == null ? newMetadataSink() : null;
+                ArchiveWriter archive = archiveFormat == null ? null : newArchiveWriter();
+                // Closed before the journal: waits for the last uploads
+                HttpUploadSink upload = uploadUrl == null ? null : newUploadSink();
+                InvoiceIndexWriter index = invoiceIndexFile == null ? null
+                        : new InvoiceIndexWriter(invoiceIndexFile);
+                DuplicateReport duplicates = duplicatePolicy == null ? null
+                        : new DuplicateReport(getDuplicateReportFile(), resumeCheckpoint != null)) {
+            this.journal = journal;
+            metadataSink = sink;
+            archiveWriter = archive;
+            uploadSink = upload;
+            invoiceIndexWriter = index;
+            duplicateReport = duplicates;
+            if (!"fail".equals(errorPolicy)) {
+                malformedRecordHandler = malformed -> reportMalformedRecord(malformed, deadLetter);
+            }
+            if (splitCount > 1) {
+                if (fileNames != null) {
+                    checkSplitFileDuplicates();
+                }
+                Invoice.warmUp();
+                SplitFileParser splitFileParser = new SplitFileParser(copoFile, splitCount, threadCount);
+                splitFileParser.setFieldExtractors(fieldExtractors);
+                splitFileParser.setMalformedRecordHandler(malformedRecordHandler);
+                splitFileParser.setMetrics(metrics);
+                invoiceCount = splitFileParser.run(this::processRecord);
+            } else {
+                processSequentially();
+            }
+            invoiceCount -= failedRecordCount.get() + skippedDuplicateCount.get();
+        } finally {
+            malformedRecordHandler = null;
+            metadataSink = null;
+            archiveWriter = null;
+            uploadSink = null;
+            invoiceIndexWriter = null;
+            duplicateReport = null;
+            fileNames = null;
+            duplicateFileNames = null;
+            this.journal = null;
+            if (contentIndex != null) {
+                // Also when the run failed: what was generated is up to date
+                upToDateInvoiceCount = contentIndex.getUpToDateCount();
+                contentIndex.save();
+                contentIndex = null;
+            }
+        }
+
+        if (controlTotals != null) {
+            controlTotals.write(totalsFile, copoFile.getName());
+        }
+    }
+
+    protected void processSequentially() throws IOException {
+
+        try (RecordReader reader = fileNames == null ? newRecordReader() : checkDuplicates(newRecordReader())) {
+            if (workerPool != null) {
+                invoiceCount = workerPool.run(reader, this::processRecord);
+            } else if (threadCount == 1) {
+                reader.setReuseTextBuffer(true);
+                COPORecord record;
+                invoiceCount = 0;
+                while ((record = reader.next()) != null) {
+                    processRecord(record);
+                    invoiceCount += 1;
+                }
+            } else {
+                // PDFBox loads the Standard 14 font metrics lazily, let's not have all the workers race for it
+                Invoice.warmUp();
+                invoiceCount = new RecordPipeline(threadCount).run(reader, this::processRecord);
+            }
+        }
+
+    }
+
+    protected MetadataSink newMetadataSink() {
+        if ("ndjson".equals(metadataExportType)) {
+            String baseName = copoFile.getName() + ".metadata";
+            if (resumeCheckpoint != null) {
+                // The manifest of the failed run is kept as is, the resumed run writes its own
+                baseName += "-from-" + (resumeCheckpoint.getIndex() + 1);
+            }
+            return new ManifestMetadataSink(Paths.get(destinationDirectoryPath), baseName, manifestMaxInvoicesPerFile,
+                    outputLayout);
+        }
+        return new FileMetadataSink(outputLayout, metadataExportType, schemaPrefix, copoFile.getName());
+    }
+
+    protected ArchiveWriter newArchiveWriter() {
+        String baseName = copoFile.getName() + ".invoices";
+        if (resumeCheckpoint != null) {
+            baseName += "-from-" + (resumeCheckpoint.getIndex() + 1);
+        }
+        ArchiveWriter archive = new ArchiveWriter(Paths.get(destinationDirectoryPath), baseName, archiveFormat,
+                metadataExportType, schemaPrefix, copoFile.getName(), outputLayout);
+        archive.setMaxInvoicesPerArchive(maxInvoicesPerArchive);
+        archive.setMaxBytesPerArchive(maxBytesPerArchive);
+        return archive;
+    }
+
+    protected HttpUploadSink newUploadSink() {
+        HttpUploadSink upload = new HttpUploadSink(uploadUrl, metadataExportType, schemaPrefix, copoFile.getName());
+        upload.setMaxInFlightRequests(maxUploadsInFlight);
+        upload.setBatchSize(uploadBatchSize);
+        uploadHeaders.forEach(upload::setHeader);
+        return upload;
+    }
+
+    protected RecordReader newRecordReader() throws IOException {
+        if ("lines".equals(readerType)) {
+            LineRecordReader reader = compression == null ? new LineRecordReader(copoFile)
+                    : new LineRecordReader(CompressedInput.open(copoFile));
+            reader.setMetrics(metrics);
+            return reader;
+        }
+        MappedRecordReader reader;
+        if (compression != null) {
+            reader = resumeCheckpoint == null ? new StreamRecordReader(CompressedInput.open(copoFile))
+                    : new StreamRecordReader(CompressedInput.open(copoFile), resumeCheckpoint.getOffset(),
+                            Long.MAX_VALUE, resumeCheckpoint.getIndex() + 1);
+        } else if (resumeCheckpoint != null) {
+            reader = new MappedRecordReader(copoFile, resumeCheckpoint.getOffset(), Long.MAX_VALUE,
+                    resumeCheckpoint.getIndex() + 1);
+        } else {
+            reader = new MappedRecordReader(copoFile);
+        }
+        reader.setFieldExtractors(fieldExtractors);
+        reader.setMalformedRecordHandler(malformedRecordHandler);
+        reader.setMetrics(metrics);
+        return reader;
+    }
+
+    /**
+     * Generates the PDF and the metadata of a record. Called concurrently when {@link #getThreadCount()} is > 1 or when
+     * the file is split.
+     */
+    protected void processRecord(COPORecord record) throws IOException {
+        try {
+            if (malformedRecordHandler == null) {
+                generate(record);
+                return;
+            }
+            try {
+                generate(record);
+            } catch (RuntimeException e) {
+                // A value PDFBox or the metadata cannot write, an amount that is not a number...
+                failedRecordCount.incrementAndGet();
+                if (metrics != null) {
+                    metrics.failedRecord();
                 }
+                malformedRecordHandler.handle(new MalformedRecord(record.getIndex(), record.getSourceOffset(),
+                        record.getSourceLength(), "Record starting at offset " + record.getSourceOffset() + ": " + e,
+                        e));
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.recordHandled();
+            }
+        }
+    }
+
+    protected void generate(COPORecord record) throws IOException {
 
-                // Now, all the lines are to be exported to pdf
-                textForPdf = "";
-
-                // ========================================
-                // Voucher
-                // ========================================
-                voucher = null;
-                do {
-                    line = it.nextLine();
-                    textForPdf += line + "\n";
-
-                    Matcher m = VOUCHER_LINE_PATTERN.matcher(line);
-                    if (m.matches()) {
-                        voucher = m.group(1);
-                    }
-                } while (voucher == null);
-                // Error handling if voucher is null..., but nextLine() would have failed before that
-
-                // ========================================
-                // Company
-                // ========================================
-                company = null;
-                do {
-                    line = it.nextLine();
-                    textForPdf += line + "\n";
-
-                    Matcher m = COMPANY_LINE_PATTERN.matcher(line);
-                    if (m.matches()) {
-                        company = m.group(1);
-                    }
-                } while (company == null);
-                // Error handling if company is null..., but nextLine() would have failed before that
-
-                // ========================================
-                // Invoice number, date, etc.
-                // ========================================
-                invoiceNumber = null;
-                invoiceDateStr = null;
-                invoiceAmountStr = null;
-                poNumber = null;
-                do {
-                    line = it.nextLine();
-                    textForPdf += line + "\n";
-
-                    Matcher m = INVOICE_INFO_LINE1_PATTERN.matcher(line);
-                    if (m.matches()) {
-                        line = it.nextLine();
-                        textForPdf += line + "\n";
-
-                        // Saddly, can't find a pattern for these 4 groups...
-                        /*
-                        m = INVOICE_INFO_LINE2_PATTERN.matcher(line);
-                        // Assume it matches
-                        invoiceNumber = m.group(1);
-                        invoiceDateStr = m.group(2);
-                        invoiceAmountStr = m.group(3);
-                        poNumber = m.group(4);
-                        */
-                        // => doing it the ugly way...
-                        String[] values = line.split("\\s+");
-                        // First will be "-."
-                        invoiceNumber = values[1];
-                        invoiceDateStr = values[2];
-                        invoiceAmountStr = values[3];
-                        poNumber = values[4];
-                    }
-                } while (invoiceNumber == null);
-
-                // ========================================
-                // Get the rest of the record
-                // ========================================
-                do {
-                    line = it.nextLine();
-                    textForPdf += line + "\n";
-                } while (!isRecordEnd(line));
-
-                // ========================================
-                // Generate JSON and PDF
-                // ========================================
-                Invoice invoice = new Invoice(voucher, company, invoiceNumber, invoiceDateStr, invoiceAmountStr,
-                        poNumber, schemaPrefix);
-                invoiceCount += 1;
+        Invoice invoice = record.toInvoice(schemaPrefix);
+        String duplicateFileName = duplicateFileNames == null ? null : duplicateFileNames.remove(record.getIndex());
+        if (duplicateFileName != null) {
+            if ("skip".equals(duplicatePolicy)) {
+                return;
+            }
+            invoice.fileName = duplicateFileName;
+        }
+        long contentHash = contentIndex == null ? 0 : ContentHashIndex.hash(record);
+        long pdfChecksum;
+        // Where the PDF is, for the invoice index
+        String pdfPath = null;
+        if (contentIndex != null && isUpToDate(invoice, contentHash)) {
+            pdfChecksum = contentIndex.getPdfChecksum(invoice.getFileName());
+            contentIndex.skipped(invoice.getFileName());
+            pdfPath = outputLayout.getRelativeDirectory(invoice) + invoice.getFileName() + ".pdf";
+            if (metadataSink.getOutputFile(invoice) == null) {
+                // A manifest lists all the invoices of the CO_PO file
+                metadataSink.write(invoice, record.getIndex());
+            }
+            if (metrics != null) {
+                metrics.invoiceUpToDate();
+            }
+        } else {
+            if (contentIndex != null) {
+                contentIndex.generating(invoice.getFileName());
+            }
+
+            long start = metrics == null ? 0 : System.nanoTime();
+            long pdfEnd;
+            if (archiveWriter != null) {
+                // PDF in memory, then copied to the archive with its metadata
+                OutputBuffer pdf = pdfBuffers.get();
+                pdf.clear();
+                invoice.buildPdf(record.getText(), pdf.asOutputStream(), 2, pdfRenderers.get());
+                pdfChecksum = invoice.getPdfChecksum();
+                pdfEnd = metrics == null ? 0 : System.nanoTime();
+                // Journaled once the archive is closed, and on the disk. Not holding the record (and its text) until then
+                ProgressJournal journal = this.journal;
+                long index = record.getIndex();
+                long endOffset = record.getSourceOffset() + record.getSourceLength();
+                long checksum = pdfChecksum;
+                String archiveName = archiveWriter.write(invoice, index, pdf, pdfChecksum, journal == null ? null
+                        : () -> journal.completed(index, endOffset, checksum));
+                pdfPath = archiveName + "!/" + outputLayout.getRelativeDirectory(invoice) + invoice.getFileName()
+                        + ".pdf";
+            } else if (uploadSink != null) {
+                // PDF in memory, then uploaded with its metadata
+                OutputBuffer pdf = pdfBuffers.get();
+                pdf.clear();
+                invoice.buildPdf(record.getText(), pdf.asOutputStream(), 2, pdfRenderers.get());
+                pdfChecksum = invoice.getPdfChecksum();
+                pdfEnd = metrics == null ? 0 : System.nanoTime();
+                // Journaled once it is uploaded. Not holding the record (and its text) until then
+                ProgressJournal journal = this.journal;
+                long index = record.getIndex();
+                long endOffset = record.getSourceOffset() + record.getSourceLength();
+                long checksum = pdfChecksum;
+                uploadSink.write(invoice, index, pdf, journal == null ? null
+                        : () -> journal.completed(index, endOffset, checksum));
+            } else {
                 // Generate PDF
-                invoice.buildPdf(textForPdf, destinationDirectoryPath, 2);
-                
-                // Generate JSON or XML
-                if(metadataExportType.equals("json")) {
-                    invoice.toJsonFile(destinationDirectoryPath);
-                } else {
-                    invoice.toXmlFilePropertyForAlfrescoBulkImport(destinationDirectoryPath, invoiceCount, copoFile.getName());
+                Path pdfFile = outputLayout.getDirectory(invoice).resolve(invoice.getFileName() + ".pdf");
+                invoice.buildPdf(record.getText(), pdfFile, 2, pdfRenderers.get());
+                pdfChecksum = invoice.getPdfChecksum();
+                pdfEnd = metrics == null ? 0 : System.nanoTime();
+
+                // Generate JSON or XML, or add to the manifest
+                metadataSink.write(invoice, record.getIndex());
+                pdfPath = outputLayout.getRelativeDirectory(invoice) + pdfFile.getFileName();
+            }
+            if (metrics != null) {
+                metrics.recordLatency(ParserMetrics.Stage.PDF, pdfEnd - start);
+                metrics.recordLatency(ParserMetrics.Stage.METADATA, System.nanoTime() - pdfEnd);
+                metrics.invoiceGenerated();
+            }
+
+            if (contentIndex != null) {
+                contentIndex.generated(invoice.getFileName(), contentHash, pdfChecksum);
+            }
+        }
+
+        if (invoiceIndexWriter != null) {
+            invoiceIndexWriter.add(invoice, record, pdfPath);
+        }
+
+        if (controlTotals != null) {
+            controlTotals.add(record);
+        }
+
+        if (journal != null && uploadSink == null && archiveWriter == null) {
+            // With an upload, once acknowledged, with archives, once the archive is closed
+            journal.completed(record.getIndex(), record.getSourceOffset() + record.getSourceLength(), pdfChecksum);
+        }
+    }
+
+    /**
+     * @return the reader, applying the duplicate policy to each record it reads, so in file order
+     */
+    protected RecordReader checkDuplicates(RecordReader reader) {
+        return new RecordReader() {
+            @Override
+            public COPORecord next() throws IOException {
+                COPORecord record = reader.next();
+                if (record != null) {
+                    checkDuplicate(record);
+                }
+                return record;
+            }
+
+            @Override
+            public void setReuseTextBuffer(boolean reuse) {
+                reader.setReuseTextBuffer(reuse);
+            }
+
+            @Override
+            public void setMetrics(ParserMetrics metrics) {
+                reader.setMetrics(metrics);
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Split file: applies the duplicate policy to all the records, in file order, before the ranges are handled
+     */
+    protected void checkSplitFileDuplicates() throws IOException {
+        try (MappedRecordReader reader = newInvoiceNumberReader(Long.MAX_VALUE)) {
+            reader.setReuseTextBuffer(true);
+            COPORecord record;
+            while ((record = reader.next()) != null) {
+                checkDuplicate(record);
+            }
+        }
+    }
+
+    /**
+     * Applies the duplicate policy to a record if its invoice number was already used. Called in file order, before
+     * the record is handled: {@link #generate(COPORecord)} then finds its file name in {@link #duplicateFileNames}.
+     */
+    protected void checkDuplicate(COPORecord record) throws IOException {
+        String invoiceNumber = record.getInvoiceNumber();
+        if (fileNames.add(invoiceNumber)) {
+            return;
+        }
+        duplicateInvoiceCount.incrementAndGet();
+        if (metrics != null) {
+            metrics.duplicateInvoice();
+        }
+        String fileName = "suffix".equals(duplicatePolicy) ? nextFileName(invoiceNumber) : null;
+        duplicateReport.write(record, duplicatePolicy, fileName);
+        if ("fail".equals(duplicatePolicy)) {
+            throw new IOException("Duplicate invoice number " + invoiceNumber + " in record " + record.getIndex()
+                    + " at offset " + record.getSourceOffset() + ", see " + getDuplicateReportFile());
+        }
+        if ("skip".equals(duplicatePolicy)) {
+            skippedDuplicateCount.incrementAndGet();
+            if (journal != null) {
+                journal.completed(record.getIndex(), record.getSourceOffset() + record.getSourceLength(), 0);
+            }
+        }
+        duplicateFileNames.put(record.getIndex(), fileName != null ? fileName : duplicatePolicy);
+    }
+
+    /**
+     * @return the first <code>invoiceNumber_n</code> not used yet, n starting at 2, now used
+     */
+    protected String nextFileName(String invoiceNumber) {
+        for (int n = 2;; n++) {
+            // Also a duplicate of an invoice actually numbered like this
+            String fileName = invoiceNumber + DUPLICATE_SEPARATOR + n;
+            if (fileNames.add(fileName)) {
+                return fileName;
+            }
+        }
+    }
+
+    /**
+     * Resumed run: adds the file names used by the records before the checkpoint, as a sequential run gives them
+     */
+    protected void addPreviousFileNames() throws IOException {
+        try (MappedRecordReader reader = newInvoiceNumberReader(resumeCheckpoint.getOffset())) {
+            COPORecord record;
+            while ((record = reader.next()) != null) {
+                if (!fileNames.add(record.getInvoiceNumber()) && "suffix".equals(duplicatePolicy)) {
+                    nextFileName(record.getInvoiceNumber());
                 }
-            } // while (it.hasNext())
+            }
+        }
+    }
+
+    /**
+     * @return a reader of the records before <code>end</code>, for their invoice numbers only: the malformed records
+     *         are not reported, they are (or were) by the run handling them
+     */
+    protected MappedRecordReader newInvoiceNumberReader(long end) throws IOException {
+        MappedRecordReader reader = compression == null ? new MappedRecordReader(copoFile, 0, end, 1)
+                : new StreamRecordReader(CompressedInput.open(copoFile), 0, end, 1);
+        reader.setFieldExtractors(fieldExtractors);
+        if (!"fail".equals(errorPolicy)) {
+            reader.setMalformedRecordHandler(malformed -> {
+            });
+        }
+        return reader;
+    }
 
-        } catch (IOException e) {
-            throw e;
+    /**
+     * Counts the malformed record, and writes it to the dead-letter file if any. Its index is done for the journal.
+     */
+    protected void reportMalformedRecord(MalformedRecord malformed, DeadLetterFile deadLetter) throws IOException {
+        malformedRecordCount.incrementAndGet();
+        if (metrics != null) {
+            metrics.malformedRecord();
         }
+        if (deadLetter != null) {
+            deadLetter.handle(malformed);
+        }
+        if (journal != null && malformed.getIndex() > 0) {
+            journal.completed(malformed.getIndex(), malformed.getOffset() + malformed.getLength(), 0);
+        }
+    }
 
+    /**
+     * @return true if the content index says the invoice is up to date, and its files are there
+     */
+    protected boolean isUpToDate(Invoice invoice, long contentHash) {
+        if (!contentIndex.isUpToDate(invoice.getFileName(), contentHash)) {
+            return false;
+        }
+        Path metadataFile = metadataSink.getOutputFile(invoice);
+        return Files.exists(outputLayout.resolvePdfFile(invoice))
+                && (metadataFile == null || Files.exists(metadataFile));
     }
 
     protected boolean isRecordStart(String line) {
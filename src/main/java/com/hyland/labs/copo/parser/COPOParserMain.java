@@ -1,23 +1,88 @@
 package com.hyland.labs.copo.parser;
 
 import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
 
 /**
  * Hello world!
  */
 public class COPOParserMain {
 
+    // The invoice index of a CO_PO file of a batch, in the -invoiceIndex directory
+    protected static final String INVOICE_INDEX_EXTENSION = ".idx";
+
+    // The control totals of a CO_PO file of a batch, in the -totals directory
+    protected static final String TOTALS_EXTENSION = ".totals.json";
+
     public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && "-query".equals(args[0])) {
+            if (args.length != 3 || args[2].indexOf('=') < 1) {
+                System.out.println("-query requires an invoice index file (or a directory of them) and field=value,"
+                        + " or invoiceDate=yyyymmdd..yyyymmdd, field among " + String.join(", ", InvoiceIndex.FIELDS));
+                return;
+            }
+            query(args[1], args[2]);
+            return;
+        }
         
         if(args.length < 4) {
             String help = "co-po-parser requires at least 3 arguments:\n";
-            help += "-met, Metadata Export Type. Must be json or xml\n";
-            help += "-f, the CO_PO file to parse\n";
+            help += "-met, Metadata Export Type. Must be json, xml (one file per invoice) or ndjson (one manifest)\n";
+            help += "-f, the CO_PO file to parse (possibly gzip or zstd compressed), or a directory or glob pattern (quoted) of CO_PO files to parse in batch\n";
             help += "-d, the destination Directory Path\n";
             help += "-sp, schema prefix. Required and used only if -met is xml\n";
+            help += "-r, optional reader type, mapped (default, faster) or lines\n";
+            help += "-pdf, optional PDF renderer, pdfbox (default) or fast (template, without PDFBox)\n";
+            help += "-layout, optional subdirectories of the generated files, flat (default), hash, company or date\n";
+            help += "-archive, optional, zip or tar: write the PDFs and metadata in rolling archives instead of files\n";
+            help += "-archiveInvoices, optional maximum number of invoices per archive. Default: 10000\n";
+            help += "-archiveMB, optional maximum size of an archive, in MB. Default: 1024\n";
+            help += "-upload, optional URL: upload the PDFs and metadata (multipart POST) instead of writing files\n";
+            help += "-uploadConcurrency, optional maximum number of upload requests in flight. Default: 16\n";
+            help += "-uploadBatch, optional number of invoices per upload request. Default: 1\n";
+            help += "-uploadHeader, optional header of the upload requests, \"Name: value\" (repeat for several headers)\n";
+            help += "-batch, optional maximum number of invoices per manifest file with -met ndjson. Default: 0 (one manifest)\n";
+            help += "-journal, optional file where the progress is journaled, so a failed run can be resumed\n";
+            help += "--resume, resume the run from the last checkpoint of the -journal file\n";
+            help += "-index, optional content index file: invoices unchanged since the previous run are not generated again\n";
+            help += "--force, with -index, generate all the invoices anyway\n";
+            help += "-invoiceIndex, optional file where the invoices are indexed by number, PO, voucher, company and date, see -query\n";
+            help += "-totals, optional file where the control totals (per company and date) and the invoices whose amount is not the GRAND TOTAL are reported\n";
+            help += "-errors, optional policy for malformed records, fail (default), skip or quarantine (copied to a dead-letter file)\n";
+            help += "-deadletter, optional dead-letter file of -errors quarantine. Default: the CO_PO file path + .dead-letter.txt\n";
+            help += "-duplicates, optional policy for invoice numbers already used in the file, suffix (INV1_2.pdf), skip or fail. Default: none (overwritten)\n";
+            help += "-duplicateReport, optional report of -duplicates. Default: the CO_PO file path + .duplicates.ndjson\n";
+            help += "-files, optional number of files of a batch read at the same time. Default: 2\n";
+            help += "-summary, optional summary file of a batch. Default: copo-batch-summary.ndjson in the destination directory\n";
+            help += "-watch, instead of -f, a directory to watch: each CO_PO file dropped in it is parsed, until the process is stopped\n";
+            help += "-done, optional directory where -watch moves the parsed files. Default: done in the watched directory\n";
+            help += "-failed, optional directory where -watch moves the files that failed. Default: failed in the watched directory\n";
+            help += "--poll, with -watch, list the directory every second instead of relying on file system notifications\n";
+            help += "-metrics, optional file where a JSON report of the counters and stage latencies is written at the end\n";
+            help += "-metricsInterval, optional interval in seconds of a metrics line on the console. Default: 0 (none)\n";
+            help += "--jmx, expose the metrics with JMX (com.hyland.labs.copo:type=ParserMetrics)\n";
+            help += "-split, optional number of byte ranges of the file parsed in parallel. Default: 0 (no split)\n";
+            help += "-t, optional number of threads generating the PDFs and metadata. Default: number of cores\n";
             help += "\nExamples\n";
             help += "json export of the metadata:\njava -jar co-po-parser.jar -f /path/to/co-po -d /path/to/export/directory -met json\n";
             help += "xml export of the metadata:\njava -jar co-po-parser.jar -f /path/to/co-po -d /path/to/export/directory -met xml -sp acme\n";
+            help += "find invoices in an -invoiceIndex file (or a directory of them, of a batch):\n";
+            help += "java -jar co-po-parser.jar -query /path/to/invoices.idx poNumber=PO123\n";
+            help += "java -jar co-po-parser.jar -query /path/to/invoices.idx invoiceDate=20200101..20200131\n";
             
             System.out.println(help);
             return;
@@ -27,6 +92,38 @@ public class COPOParserMain {
         String destinationDirectoryPath = null;
         String exportType = null;
         String schemaPrefix = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String readerType = "mapped";
+        int splitCount = 0;
+        String pdfRendererType = "pdfbox";
+        int manifestMaxInvoicesPerFile = 0;
+        String journalFilePath = null;
+        boolean resume = false;
+        String contentIndexFilePath = null;
+        String invoiceIndexFilePath = null;
+        String totalsFilePath = null;
+        boolean forceRebuild = false;
+        String errorPolicy = "fail";
+        String deadLetterFilePath = null;
+        String duplicatePolicy = null;
+        String duplicateReportFilePath = null;
+        int concurrentFileCount = 2;
+        String summaryFilePath = null;
+        String watchDirPath = null;
+        String doneDirPath = null;
+        String failedDirPath = null;
+        boolean polling = false;
+        String outputLayout = "flat";
+        String archiveFormat = null;
+        int maxInvoicesPerArchive = ArchiveWriter.DEFAULT_MAX_INVOICES_PER_ARCHIVE;
+        long maxMegaBytesPerArchive = ArchiveWriter.DEFAULT_MAX_BYTES_PER_ARCHIVE / (1024 * 1024);
+        String uploadUrl = null;
+        int maxUploadsInFlight = HttpUploadSink.DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+        int uploadBatchSize = HttpUploadSink.DEFAULT_BATCH_SIZE;
+        List<String> uploadHeaders = new ArrayList<>();
+        String metricsFilePath = null;
+        int metricsInterval = 0;
+        boolean jmx = false;
         for (int i = 0; i < args.length; i++) {
             String arg = args[i];
             switch(arg) {
@@ -49,11 +146,171 @@ public class COPOParserMain {
                 i += 1;
                 schemaPrefix = args[i];
                 break;
+
+            case "-r":
+                i += 1;
+                readerType = args[i];
+                break;
+
+            case "-pdf":
+                i += 1;
+                pdfRendererType = args[i];
+                break;
+
+            case "-batch":
+                i += 1;
+                manifestMaxInvoicesPerFile = Integer.parseInt(args[i]);
+                break;
+
+            case "-journal":
+                i += 1;
+                journalFilePath = args[i];
+                break;
+
+            case "--resume":
+                resume = true;
+                break;
+
+            case "-index":
+                i += 1;
+                contentIndexFilePath = args[i];
+                break;
+
+            case "-invoiceIndex":
+                i += 1;
+                invoiceIndexFilePath = args[i];
+                break;
+
+            case "-totals":
+                i += 1;
+                totalsFilePath = args[i];
+                break;
+
+            case "--force":
+                forceRebuild = true;
+                break;
+
+            case "-errors":
+                i += 1;
+                errorPolicy = args[i];
+                break;
+
+            case "-duplicates":
+                i += 1;
+                duplicatePolicy = args[i];
+                break;
+
+            case "-duplicateReport":
+                i += 1;
+                duplicateReportFilePath = args[i];
+                break;
+
+            case "-deadletter":
+                i += 1;
+                deadLetterFilePath = args[i];
+                break;
+
+            case "-files":
+                i += 1;
+                concurrentFileCount = Integer.parseInt(args[i]);
+                break;
+
+            case "-summary":
+                i += 1;
+                summaryFilePath = args[i];
+                break;
+
+            case "-watch":
+                i += 1;
+                watchDirPath = args[i];
+                break;
+
+            case "-done":
+                i += 1;
+                doneDirPath = args[i];
+                break;
+
+            case "-failed":
+                i += 1;
+                failedDirPath = args[i];
+                break;
+
+            case "--poll":
+                polling = true;
+                break;
+
+            case "-layout":
+                i += 1;
+                outputLayout = args[i];
+                break;
+
+            case "-archive":
+                i += 1;
+                archiveFormat = args[i];
+                break;
+
+            case "-archiveInvoices":
+                i += 1;
+                maxInvoicesPerArchive = Integer.parseInt(args[i]);
+                break;
+
+            case "-archiveMB":
+                i += 1;
+                maxMegaBytesPerArchive = Long.parseLong(args[i]);
+                break;
+
+            case "-upload":
+                i += 1;
+                uploadUrl = args[i];
+                break;
+
+            case "-uploadConcurrency":
+                i += 1;
+                maxUploadsInFlight = Integer.parseInt(args[i]);
+                break;
+
+            case "-uploadBatch":
+                i += 1;
+                uploadBatchSize = Integer.parseInt(args[i]);
+                break;
+
+            case "-uploadHeader":
+                i += 1;
+                if (args[i].indexOf(':') < 1) {
+                    System.out.println("-uploadHeader must be \"Name: value\"");
+                    return;
+                }
+                uploadHeaders.add(args[i]);
+                break;
+
+            case "-metrics":
+                i += 1;
+                metricsFilePath = args[i];
+                break;
+
+            case "-metricsInterval":
+                i += 1;
+                metricsInterval = Integer.parseInt(args[i]);
+                break;
+
+            case "--jmx":
+                jmx = true;
+                break;
+
+            case "-split":
+                i += 1;
+                splitCount = Integer.parseInt(args[i]);
+                break;
+
+            case "-t":
+                i += 1;
+                threadCount = Integer.parseInt(args[i]);
+                break;
             }
         }
         
-        if(exportType == null || (!"json".equals(exportType) && !"xml".equals(exportType))) {
-            System.out.println("Metadata Export Type is required and must be either json or xml (case sensitive)");
+        if(exportType == null || (!"json".equals(exportType) && !"xml".equals(exportType) && !"ndjson".equals(exportType))) {
+            System.out.println("Metadata Export Type is required and must be either json, xml or ndjson (case sensitive)");
             return;
         }
         
@@ -62,18 +319,299 @@ public class COPOParserMain {
             return;
         }
         
+        if(splitCount > 1 && (watchDirPath != null || BatchParser.isBatch(copoFilePath))) {
+            System.out.println("-split cannot be used with a directory, a glob pattern or -watch.");
+            return;
+        }
+        
         String msg = "==============================\nCOPOParser, arguments received:\n";
-        msg += "copoFilePath: " + copoFilePath + "\n";
+        msg += "copoFilePath: " + (watchDirPath != null ? "(watching " + watchDirPath + ")" : copoFilePath) + "\n";
         msg += "Dest. Directory Path: " + destinationDirectoryPath + "\n";
         msg += "Metadata Export Type: " + exportType + "\n";
         msg += "Schema Prexif (if export type is xml): " + schemaPrefix + "\n";
+        msg += "Threads: " + threadCount + "\n";
+        msg += "Reader Type: " + readerType + "\n";
+        msg += "PDF Renderer: " + pdfRendererType + "\n";
+        msg += "Output layout: " + outputLayout + "\n";
+        msg += "Archives: " + (archiveFormat == null ? "none"
+                : archiveFormat + " (" + maxInvoicesPerArchive + " invoices, " + maxMegaBytesPerArchive + " MB)") + "\n";
+        msg += "Upload: " + (uploadUrl == null ? "none"
+                : uploadUrl + " (" + maxUploadsInFlight + " requests in flight, " + uploadBatchSize + " invoices per request)")
+                + "\n";
+        msg += "Invoices per manifest (if export type is ndjson): " + manifestMaxInvoicesPerFile + "\n";
+        msg += "Journal: " + journalFilePath + (resume ? " (resume)" : "") + "\n";
+        msg += "Content index: " + contentIndexFilePath + (forceRebuild ? " (force)" : "") + "\n";
+        msg += "Invoice index: " + invoiceIndexFilePath + "\n";
+        msg += "Control totals: " + totalsFilePath + "\n";
+        msg += "Error policy: " + errorPolicy + (deadLetterFilePath != null ? " (" + deadLetterFilePath + ")" : "") + "\n";
+        msg += "Duplicates: " + (duplicatePolicy == null ? "not checked" : duplicatePolicy)
+                + (duplicateReportFilePath != null ? " (" + duplicateReportFilePath + ")" : "") + "\n";
+        msg += "Split count: " + splitCount + "\n";
+        msg += "Metrics: " + (metricsFilePath != null ? metricsFilePath : "no report")
+                + (metricsInterval > 0 ? ", every " + metricsInterval + " s" : "") + (jmx ? ", JMX" : "") + "\n";
         msg += "==============================";
         System.out.println(msg);
 
+        // With a directory or a glob, the journal, index and dead-letter paths are directories, with a file per CO_PO
+        boolean batch = watchDirPath != null || BatchParser.isBatch(copoFilePath);
+        String destination = destinationDirectoryPath;
+        String metadataExportType = exportType;
+        String prefix = schemaPrefix;
+        int threads = threadCount;
+        String reader = readerType;
+        String renderer = pdfRendererType;
+        String layout = outputLayout;
+        String archive = archiveFormat;
+        int invoicesPerArchive = maxInvoicesPerArchive;
+        long bytesPerArchive = maxMegaBytesPerArchive * 1024 * 1024;
+        int invoicesPerManifest = manifestMaxInvoicesPerFile;
+        int split = splitCount;
+        String journalPath = journalFilePath;
+        boolean resumeRun = resume;
+        String indexPath = contentIndexFilePath;
+        String invoiceIndexPath = invoiceIndexFilePath;
+        String totalsPath = totalsFilePath;
+        boolean force = forceRebuild;
+        String policy = errorPolicy;
+        String deadLetterPath = deadLetterFilePath;
+        String duplicates = duplicatePolicy;
+        String duplicateReportPath = duplicateReportFilePath;
+        URI upload = uploadUrl == null ? null : URI.create(uploadUrl);
+        int uploadsInFlight = maxUploadsInFlight;
+        int uploadBatch = uploadBatchSize;
+        // Shared by all the files of a batch
+        ParserMetrics metrics = metricsFilePath != null || metricsInterval > 0 || jmx ? new ParserMetrics() : null;
+        BatchParser.ParserFactory parserFactory = copo -> {
+            COPOParser parser = new COPOParser(copo, destination, metadataExportType, prefix);
+            parser.setThreadCount(threads);
+            parser.setReaderType(reader);
+            parser.setPdfRendererType(renderer);
+            parser.setOutputLayout(layout);
+            parser.setArchiveFormat(archive);
+            parser.setMaxInvoicesPerArchive(invoicesPerArchive);
+            parser.setMaxBytesPerArchive(bytesPerArchive);
+            parser.setManifestMaxInvoicesPerFile(invoicesPerManifest);
+            parser.setSplitCount(split);
+            if (journalPath != null) {
+                parser.setJournalFile(batch ? new File(journalPath, copo.getName() + ".journal") : new File(journalPath));
+            }
+            parser.setResume(resumeRun);
+            if (indexPath != null) {
+                parser.setContentIndexFile(batch ? new File(indexPath, copo.getName() + ".index") : new File(indexPath));
+            }
+            if (invoiceIndexPath != null) {
+                parser.setInvoiceIndexFile(batch ? new File(invoiceIndexPath, copo.getName() + INVOICE_INDEX_EXTENSION)
+                        : new File(invoiceIndexPath));
+            }
+            if (totalsPath != null) {
+                parser.setTotalsFile(batch ? new File(totalsPath, copo.getName() + TOTALS_EXTENSION)
+                        : new File(totalsPath));
+            }
+            parser.setForceRebuild(force);
+            parser.setErrorPolicy(policy);
+            if (deadLetterPath != null) {
+                parser.setDeadLetterFile(batch ? new File(deadLetterPath, copo.getName() + COPOParser.DEAD_LETTER_SUFFIX)
+                        : new File(deadLetterPath));
+            }
+            parser.setDuplicatePolicy(duplicates);
+            if (duplicateReportPath != null) {
+                parser.setDuplicateReportFile(batch
+                        ? new File(duplicateReportPath, copo.getName() + COPOParser.DUPLICATE_REPORT_SUFFIX)
+                        : new File(duplicateReportPath));
+            }
+            parser.setUploadUrl(upload);
+            parser.setMaxUploadsInFlight(uploadsInFlight);
+            parser.setUploadBatchSize(uploadBatch);
+            for (String header : uploadHeaders) {
+                int colon = header.indexOf(':');
+                parser.setUploadHeader(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+            }
+            parser.setMetrics(metrics);
+            return parser;
+        };
+
+        MetricsReporter reporter = metricsInterval > 0
+                ? new MetricsReporter(metrics, metricsInterval * 1000L, System.out::println)
+                : null;
+        ObjectName mbeanName = jmx ? metrics.registerMBean(ParserMetrics.DEFAULT_MBEAN_NAME) : null;
+        CountDownLatch mainDone = new CountDownLatch(1);
+        try {
+            run(copoFilePath, destinationDirectoryPath, parserFactory, batch, threadCount, concurrentFileCount,
+                    summaryFilePath, watchDirPath, doneDirPath, failedDirPath, polling, contentIndexFilePath,
+                    errorPolicy, mainDone);
+        } finally {
+            try {
+                writeMetrics(metrics, reporter, mbeanName, metricsFilePath);
+            } finally {
+                mainDone.countDown();
+            }
+        }
+    }
+
+    protected static void writeMetrics(ParserMetrics metrics, MetricsReporter reporter, ObjectName mbeanName,
+            String metricsFilePath) throws Exception {
+        if (metrics != null) {
+            metrics.stop();
+            if (reporter != null) {
+                reporter.close();
+            }
+            if (mbeanName != null) {
+                ParserMetrics.unregisterMBean(mbeanName);
+            }
+            if (metricsFilePath != null) {
+                Files.write(Paths.get(metricsFilePath),
+                        metrics.toJson().toString(2).getBytes(StandardCharsets.UTF_8));
+                System.out.println("Metrics written to " + metricsFilePath);
+            }
+        }
+    }
+
+    protected static void run(String copoFilePath, String destinationDirectoryPath,
+            BatchParser.ParserFactory parserFactory, boolean batch, int threadCount, int concurrentFileCount,
+            String summaryFilePath, String watchDirPath, String doneDirPath, String failedDirPath, boolean polling,
+            String contentIndexFilePath, String errorPolicy, CountDownLatch mainDone) throws Exception {
+
+        if (watchDirPath != null) {
+            File watchDir = new File(watchDirPath);
+            FolderWatcher watcher = new FolderWatcher(watchDir,
+                    doneDirPath != null ? new File(doneDirPath) : new File(watchDir, "done"),
+                    failedDirPath != null ? new File(failedDirPath) : new File(watchDir, "failed"), parserFactory);
+            watcher.setThreadCount(threadCount);
+            watcher.setConcurrentFileCount(concurrentFileCount);
+            watcher.setPolling(polling);
+            watcher.setSummaryFile(summaryFilePath != null ? new File(summaryFilePath)
+                    : new File(destinationDirectoryPath, "copo-watch-summary.ndjson"));
+            watcher.setListener(summary -> System.out.println(summary.isFailed()
+                    ? "FAILED: " + summary.getCopoFile() + ": " + summary.getError()
+                    : String.format("%s: %d invoices in %.1f s", summary.getCopoFile().getName(),
+                            summary.getInvoiceCount(), summary.getSeconds())));
+
+            // Ctrl-C or kill: the files being parsed are finished and moved (and the metrics written) before the JVM
+            // exits
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                watcher.stop();
+                try {
+                    mainDone.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            System.out.println("Watching " + watchDir + " (stop with Ctrl-C)");
+            watcher.run();
+            System.out.println(String.format("Stopped: %d files done, %d failed", watcher.getDoneCount(),
+                    watcher.getFailedCount()));
+            return;
+        }
+
+        if (batch) {
+            if (summaryFilePath == null) {
+                summaryFilePath = new File(destinationDirectoryPath, "copo-batch-summary.ndjson").getPath();
+            }
+            processBatch(copoFilePath, parserFactory, threadCount, concurrentFileCount, summaryFilePath);
+            return;
+        }
+
         File copo = new File(copoFilePath);
-        COPOParser.process(copo, destinationDirectoryPath, exportType, schemaPrefix);
-        
+        COPOParser parser = parserFactory.newParser(copo);
+
+        long start = System.nanoTime();
+        parser.process();
+        double seconds = (System.nanoTime() - start) / 1e9;
 
-        System.out.println("Done");
+        if (parser.getResumedInvoiceCount() > 0) {
+            System.out.println("Resumed after " + parser.getResumedInvoiceCount() + " invoices done by the previous run");
+        }
+        if (contentIndexFilePath != null) {
+            System.out.println(String.format("Content index: %d up to date (skipped), %d generated",
+                    parser.getUpToDateInvoiceCount(), parser.getInvoiceCount() - parser.getUpToDateInvoiceCount()));
+        }
+        if (parser.getDuplicateInvoiceCount() > 0) {
+            System.out.println(parser.getDuplicateInvoiceCount() + " duplicate invoice numbers ("
+                    + parser.getDuplicatePolicy() + ") listed in " + parser.getDuplicateReportFile());
+        }
+        ControlTotals totals = parser.getControlTotals();
+        if (totals != null) {
+            System.out.println(String.format("Control totals: %d invoices, %s, %d not matching their GRAND TOTAL, in %s",
+                    totals.getTotals().getInvoiceCount(),
+                    BigDecimal.valueOf(totals.getTotals().getInvoiceAmountCents(), 2).toPlainString(),
+                    totals.getMismatchCount(), parser.getTotalsFile()));
+        }
+        if (parser.getMalformedRecordCount() > 0) {
+            System.out.println(parser.getMalformedRecordCount() + " malformed records "
+                    + ("quarantine".equals(errorPolicy) ? "written to " + parser.getDeadLetterFile() : "skipped"));
+        }
+        double megaBytes = copo.length() / (1024.0 * 1024.0);
+        System.out.println(String.format("Done: %d invoices, %.1f MB in %.1f s (%.1f MB/s)", parser.getInvoiceCount(),
+                megaBytes, seconds, seconds > 0 ? megaBytes / seconds : 0));
+    }
+
+    /**
+     * Prints the invoices of the index (or of the indexes of the directory) matching <code>field=value</code> or
+     * <code>invoiceDate=from..to</code>, as JSON lines
+     */
+    protected static void query(String indexPath, String condition) throws IOException {
+
+        File indexFile = new File(indexPath);
+        File[] indexFiles = indexFile.isDirectory()
+                ? indexFile.listFiles((dir, name) -> name.endsWith(INVOICE_INDEX_EXTENSION))
+                : new File[] { indexFile };
+        Arrays.sort(indexFiles);
+        int equals = condition.indexOf('=');
+        String field = condition.substring(0, equals);
+        String value = condition.substring(equals + 1);
+        int range = value.indexOf("..");
+
+        long start = System.nanoTime();
+        long matchCount = 0;
+        for (File f : indexFiles) {
+            try (InvoiceIndex index = new InvoiceIndex(f)) {
+                List<InvoiceIndex.Entry> entries = range >= 0 && InvoiceIndex.INVOICE_DATE.equals(field)
+                        ? index.findDates(value.substring(0, range), value.substring(range + 2))
+                        : index.find(field, value);
+                for (InvoiceIndex.Entry entry : entries) {
+                    JSONObject json = entry.toJson();
+                    if (indexFiles.length > 1) {
+                        json.put("indexFile", f.getName());
+                    }
+                    System.out.println(json);
+                }
+                matchCount += entries.size();
+            }
+        }
+        System.out.println(String.format("%d matches in %.1f ms (%d index files)", matchCount,
+                (System.nanoTime() - start) / 1e6, indexFiles.length));
+    }
+
+    protected static void processBatch(String directoryOrGlob, BatchParser.ParserFactory parserFactory, int threadCount,
+            int concurrentFileCount, String summaryFilePath) throws IOException {
+
+        List<File> files = BatchParser.listFiles(directoryOrGlob);
+        System.out.println("Batch of " + files.size() + " files, summary in " + summaryFilePath);
+        BatchParser batchParser = new BatchParser(files, parserFactory);
+        batchParser.setThreadCount(threadCount);
+        batchParser.setConcurrentFileCount(concurrentFileCount);
+        batchParser.setSummaryFile(new File(summaryFilePath));
+
+        long start = System.nanoTime();
+        List<BatchParser.FileSummary> summaries = batchParser.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long invoiceCount = 0;
+        long byteCount = 0;
+        int failedCount = 0;
+        for (BatchParser.FileSummary summary : summaries) {
+            invoiceCount += summary.getInvoiceCount();
+            byteCount += summary.getCopoFile().length();
+            if (summary.isFailed()) {
+                failedCount += 1;
+                System.out.println("FAILED: " + summary.getCopoFile() + ": " + summary.getError());
+            } else {
+                System.out.println(String.format("%s: %d invoices in %.1f s", summary.getCopoFile().getName(),
+                        summary.getInvoiceCount(), summary.getSeconds()));
+            }
+        }
+        double megaBytes = byteCount / (1024.0 * 1024.0);
+        System.out.println(String.format("Done: %d files (%d failed), %d invoices, %.1f MB in %.1f s (%.1f MB/s)",
+                summaries.size(), failedCount, invoiceCount, megaBytes, seconds, seconds > 0 ? megaBytes / seconds : 0));
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One record of a CO_PO file, as framed by a {@link RecordReader}: the header values plus the text to print in the
+ * PDF.
+ * <p>
+ * Records are immutable so they can be handed from the reader thread to the render/write workers without any
+ * synchronization. The <code>index</code> is assigned by the reader, in file order, and is the one passed to the XML
+ * writer (so it does not depend on which worker finishes first).
+ * <p>
+ * The text is kept as a {@link RecordText}: line offsets over the bytes of the input, decoded only when a line is
+ * printed. When the reader reuses its text buffer (see {@link RecordReader#setReuseTextBuffer(boolean)}), the text of a
+ * record is only valid until the next record is read.
+ */
+public class COPORecord {
+
+    final long index;
+
+    final String voucher;
+
+    final String company;
+
+    final String invoiceNumber;
+
+    final String invoiceDateStr;
+
+    final String invoiceAmountStr;
+
+    final String poNumber;
+
+    final long sourceOffset;
+
+    final int sourceLength;
+
+    final RecordText text;
+
+    final Map<String, String> otherFields;
+
+    public COPORecord(long index, String voucher, String company, String invoiceNumber, String invoiceDateStr,
+            String invoiceAmountStr, String poNumber, String textForPdf) {
+        this(index, voucher, company, invoiceNumber, invoiceDateStr, invoiceAmountStr, poNumber,
+                textForPdf == null ? null : RecordText.of(textForPdf), -1, -1);
+    }
+
+    /**
+     * @param text the lines of the record, record-start line excluded
+     * @param sourceOffset offset of the record-start line in the CO_PO file
+     * @param sourceLength length of the record in the CO_PO file, record-start line included
+     */
+    public COPORecord(long index, String voucher, String company, String invoiceNumber, String invoiceDateStr,
+            String invoiceAmountStr, String poNumber, RecordText text, long sourceOffset, int sourceLength) {
+        this.index = index;
+        this.voucher = voucher;
+        this.company = company;
+        this.invoiceNumber = invoiceNumber;
+        this.invoiceDateStr = invoiceDateStr;
+        this.invoiceAmountStr = invoiceAmountStr;
+        this.poNumber = poNumber;
+        this.text = text;
+        this.otherFields = Collections.emptyMap();
+        this.sourceOffset = sourceOffset;
+        this.sourceLength = sourceLength;
+    }
+
+    /**
+     * @param fields the values found by the {@link FieldExtractor}s, copied
+     */
+    public COPORecord(long index, RecordFields fields, RecordText text, long sourceOffset, int sourceLength) {
+        this.index = index;
+        this.voucher = fields.getVoucher();
+        this.company = fields.getCompany();
+        this.invoiceNumber = fields.getInvoiceNumber();
+        this.invoiceDateStr = fields.getInvoiceDateStr();
+        this.invoiceAmountStr = fields.getInvoiceAmountStr();
+        this.poNumber = fields.getPoNumber();
+        this.otherFields = fields.copyOthers();
+        this.text = text;
+        this.sourceOffset = sourceOffset;
+        this.sourceLength = sourceLength;
+    }
+
+    /**
+     * @return the 1-based position of the record in its CO_PO file
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public String getVoucher() {
+        return voucher;
+    }
+
+    public String getCompany() {
+        return company;
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+
+    public String getInvoiceDateStr() {
+        return invoiceDateStr;
+    }
+
+    public String getInvoiceAmountStr() {
+        return invoiceAmountStr;
+    }
+
+    public String getPoNumber() {
+        return poNumber;
+    }
+
+    /**
+     * @return the value of a field found by an additional {@link FieldExtractor}, or null
+     */
+    public String getOtherField(String name) {
+        return otherFields.get(name);
+    }
+
+    /**
+     * @return the lines of the record (record-start line excluded)
+     */
+    public RecordText getText() {
+        return text;
+    }
+
+    /**
+     * @return all the lines of the record (record-start line excluded), each one followed by "\n". Decoded at each call,
+     *         prefer {@link #getText()}
+     */
+    public String getTextForPdf() {
+        return text == null ? null : text.toString();
+    }
+
+    /**
+     * @return the offset of the record in the CO_PO file, or -1 if the reader does not track it
+     */
+    public long getSourceOffset() {
+        return sourceOffset;
+    }
+
+    /**
+     * @return the length in bytes of the record in the CO_PO file, or -1 if the reader does not track it
+     */
+    public int getSourceLength() {
+        return sourceLength;
+    }
+
+    public Invoice toInvoice(String schemaPrefix) {
+        return new Invoice(voucher, company, invoiceNumber, invoiceDateStr, invoiceAmountStr, poNumber, schemaPrefix);
+    }
+
+}
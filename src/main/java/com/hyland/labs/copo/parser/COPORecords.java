@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The records of a CO_PO input as a {@link Stream}, without writing anything: to use the parser in another
+ * application, with its own processing of the records, or with an {@link InvoiceGenerator} and its own sinks.
+ * <p>
+ * <pre>
+ * try (Stream&lt;COPORecord&gt; records = COPORecords.stream(Paths.get("CO_PO"))) {
+ *     records.parallel().forEach(new InvoiceGenerator("acme", "fast", pdfSink, metadataSink));
+ * }
+ * </pre>
+ * The stream holds the input open: close it, with a try-with-resources. Each record has its header values, and its text,
+ * decoded only if used (see {@link COPORecord#getText()}). A malformed record stops the stream with an exception, unless
+ * the reader has a malformed record handler (see {@link #stream(RecordReader)}).
+ */
+public final class COPORecords {
+
+    private COPORecords() {
+        // Static methods only
+    }
+
+    /**
+     * Frames the records on the memory-mapped file (see {@link MappedRecordReader}), the fastest. A gzip or zstd file
+     * is decompressed while it is read (see {@link StreamRecordReader}).
+     */
+    public static Stream<COPORecord> stream(Path copoFile) throws IOException {
+        File file = copoFile.toFile();
+        if (CompressedInput.getCompression(file) != null) {
+            return stream(new StreamRecordReader(CompressedInput.open(file)));
+        }
+        return stream(new MappedRecordReader(file));
+    }
+
+    public static Stream<COPORecord> stream(File copoFile) throws IOException {
+        return stream(copoFile.toPath());
+    }
+
+    /**
+     * Reads the records from <code>in</code>, in UTF-8, line by line (see {@link LineRecordReader}): no offset or length
+     * in the file. <code>in</code> is closed with the stream.
+     */
+    public static Stream<COPORecord> stream(InputStream in) {
+        return stream(new LineRecordReader(in));
+    }
+
+    /**
+     * Same as {@link #stream(InputStream)}. <code>channel</code> is closed with the stream.
+     */
+    public static Stream<COPORecord> stream(ReadableByteChannel channel) {
+        return stream(Channels.newInputStream(channel));
+    }
+
+    /**
+     * The records of a reader set up by the caller (field extractors, malformed record handler, metrics...), closed with
+     * the stream.
+     */
+    public static Stream<COPORecord> stream(RecordReader reader) {
+        return StreamSupport.stream(new RecordSpliterator(reader), false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+
+/**
+ * Compressed CO_PO files, gzip or zstd, recognized by their first bytes (whatever their extension): they are
+ * decompressed while they are read, without a decompressed copy on disk.
+ */
+public final class CompressedInput {
+
+    public static final String GZIP = "gzip";
+
+    public static final String ZSTD = "zstd";
+
+    // 1f 8b
+    static final int GZIP_MAGIC = 0x1f8b;
+
+    // 28 b5 2f fd, little-endian 0xFD2FB528
+    static final int ZSTD_MAGIC = 0x28b52ffd;
+
+    // Of the compressed file: large reads, the decompression is the bottleneck
+    static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+
+    private CompressedInput() {
+        // Static methods only
+    }
+
+    /**
+     * @return {@link #GZIP}, {@link #ZSTD}, or null if the file is not compressed (or is empty, or does not exist)
+     */
+    public static String getCompression(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Up to 4 bytes
+            }
+        }
+        if (magic.position() >= 2 && (magic.getShort(0) & 0xFFFF) == GZIP_MAGIC) {
+            return GZIP;
+        }
+        if (magic.position() == 4 && magic.getInt(0) == ZSTD_MAGIC) {
+            return ZSTD;
+        }
+        return null;
+    }
+
+    /**
+     * @return the decompressed content of the file, decompressed by a {@link ReadAheadInputStream} thread
+     * @throws IllegalArgumentException if the file is not compressed
+     */
+    public static InputStream open(File file) throws IOException {
+        String compression = getCompression(file);
+        if (compression == null) {
+            throw new IllegalArgumentException("Not a gzip or zstd file: " + file);
+        }
+        InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), INPUT_BUFFER_SIZE);
+        try {
+            InputStream decompressed = GZIP.equals(compression) ? new GZIPInputStream(in, INPUT_BUFFER_SIZE)
+                    : new ZstdInputStreamNoFinalizer(in);
+            return new ReadAheadInputStream(decompressed);
+        } catch (IOException | RuntimeException | LinkageError e) {
+            // A corrupted header, or no zstd native library for this platform
+            in.close();
+            throw e;
+        }
+    }
+
+}
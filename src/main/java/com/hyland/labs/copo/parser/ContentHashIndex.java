@@ -0,0 +1,227 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The content hash of each invoice generated so far, by invoice number, kept in a file from one run to the next, so an
+ * invoice whose record did not change is not generated again.
+ * <p>
+ * The hash covers the text of the record (so the PDF) and the metadata values. It does not cover the position of the
+ * record and the name of the CO_PO file: an up to date invoice keeps the XML description of the run that generated it.
+ * The index also stores the settings its invoices were generated with (export type, schema prefix, PDF renderer): with
+ * other settings, the whole index is ignored.
+ * <p>
+ * An invoice is marked as not generated as soon as its generation starts, and recorded with its new hash once done: if
+ * the run fails in between, the invoice is generated again by the next run. The file is replaced (atomically) by
+ * {@link #save()}.
+ * <p>
+ * Thread safe.
+ */
+public class ContentHashIndex {
+
+    protected static final long MAGIC = 0x434f504f48494458L; // "COPOHIDX"
+
+    // An invoice being generated, or whose generation failed
+    protected static final long[] NOT_GENERATED = new long[0];
+
+    final File file;
+
+    final long settingsHash;
+
+    // Read-only once loaded
+    final Map<String, long[]> previous = new HashMap<>();
+
+    // This run: invoice number => { content hash, PDF checksum }, or NOT_GENERATED
+    final Map<String, long[]> current = new ConcurrentHashMap<>();
+
+    final LongAdder upToDate = new LongAdder();
+
+    final LongAdder generated = new LongAdder();
+
+    boolean forceRebuild = false;
+
+    /**
+     * Loads the index, if the file exists.
+     *
+     * @param settings the settings the invoices are generated with
+     */
+    public ContentHashIndex(File file, String... settings) throws IOException {
+        this.file = file;
+        long hash = RecordText.FNV_OFFSET_BASIS;
+        for (String setting : settings) {
+            hash = hash(hash, setting);
+        }
+        settingsHash = hash;
+        load();
+    }
+
+    protected void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readLong() != MAGIC) {
+                throw new IllegalArgumentException(file + " is not a content hash index");
+            }
+            if (in.readLong() != settingsHash) {
+                // Generated with other settings, nothing is up to date
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String invoiceNumber = in.readUTF();
+                previous.put(invoiceNumber, new long[] { in.readLong(), in.readLong() });
+            }
+        }
+    }
+
+    /**
+     * When true, no invoice is up to date: all of them are generated again, and the index is rebuilt
+     */
+    public void setForceRebuild(boolean forceRebuild) {
+        this.forceRebuild = forceRebuild;
+    }
+
+    /**
+     * @return the content hash of the record: its text and its header values
+     */
+    public static long hash(COPORecord record) {
+        long hash = record.getText().hash(RecordText.FNV_OFFSET_BASIS);
+        hash = hash(hash, record.getVoucher());
+        hash = hash(hash, record.getCompany());
+        hash = hash(hash, record.getInvoiceNumber());
+        hash = hash(hash, record.getInvoiceDateStr());
+        hash = hash(hash, record.getInvoiceAmountStr());
+        return hash(hash, record.getPoNumber());
+    }
+
+    protected static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * RecordText.FNV_PRIME;
+            }
+        }
+        // Separator, so ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xFFFF) * RecordText.FNV_PRIME;
+    }
+
+    /**
+     * @return true if the invoice was generated by a previous run from the same content, and not started again by this
+     *         run. The caller still checks its files exist.
+     */
+    public boolean isUpToDate(String invoiceNumber, long contentHash) {
+        if (forceRebuild || current.get(invoiceNumber) == NOT_GENERATED) {
+            return false;
+        }
+        long[] entry = previous.get(invoiceNumber);
+        return entry != null && entry[0] == contentHash;
+    }
+
+    /**
+     * @return the checksum of the PDF of an up to date invoice
+     */
+    public long getPdfChecksum(String invoiceNumber) {
+        long[] entry = previous.get(invoiceNumber);
+        return entry == null ? 0 : entry[1];
+    }
+
+    /**
+     * Counts an invoice that is not generated again, and keeps it in the index
+     */
+    public void skipped(String invoiceNumber) {
+        long[] entry = previous.get(invoiceNumber);
+        if (entry != null) {
+            current.putIfAbsent(invoiceNumber, entry);
+        }
+        upToDate.increment();
+    }
+
+    /**
+     * Called before the files of an invoice are (re)generated
+     */
+    public void generating(String invoiceNumber) {
+        current.put(invoiceNumber, NOT_GENERATED);
+    }
+
+    /**
+     * Called once the files of an invoice are generated
+     */
+    public void generated(String invoiceNumber, long contentHash, long pdfChecksum) {
+        current.put(invoiceNumber, new long[] { contentHash, pdfChecksum });
+        generated.increment();
+    }
+
+    /**
+     * @return the number of invoices not generated again, because they were up to date
+     */
+    public long getUpToDateCount() {
+        return upToDate.sum();
+    }
+
+    /**
+     * @return the number of invoices generated
+     */
+    public long getGeneratedCount() {
+        return generated.sum();
+    }
+
+    /**
+     * Writes the index: the invoices of this run, plus the ones of the previous runs not seen by this run (their files
+     * are still there). Invoices whose generation did not complete are left out.
+     */
+    public synchronized void save() throws IOException {
+        Map<String, long[]> all = new HashMap<>(previous);
+        for (Map.Entry<String, long[]> e : current.entrySet()) {
+            if (e.getValue() == NOT_GENERATED) {
+                all.remove(e.getKey());
+            } else {
+                all.put(e.getKey(), e.getValue());
+            }
+        }
+
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeLong(MAGIC);
+            out.writeLong(settingsHash);
+            out.writeInt(all.size());
+            for (Map.Entry<String, long[]> e : all.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue()[0]);
+                out.writeLong(e.getValue()[1]);
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
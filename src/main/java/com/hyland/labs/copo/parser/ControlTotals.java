@@ -0,0 +1,275 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The control totals of a run, added up while the invoices are generated: invoice count, sum of the invoice amounts
+ * (INV-AMT) and sum of the GRAND TOTAL lines, for the whole file, per company and per invoice date. Each invoice is also
+ * reconciled with its record: its amount must be the GRAND TOTAL of the record.
+ * <p>
+ * The amounts are exact, in cents (a long): an amount with more than 2 non-zero decimals, or that cannot be parsed, is a
+ * mismatch and is not added. The totals are {@link LongAdder}s, so the workers add to them without contention. The
+ * report (see {@link #write(File, String)}) sorts the companies and dates, and lists the first
+ * {@link #MAX_LISTED_MISMATCHES} mismatches.
+ */
+public class ControlTotals {
+
+    public static final int MAX_LISTED_MISMATCHES = 1000;
+
+    protected static final int SCALE = 2;
+
+    /**
+     * The totals of a set of invoices
+     */
+    public static class Totals {
+
+        final LongAdder invoiceCount = new LongAdder();
+
+        final LongAdder invoiceAmountCents = new LongAdder();
+
+        final LongAdder grandTotalCents = new LongAdder();
+
+        final LongAdder mismatchCount = new LongAdder();
+
+        protected void add(long amountCents, long totalCents, boolean mismatch) {
+            invoiceCount.increment();
+            invoiceAmountCents.add(amountCents);
+            grandTotalCents.add(totalCents);
+            if (mismatch) {
+                mismatchCount.increment();
+            }
+        }
+
+        public long getInvoiceCount() {
+            return invoiceCount.sum();
+        }
+
+        public long getInvoiceAmountCents() {
+            return invoiceAmountCents.sum();
+        }
+
+        public long getGrandTotalCents() {
+            return grandTotalCents.sum();
+        }
+
+        public long getMismatchCount() {
+            return mismatchCount.sum();
+        }
+
+        public JSONObject toJson() {
+            JSONObject obj = new JSONObject();
+            obj.put("invoices", getInvoiceCount());
+            obj.put("invoiceAmount", BigDecimal.valueOf(getInvoiceAmountCents(), SCALE));
+            obj.put("grandTotal", BigDecimal.valueOf(getGrandTotalCents(), SCALE));
+            obj.put("mismatches", getMismatchCount());
+            return obj;
+        }
+    }
+
+    final Totals all = new Totals();
+
+    final ConcurrentHashMap<String, Totals> byCompany = new ConcurrentHashMap<>();
+
+    final ConcurrentHashMap<String, Totals> byDate = new ConcurrentHashMap<>();
+
+    final Queue<JSONObject> mismatches = new ConcurrentLinkedQueue<>();
+
+    final AtomicInteger listedMismatchCount = new AtomicInteger();
+
+    /**
+     * Adds the invoice of a record, reconciled with the GRAND TOTAL line of the record. Called concurrently.
+     */
+    public void add(COPORecord record) {
+        String amount = record.getInvoiceAmountStr();
+        String grandTotal = getGrandTotal(record.getText());
+        long amountCents = 0;
+        long totalCents = 0;
+        String reason = null;
+        try {
+            amountCents = parseCents(amount);
+        } catch (NumberFormatException e) {
+            reason = "Invoice amount: " + e.getMessage();
+        }
+        if (grandTotal == null) {
+            reason = reason == null ? "No GRAND TOTAL line" : reason;
+        } else {
+            try {
+                totalCents = parseCents(grandTotal);
+            } catch (NumberFormatException e) {
+                reason = reason == null ? "GRAND TOTAL: " + e.getMessage() : reason;
+            }
+        }
+        if (reason == null && amountCents != totalCents) {
+            reason = "The invoice amount is not the GRAND TOTAL";
+        }
+
+        boolean mismatch = reason != null;
+        all.add(amountCents, totalCents, mismatch);
+        totals(byCompany, record.getCompany()).add(amountCents, totalCents, mismatch);
+        totals(byDate, record.getInvoiceDateStr()).add(amountCents, totalCents, mismatch);
+        if (mismatch && listedMismatchCount.getAndIncrement() < MAX_LISTED_MISMATCHES) {
+            JSONObject obj = new JSONObject();
+            obj.put("invoiceNumber", record.getInvoiceNumber());
+            obj.put("index", record.getIndex());
+            if (record.getSourceOffset() >= 0) {
+                obj.put("offset", record.getSourceOffset());
+                obj.put("length", record.getSourceLength());
+            }
+            obj.put("invoiceAmount", amount);
+            obj.put("grandTotal", grandTotal);
+            obj.put("reason", reason);
+            mismatches.add(obj);
+        }
+    }
+
+    protected static Totals totals(ConcurrentHashMap<String, Totals> map, String key) {
+        String k = key == null ? "" : key;
+        // No lock once the key exists
+        Totals totals = map.get(k);
+        return totals != null ? totals : map.computeIfAbsent(k, x -> new Totals());
+    }
+
+    /**
+     * @return the value of the last GRAND TOTAL line of the record (normally its last line), null if there is none
+     */
+    public static String getGrandTotal(RecordText text) {
+        for (int line = text.getLineCount() - 1; line >= 0; line--) {
+            String s = text.getLine(line);
+            int at = s.indexOf(COPOParser.END_RECORD_TOKEN);
+            if (at > -1) {
+                return s.substring(at + COPOParser.END_RECORD_TOKEN.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses an amount like "1238.95", "-12.5" or "42" in cents, exactly
+     *
+     * @throws NumberFormatException if it is not a number, or not a whole number of cents
+     */
+    public static long parseCents(String amount) {
+        if (amount == null || amount.isEmpty()) {
+            throw new NumberFormatException("Empty amount");
+        }
+        int i = amount.charAt(0) == '-' ? 1 : 0;
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        try {
+            for (; i < amount.length(); i++) {
+                char c = amount.charAt(i);
+                if (c == '.' && decimals < 0) {
+                    decimals = 0;
+                } else if (c >= '0' && c <= '9') {
+                    digits += 1;
+                    if (decimals >= SCALE) {
+                        if (c != '0') {
+                            throw new NumberFormatException("Not a whole number of cents: " + amount);
+                        }
+                        continue;
+                    }
+                    cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+                    if (decimals >= 0) {
+                        decimals += 1;
+                    }
+                } else {
+                    throw new NumberFormatException("Not an amount: " + amount);
+                }
+            }
+            if (digits == 0) {
+                throw new NumberFormatException("Not an amount: " + amount);
+            }
+            for (int d = Math.max(decimals, 0); d < SCALE; d++) {
+                cents = Math.multiplyExact(cents, 10);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount too large: " + amount);
+        }
+        return amount.charAt(0) == '-' ? -cents : cents;
+    }
+
+    public Totals getTotals() {
+        return all;
+    }
+
+    /**
+     * @return the totals per company, sorted by company
+     */
+    public Map<String, Totals> getTotalsByCompany() {
+        return new TreeMap<>(byCompany);
+    }
+
+    /**
+     * @return the totals per invoice date (yyyymmdd), sorted by date
+     */
+    public Map<String, Totals> getTotalsByDate() {
+        return new TreeMap<>(byDate);
+    }
+
+    public long getMismatchCount() {
+        return all.getMismatchCount();
+    }
+
+    /**
+     * @return the whole totals, the first {@link #MAX_LISTED_MISMATCHES} mismatches (in no particular order), and the
+     *         totals of each company and date, sorted
+     */
+    public JSONObject toJson() {
+        JSONObject obj = all.toJson();
+        JSONArray listed = new JSONArray();
+        mismatches.forEach(listed::put);
+        obj.put("mismatchedInvoices", listed);
+        obj.put("companies", toJson(getTotalsByCompany(), "company"));
+        obj.put("dates", toJson(getTotalsByDate(), "invoiceDate"));
+        return obj;
+    }
+
+    protected static JSONArray toJson(Map<String, Totals> totals, String keyName) {
+        JSONArray array = new JSONArray();
+        totals.forEach((key, value) -> array.put(value.toJson().put(keyName, key)));
+        return array;
+    }
+
+    /**
+     * Writes the report, {@link #toJson()} with the name of the CO_PO file
+     */
+    public void write(File reportFile, String copoFileName) throws IOException {
+        JSONObject obj = toJson();
+        obj.put("copoFile", copoFileName);
+        Files.write(reportFile.toPath(), obj.toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
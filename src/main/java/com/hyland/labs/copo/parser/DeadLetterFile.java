@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies the malformed records, as they are in the CO_PO file, to a dead-letter file. Each one is preceded by a line
+ * giving its position and the reason:
+ *
+ * <pre>
+ * #COPO-DEAD-LETTER index=4 offset=1234 length=567 reason=Record starting at offset 1234: No voucher line in the record
+ * 1.PROGRAM ZA401 ...
+ * ...
+ * </pre>
+ *
+ * Without the "#COPO-DEAD-LETTER" lines, the file is a CO_PO file: once fixed, the records can be parsed again.
+ */
+public class DeadLetterFile implements MalformedRecordHandler, Closeable {
+
+    public static final String ENTRY_PREFIX = "#COPO-DEAD-LETTER";
+
+    final FileChannel source;
+
+    // Guarded by this
+    final FileChannel out;
+
+    long count = 0;
+
+    /**
+     * @param append true to add the records after the ones already in the file (resumed run)
+     */
+    public DeadLetterFile(File deadLetterFile, File copoFile, boolean append) throws IOException {
+        source = FileChannel.open(copoFile.toPath(), StandardOpenOption.READ);
+        try {
+            out = append
+                    ? FileChannel.open(deadLetterFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND)
+                    : FileChannel.open(deadLetterFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void handle(MalformedRecord record) throws IOException {
+        String reason = String.valueOf(record.getReason()).replace('\r', ' ').replace('\n', ' ');
+        write(ENTRY_PREFIX + " index=" + record.getIndex() + " offset=" + record.getOffset() + " length="
+                + record.getLength() + " reason=" + reason + "\n");
+        if (record.getOffset() >= 0) {
+            // Copied by the file system, without going through the heap
+            long position = record.getOffset();
+            long end = position + record.getLength();
+            while (position < end) {
+                long transferred = source.transferTo(position, end - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            if (end > 0 && (source.read(last, end - 1) < 1 || last.get(0) != '\n')) {
+                write("\n");
+            }
+        }
+        count += 1;
+    }
+
+    protected void write(String s) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * @return the number of malformed records written
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            source.close();
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.json.JSONObject;
+
+/**
+ * Lists the records whose invoice number was already used by a previous record, a JSON line per duplicate:
+ *
+ * <pre>
+ * {"invoiceNumber":"INV0000042","index":1042,"offset":498123,"length":478,"policy":"suffix","fileName":"INV0000042_2"}
+ * </pre>
+ *
+ * <code>fileName</code> is the name given to the files of the duplicate by the "suffix" policy. Each line is written
+ * when the duplicate is found, so the report is complete even when the run fails.
+ */
+public class DuplicateReport implements Closeable {
+
+    // Guarded by this
+    final Writer out;
+
+    long count = 0;
+
+    /**
+     * @param append true to add the duplicates after the ones already in the file (resumed run)
+     */
+    public DuplicateReport(File reportFile, boolean append) throws IOException {
+        out = append
+                ? Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)
+                : Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param fileName the name of the files of the duplicate, null if it is not generated
+     */
+    public void write(COPORecord record, String policy, String fileName) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("invoiceNumber", record.getInvoiceNumber());
+        json.put("index", record.getIndex());
+        json.put("offset", record.getSourceOffset());
+        json.put("length", record.getSourceLength());
+        json.put("policy", policy);
+        if (fileName != null) {
+            json.put("fileName", fileName);
+        }
+        String line = json.toString() + "\n";
+        synchronized (this) {
+            out.write(line);
+            // Rare: flushed so a failed run still has the line
+            out.flush();
+            count += 1;
+        }
+    }
+
+    /**
+     * @return the number of duplicates written
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.hyland.labs.copo.parser.RecordPipeline.RecordHandler;
+
+/**
+ * Workers shared by several readers, each one calling {@link #run} on its own thread: the workers of a
+ * {@link RecordPipeline}, but for all the CO_PO files of a batch (see {@link BatchParser}).
+ * <p>
+ * Each reader has its own bounded queue (the back-pressure, as in {@link RecordPipeline}), and the workers take the
+ * records of the non-empty queues in turn, one record at a time. A large file does not hold the workers while the
+ * records of the other files wait: all the files being read progress at the same pace.
+ * <p>
+ * An error only stops the reader it comes from, and is rethrown by its {@link #run}.
+ */
+public class FairWorkerPool implements Closeable {
+
+    protected static class Source {
+
+        final RecordHandler handler;
+
+        final ArrayDeque<COPORecord> queue = new ArrayDeque<>();
+
+        // Taken by a worker, not handled yet
+        int inProgress = 0;
+
+        // In FairWorkerPool.ready
+        boolean ready = false;
+
+        Throwable failure;
+
+        Source(RecordHandler handler) {
+            this.handler = handler;
+        }
+    }
+
+    int workerCount;
+
+    int queueCapacity;
+
+    final ExecutorService workers;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    // Signaled when a record is queued, or when the pool is closed
+    final Condition recordQueued = lock.newCondition();
+
+    // Signaled when a record is taken from a queue or handled
+    final Condition recordTaken = lock.newCondition();
+
+    // Sources with queued records, in the order the workers serve them
+    final ArrayDeque<Source> ready = new ArrayDeque<>();
+
+    boolean closed = false;
+
+    public FairWorkerPool(int workerCount) {
+        this(workerCount, workerCount * 4);
+    }
+
+    /**
+     * @param queueCapacity maximum number of records queued for each reader
+     */
+    public FairWorkerPool(int workerCount, int queueCapacity) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+        workers = Executors.newFixedThreadPool(workerCount, RecordPipeline.newThreadFactory());
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Reads the records on the calling thread, and waits until the workers have handled them all.
+     *
+     * @return the number of records read
+     */
+    public long run(RecordReader reader, RecordHandler handler) throws IOException {
+
+        Source source = new Source(handler);
+        long recordCount = 0;
+        try {
+            COPORecord record;
+            while ((record = reader.next()) != null && put(source, record)) {
+                recordCount += 1;
+            }
+        } catch (Throwable t) {
+            fail(source, t);
+        }
+
+        lock.lock();
+        try {
+            while (!source.queue.isEmpty() || source.inProgress > 0) {
+                recordTaken.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (source.failure == null) {
+                source.failure = e;
+            }
+            source.queue.clear();
+            ready.remove(source);
+        } finally {
+            lock.unlock();
+        }
+
+        RecordPipeline.rethrow(source.failure);
+        return recordCount;
+    }
+
+    /**
+     * @return false if the records of the source are not handled anymore (failure)
+     */
+    protected boolean put(Source source, COPORecord record) throws InterruptedException {
+        lock.lock();
+        try {
+            while (source.failure == null && source.queue.size() >= queueCapacity) {
+                if (closed) {
+                    throw new IllegalStateException("The worker pool is closed");
+                }
+                recordTaken.await();
+            }
+            if (source.failure != null) {
+                return false;
+            }
+            source.queue.add(record);
+            if (!source.ready) {
+                source.ready = true;
+                ready.add(source);
+            }
+            recordQueued.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void fail(Source source, Throwable t) {
+        lock.lock();
+        try {
+            if (source.failure == null) {
+                source.failure = t;
+            }
+            // The records still queued are not handled
+            source.queue.clear();
+            if (source.ready) {
+                source.ready = false;
+                ready.remove(source);
+            }
+            recordTaken.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void work() {
+        while (true) {
+            Source source;
+            COPORecord record;
+            lock.lock();
+            try {
+                while (ready.isEmpty()) {
+                    if (closed) {
+                        return;
+                    }
+                    recordQueued.await();
+                }
+                // Round robin: one record, then the source goes back at the end of the line
+                source = ready.poll();
+                record = source.queue.poll();
+                if (source.queue.isEmpty()) {
+                    source.ready = false;
+                } else {
+                    ready.add(source);
+                }
+                source.inProgress += 1;
+                recordTaken.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            Throwable failure = null;
+            try {
+                source.handler.handle(record);
+            } catch (Throwable t) {
+                failure = t;
+            }
+
+            if (failure != null) {
+                fail(source, failure);
+            }
+            lock.lock();
+            try {
+                source.inProgress -= 1;
+                recordTaken.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the workers once the queued records are handled
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            recordQueued.signalAll();
+            recordTaken.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.shutdown();
+    }
+
+}
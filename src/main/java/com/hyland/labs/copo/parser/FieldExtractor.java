@@ -0,0 +1,47 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+/**
+ * Recognizes one kind of header line of a record and stores its values in the {@link RecordFields}.
+ * <p>
+ * A {@link RecordFieldParser} looks for its extractors in order: each one is tried on the lines following the lines
+ * used by the previous one. Extractors are called by several threads and must not keep any state.
+ */
+public interface FieldExtractor {
+
+    /**
+     * @param line positioned at the start of the line to check, can move to the next lines if the values are there
+     * @return the number of lines used (at least 1) if the line is the one expected, else 0
+     */
+    int extract(LineScanner line, RecordFields fields);
+
+    /**
+     * @return false if the record is valid without this line
+     */
+    default boolean isRequired() {
+        return true;
+    }
+
+    /**
+     * @return what the line holds, for error messages
+     */
+    String getDescription();
+
+}
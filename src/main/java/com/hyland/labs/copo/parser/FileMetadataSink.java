@@ -0,0 +1,107 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes the metadata of each invoice in its own file next to its PDF: the XML file property for the Alfresco bulk
+ * import ("xml") or the JSON ("json"), the same files as {@link Invoice#toXmlFilePropertyForAlfrescoBulkImport} and
+ * {@link Invoice#toJsonFile}.
+ * <p>
+ * The destination is checked once, not for every invoice, and each file is written by a {@link MetadataWriter} in a
+ * buffer reused by the thread, then with a single write.
+ */
+public class FileMetadataSink implements MetadataSink {
+
+    final OutputLayout layout;
+
+    final boolean xml;
+
+    final MetadataWriter writer;
+
+    final ThreadLocal<OutputBuffer> buffers = ThreadLocal.withInitial(OutputBuffer::new);
+
+    /**
+     * @param schemaPrefix required for "xml"
+     */
+    public FileMetadataSink(String destinationDirectoryPath, String metadataExportType, String schemaPrefix,
+            String copoFileName) {
+        this(newFlatLayout(destinationDirectoryPath), metadataExportType, schemaPrefix, copoFileName);
+    }
+
+    /**
+     * Writes the metadata file of each invoice in its directory of the layout (the one of its PDF)
+     */
+    public FileMetadataSink(OutputLayout layout, String metadataExportType, String schemaPrefix, String copoFileName) {
+        if (layout == null || !Files.isDirectory(layout.getRoot())) {
+            throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
+        }
+        if (!"json".equals(metadataExportType) && !"xml".equals(metadataExportType)) {
+            throw new IllegalArgumentException("Metadata Export Type must be either json or xml (case sensitive).");
+        }
+        this.layout = layout;
+        xml = "xml".equals(metadataExportType);
+        if (xml && (schemaPrefix == null || schemaPrefix.isEmpty())) {
+            throw new IllegalArgumentException("The schemaPrefix is not defined.");
+        }
+        writer = new MetadataWriter(schemaPrefix, copoFileName);
+    }
+
+    @Override
+    public void write(Invoice invoice, long index) throws IOException {
+        OutputBuffer buffer = buffers.get();
+        buffer.clear();
+        if (xml) {
+            writer.writeXml(invoice, index, buffer);
+        } else {
+            writer.writeJson(invoice, buffer);
+        }
+        Path file = layout.getDirectory(invoice).resolve(getOutputFileName(invoice));
+        try (OutputStream out = Files.newOutputStream(file)) {
+            buffer.writeTo(out);
+        }
+    }
+
+    @Override
+    public Path getOutputFile(Invoice invoice) {
+        return layout.resolveDirectory(invoice).resolve(getOutputFileName(invoice));
+    }
+
+    protected String getOutputFileName(Invoice invoice) {
+        return invoice.getFileName() + (xml ? Invoice.XML_SUFFIX : Invoice.JSON_SUFFIX);
+    }
+
+    protected static OutputLayout newFlatLayout(String destinationDirectoryPath) {
+        if (destinationDirectoryPath == null) {
+            throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
+        }
+        return new OutputLayout(Paths.get(destinationDirectoryPath), "flat");
+    }
+
+    @Override
+    public void close() {
+        // Nothing kept open
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.hyland.labs.copo.parser.BatchParser.FileSummary;
+import com.hyland.labs.copo.parser.BatchParser.ParserFactory;
+
+/**
+ * Watches an input directory and parses each CO_PO file dropped in it, until {@link #stop()} is called. The JVM, the
+ * workers (see {@link FairWorkerPool}) and the JIT-compiled code are the same for all the files, so a file only costs
+ * its own parsing.
+ * <p>
+ * New files are noticed with a {@link WatchService}, or by listing the directory every <code>pollInterval</code> when
+ * the file system does not support it (or with {@link #setPolling(boolean)}). A file is parsed once its size and
+ * modification date did not change for <code>settleTime</code>, so it is not read while it is still being copied.
+ * Hidden files are ignored: a file can also be written with a name starting with "." and renamed when complete.
+ * <p>
+ * Once parsed, the file (and its dead-letter file, if any) is moved to the done directory, or to the failed directory
+ * if its parsing failed. A file with the same name already there is not replaced, the moved file gets a timestamp
+ * suffix.
+ */
+public class FolderWatcher {
+
+    public static final long DEFAULT_POLL_INTERVAL_MS = 1000;
+
+    public static final long DEFAULT_SETTLE_TIME_MS = 2000;
+
+    protected static class Candidate {
+
+        long size;
+
+        long lastModified;
+
+        // Since when the size and modification date did not change
+        long unchangedSince;
+
+        Candidate(long size, long lastModified, long now) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.unchangedSince = now;
+        }
+    }
+
+    Path inputDir;
+
+    Path doneDir;
+
+    Path failedDir;
+
+    ParserFactory parserFactory;
+
+    int threadCount = Runtime.getRuntime().availableProcessors();
+
+    int concurrentFileCount = 2;
+
+    long pollInterval = DEFAULT_POLL_INTERVAL_MS;
+
+    long settleTime = DEFAULT_SETTLE_TIME_MS;
+
+    boolean polling = false;
+
+    File summaryFile = null;
+
+    Consumer<FileSummary> listener = null;
+
+    // Only used by the thread calling run()
+    final Map<Path, Candidate> candidates = new HashMap<>();
+
+    // Parsed, not moved yet (or could not be moved)
+    final Set<Path> taken = ConcurrentHashMap.newKeySet();
+
+    final AtomicLong doneCount = new AtomicLong();
+
+    final AtomicLong failedCount = new AtomicLong();
+
+    final CountDownLatch stopped = new CountDownLatch(1);
+
+    volatile WatchService watchService;
+
+    public FolderWatcher(File inputDir, File doneDir, File failedDir, ParserFactory parserFactory) {
+        this.inputDir = inputDir.toPath();
+        this.doneDir = doneDir.toPath();
+        this.failedDir = failedDir.toPath();
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * Number of workers shared by all the files, default is the number of cores
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Number of files parsed at the same time, default is 2
+     */
+    public void setConcurrentFileCount(int concurrentFileCount) {
+        if (concurrentFileCount < 1) {
+            throw new IllegalArgumentException("concurrentFileCount must be at least 1");
+        }
+        this.concurrentFileCount = concurrentFileCount;
+    }
+
+    /**
+     * How often the files are checked, in ms, default is {@value #DEFAULT_POLL_INTERVAL_MS}
+     */
+    public void setPollInterval(long pollInterval) {
+        if (pollInterval < 1) {
+            throw new IllegalArgumentException("pollInterval must be at least 1");
+        }
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * How long, in ms, the size and modification date of a file must not change before it is parsed, default is
+     * {@value #DEFAULT_SETTLE_TIME_MS}
+     */
+    public void setSettleTime(long settleTime) {
+        if (settleTime < 0) {
+            throw new IllegalArgumentException("settleTime cannot be negative");
+        }
+        this.settleTime = settleTime;
+    }
+
+    /**
+     * When true, the directory is only listed every poll interval, without a {@link WatchService} (which may not see
+     * the files written by another host on a network file system). Default is false.
+     */
+    public void setPolling(boolean polling) {
+        this.polling = polling;
+    }
+
+    /**
+     * When set, the summary of each file is appended to <code>summaryFile</code> as a JSON line, see
+     * {@link FileSummary#toJson()}. Default is null.
+     */
+    public void setSummaryFile(File summaryFile) {
+        this.summaryFile = summaryFile;
+    }
+
+    /**
+     * Called with the summary of each file, once it is moved. Called concurrently.
+     */
+    public void setListener(Consumer<FileSummary> listener) {
+        this.listener = listener;
+    }
+
+    public long getDoneCount() {
+        return doneCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Watches the input directory until {@link #stop()} is called, then waits for the files being parsed.
+     */
+    public void run() throws IOException {
+
+        Files.createDirectories(doneDir);
+        Files.createDirectories(failedDir);
+        Invoice.warmUp();
+
+        if (!polling) {
+            watchService = newWatchService();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(concurrentFileCount, r -> {
+            Thread t = new Thread(r, "copo-watch-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try (FairWorkerPool pool = new FairWorkerPool(threadCount);
+                Writer summaryWriter = summaryFile == null ? null
+                        : Files.newBufferedWriter(summaryFile.toPath(), StandardCharsets.UTF_8,
+                                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (stopped.getCount() > 0) {
+                for (Path file : findSettledFiles(System.currentTimeMillis())) {
+                    taken.add(file);
+                    readers.execute(() -> process(file, pool, summaryWriter));
+                }
+                waitForChanges();
+            }
+            readers.shutdown();
+            while (!readers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // The files being parsed are finished and moved
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            readers.shutdownNow();
+        } finally {
+            WatchService ws = watchService;
+            if (ws != null) {
+                ws.close();
+            }
+        }
+    }
+
+    /**
+     * Makes {@link #run()} return, once the files being parsed are done. Can be called from any thread.
+     */
+    public void stop() {
+        stopped.countDown();
+        WatchService ws = watchService;
+        if (ws != null) {
+            try {
+                // Wakes up the watching thread
+                ws.close();
+            } catch (IOException e) {
+                // Polled with a timeout anyway
+            }
+        }
+    }
+
+    /**
+     * @return a watch service on the input directory, or null if the file system does not support it
+     */
+    protected WatchService newWatchService() {
+        WatchService ws = null;
+        try {
+            ws = inputDir.getFileSystem().newWatchService();
+            inputDir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            return ws;
+        } catch (IOException | UnsupportedOperationException e) {
+            if (ws != null) {
+                try {
+                    ws.close();
+                } catch (IOException ignored) {
+                    // Not used
+                }
+            }
+            return null;
+        }
+    }
+
+    protected void waitForChanges() throws InterruptedException {
+        // A file waiting to be settled is checked again after the poll interval, even without event
+        WatchService ws = watchService;
+        if (ws == null) {
+            stopped.await(pollInterval, TimeUnit.MILLISECONDS);
+            return;
+        }
+        try {
+            WatchKey key = ws.poll(pollInterval, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                // The directory is listed anyway, the events only wake up the thread
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * @return the files of the input directory whose size and modification date did not change for the settle time
+     */
+    protected List<Path> findSettledFiles(long now) throws IOException {
+        List<Path> settled = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(".") || COPOParser.isReportFileName(name) || taken.contains(file)
+                        || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                long size;
+                long lastModified;
+                try {
+                    size = Files.size(file);
+                    lastModified = Files.getLastModifiedTime(file).toMillis();
+                } catch (IOException e) {
+                    // Deleted or renamed meanwhile
+                    continue;
+                }
+                seen.add(file);
+                Candidate candidate = candidates.get(file);
+                if (candidate == null || candidate.size != size || candidate.lastModified != lastModified) {
+                    candidates.put(file, new Candidate(size, lastModified, now));
+                } else if (now - candidate.unchangedSince >= settleTime) {
+                    candidates.remove(file);
+                    settled.add(file);
+                }
+            }
+        }
+        candidates.keySet().retainAll(seen);
+        return settled;
+    }
+
+    protected void process(Path file, FairWorkerPool pool, Writer summaryWriter) {
+        FileSummary summary = new FileSummary(file.toFile());
+        BatchParser.process(summary, parserFactory, pool);
+        try {
+            Path dir = summary.isFailed() ? failedDir : doneDir;
+            for (String suffix : new String[] { COPOParser.DEAD_LETTER_SUFFIX, COPOParser.DUPLICATE_REPORT_SUFFIX }) {
+                Path report = file.resolveSibling(file.getFileName() + suffix);
+                if (Files.exists(report)) {
+                    moveTo(report, dir);
+                }
+            }
+            moveTo(file, dir);
+            taken.remove(file);
+        } catch (IOException e) {
+            // Stays taken: it would be parsed again and again
+            summary.error = (summary.error == null ? "" : summary.error + ", ") + "Cannot move the file: " + e;
+        }
+        (summary.isFailed() ? failedCount : doneCount).incrementAndGet();
+        try {
+            if (summaryWriter != null) {
+                BatchParser.writeSummary(summaryWriter, summary);
+            }
+        } catch (IOException e) {
+            summary.error = (summary.error == null ? "" : summary.error + ", ") + "Cannot write the summary: " + e;
+        }
+        if (listener != null) {
+            listener.accept(summary);
+        }
+    }
+
+    /**
+     * Moves the file to the directory, with a timestamp suffix if a file with the same name is already there
+     */
+    protected static Path moveTo(Path file, Path dir) throws IOException {
+        Path target = dir.resolve(file.getFileName());
+        if (Files.exists(target)) {
+            target = dir.resolve(file.getFileName() + "." + System.currentTimeMillis());
+        }
+        try {
+            return Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Another file system
+        }
+        return Files.move(file, target);
+    }
+
+}
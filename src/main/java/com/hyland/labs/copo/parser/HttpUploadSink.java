@@ -0,0 +1,418 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads the PDF and the metadata of each invoice to a REST endpoint, instead of writing files that are bulk-imported
+ * afterwards.
+ * <p>
+ * The invoices are sent by batches of <code>batchSize</code>, one <code>multipart/form-data</code> POST per batch. Each
+ * invoice is two parts, in this order:
+ * <ul>
+ * <li><code>filedata</code>: the PDF, <code>filename="&lt;invoice number&gt;.pdf"</code>,
+ * <code>application/pdf</code></li>
+ * <li><code>metadata</code>: the JSON or the XML file property, with the name and content of the file
+ * {@link FileMetadataSink} would write</li>
+ * </ul>
+ * The requests are asynchronous ({@link HttpClient#sendAsync}): a worker calling {@link #write} only waits when
+ * <code>maxInFlightRequests</code> requests are already in flight (a {@link Semaphore}, the back-pressure). A request
+ * failing with an I/O error, a 429 or a 5xx is retried up to <code>maxRetries</code> times, after a delay doubled at
+ * each attempt, with some jitter (or the Retry-After of the response, if longer). Any other status, or the last retry
+ * failing, fails the sink: the next {@link #write}, or {@link #close()}, throws.
+ * <p>
+ * {@link #close()} sends the last batch and waits for all the requests.
+ */
+public class HttpUploadSink implements PdfSink, Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 16;
+
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    public static final long DEFAULT_RETRY_DELAY_MS = 200;
+
+    public static final long DEFAULT_TIMEOUT_MS = 60000;
+
+    /**
+     * Called once the invoice is uploaded, from an HTTP client thread: what was done before is now safe (see
+     * {@link ProgressJournal}).
+     */
+    public interface UploadCallback {
+        void uploaded() throws IOException;
+    }
+
+    protected static class Upload {
+
+        final String fileName;
+
+        final byte[] pdf;
+
+        final byte[] metadata;
+
+        final UploadCallback callback;
+
+        Upload(String fileName, byte[] pdf, byte[] metadata, UploadCallback callback) {
+            this.fileName = fileName;
+            this.pdf = pdf;
+            this.metadata = metadata;
+            this.callback = callback;
+        }
+    }
+
+    final URI endpoint;
+
+    final boolean xml;
+
+    final MetadataWriter writer;
+
+    final Map<String, String> headers = new LinkedHashMap<>();
+
+    int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+
+    int batchSize = DEFAULT_BATCH_SIZE;
+
+    int maxRetries = DEFAULT_MAX_RETRIES;
+
+    long retryDelayMillis = DEFAULT_RETRY_DELAY_MS;
+
+    long timeoutMillis = DEFAULT_TIMEOUT_MS;
+
+    // Created on the first write, once the settings are known
+    HttpClient client;
+
+    ExecutorService executor;
+
+    Semaphore inFlight;
+
+    List<Upload> batch = new ArrayList<>();
+
+    final String boundary = "copo-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    final ThreadLocal<OutputBuffer> metadataBuffers = ThreadLocal.withInitial(OutputBuffer::new);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    final AtomicLong uploadedCount = new AtomicLong();
+
+    final AtomicLong requestCount = new AtomicLong();
+
+    final AtomicLong retryCount = new AtomicLong();
+
+    boolean closed = false;
+
+    /**
+     * @param metadataExportType "json" or "xml" ("ndjson" is sent as "json", one invoice at a time)
+     * @param schemaPrefix required for "xml"
+     * @param copoFileName for the XML description
+     */
+    public HttpUploadSink(URI endpoint, String metadataExportType, String schemaPrefix, String copoFileName) {
+        if (!"json".equals(metadataExportType) && !"xml".equals(metadataExportType)
+                && !"ndjson".equals(metadataExportType)) {
+            throw new IllegalArgumentException("Metadata Export Type must be either json, xml or ndjson (case sensitive).");
+        }
+        if (!"http".equals(endpoint.getScheme()) && !"https".equals(endpoint.getScheme())) {
+            throw new IllegalArgumentException("The upload URL must be http or https: " + endpoint);
+        }
+        this.endpoint = endpoint;
+        xml = "xml".equals(metadataExportType);
+        if (xml && (schemaPrefix == null || schemaPrefix.isEmpty())) {
+            throw new IllegalArgumentException("The schemaPrefix is not defined.");
+        }
+        writer = new MetadataWriter(schemaPrefix, copoFileName);
+    }
+
+    /**
+     * Maximum number of requests waiting for their response, default is {@value #DEFAULT_MAX_IN_FLIGHT_REQUESTS}.
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        if (maxInFlightRequests < 1) {
+            throw new IllegalArgumentException("maxInFlightRequests must be at least 1");
+        }
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * Number of invoices per request, default is {@value #DEFAULT_BATCH_SIZE}.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Default is {@value #DEFAULT_MAX_RETRIES} retries, the first one after {@value #DEFAULT_RETRY_DELAY_MS} ms.
+     */
+    public void setRetries(int maxRetries, long retryDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Timeout of each request, default is {@value #DEFAULT_TIMEOUT_MS} ms.
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * A header added to each request, for example <code>Authorization</code>.
+     */
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    @Override
+    public void write(Invoice invoice, long index, OutputBuffer pdf) throws IOException {
+        write(invoice, index, pdf, null);
+    }
+
+    /**
+     * Same as {@link #write(Invoice, long, OutputBuffer)}, <code>callback</code> is called once the invoice is
+     * uploaded.
+     */
+    public void write(Invoice invoice, long index, OutputBuffer pdf, UploadCallback callback) throws IOException {
+        checkFailure();
+        OutputBuffer metadata = metadataBuffers.get();
+        metadata.clear();
+        if (xml) {
+            writer.writeXml(invoice, index, metadata);
+        } else {
+            writer.writeJson(invoice, metadata);
+        }
+        Upload upload = new Upload(invoice.getFileName(), pdf.toByteArray(), metadata.toByteArray(), callback);
+        List<Upload> full = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The upload sink is closed");
+            }
+            start();
+            batch.add(upload);
+            if (batch.size() >= batchSize) {
+                full = batch;
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    protected void start() {
+        if (client == null) {
+            // No virtual threads in Java 11: a small pool runs the response handlers, the I/O itself is asynchronous
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Math.min(maxInFlightRequests, 4), r -> {
+                Thread t = new Thread(r, "copo-upload-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            client = HttpClient.newBuilder()
+                               .executor(executor)
+                               .connectTimeout(Duration.ofMillis(timeoutMillis))
+                               .build();
+            inFlight = new Semaphore(maxInFlightRequests);
+        }
+    }
+
+    protected void send(List<Upload> uploads) throws IOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        HttpRequest request;
+        try {
+            // Maybe failed while waiting
+            checkFailure();
+            request = newRequest(uploads);
+        } catch (IOException | RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        sendAsync(request, uploads, 0);
+    }
+
+    protected void sendAsync(HttpRequest request, List<Upload> uploads, int attempt) {
+        requestCount.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+              .whenComplete((response, error) -> completed(request, uploads, attempt, response, error));
+    }
+
+    protected void completed(HttpRequest request, List<Upload> uploads, int attempt, HttpResponse<Void> response,
+            Throwable error) {
+        try {
+            int status = response == null ? -1 : response.statusCode();
+            if (error == null && status >= 200 && status < 300) {
+                for (Upload upload : uploads) {
+                    if (upload.callback != null) {
+                        upload.callback.uploaded();
+                    }
+                }
+                uploadedCount.addAndGet(uploads.size());
+            } else if ((error != null || status == 429 || status >= 500) && attempt < maxRetries
+                    && failure.get() == null) {
+                retryCount.incrementAndGet();
+                long delay = retryDelayMillis << attempt;
+                delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                delay = Math.max(delay, getRetryAfterMillis(response));
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+                                 .execute(() -> sendAsync(request, uploads, attempt + 1));
+                // Still in flight
+                return;
+            } else {
+                String invoices = uploads.get(0).fileName
+                        + (uploads.size() > 1 ? " and " + (uploads.size() - 1) + " more" : "");
+                IOException e = new IOException("Upload of " + invoices + " to " + endpoint + " failed after "
+                        + (attempt + 1) + " attempts: " + (error != null ? error.toString() : "HTTP " + status), error);
+                failure.compareAndSet(null, e);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+        inFlight.release();
+    }
+
+    protected static long getRetryAfterMillis(HttpResponse<?> response) {
+        if (response == null) {
+            return 0;
+        }
+        try {
+            return response.headers().firstValue("Retry-After").map(s -> Long.parseLong(s.trim()) * 1000).orElse(0L);
+        } catch (NumberFormatException e) {
+            // An HTTP date: let's keep the backoff
+            return 0;
+        }
+    }
+
+    protected HttpRequest newRequest(List<Upload> uploads) {
+        OutputBuffer body = new OutputBuffer(uploads.size() * 8 * 1024);
+        for (Upload upload : uploads) {
+            appendPart(body, "filedata", upload.fileName + ".pdf", "application/pdf", upload.pdf);
+            appendPart(body, "metadata", upload.fileName + (xml ? Invoice.XML_SUFFIX : Invoice.JSON_SUFFIX),
+                    xml ? "application/xml" : "application/json", upload.metadata);
+        }
+        body.append("--").append(boundary).append("--\r\n");
+        HttpRequest.Builder builder = HttpRequest.newBuilder(endpoint)
+                                                 .timeout(Duration.ofMillis(timeoutMillis))
+                                                 .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                                                 .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    protected void appendPart(OutputBuffer body, String name, String fileName, String contentType, byte[] content) {
+        body.append("--").append(boundary).append("\r\n");
+        body.append("Content-Disposition: form-data; name=\"")
+            .append(name)
+            .append("\"; filename=\"")
+            .append(fileName.replace("\"", "%22"))
+            .append("\"\r\n");
+        body.append("Content-Type: ").append(contentType).append("\r\n\r\n");
+        body.append(content);
+        body.append("\r\n");
+    }
+
+    protected void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            if (t instanceof IOException) {
+                throw new IOException(t.getMessage(), t);
+            }
+            throw new IOException(t.toString(), t);
+        }
+    }
+
+    /**
+     * @return the number of invoices uploaded
+     */
+    public long getUploadedCount() {
+        return uploadedCount.get();
+    }
+
+    /**
+     * @return the number of requests sent, retries included
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Sends the last batch, and waits for the responses.
+     *
+     * @throws IOException if an upload failed
+     */
+    @Override
+    public void close() throws IOException {
+        List<Upload> last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = batch;
+            batch = null;
+        }
+        if (client == null) {
+            return;
+        }
+        try {
+            if (!last.isEmpty() && failure.get() == null) {
+                send(last);
+            }
+            inFlight.acquire(maxInFlightRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        checkFailure();
+    }
+
+}
@@ -18,13 +18,16 @@
  */
 package com.hyland.labs.copo.parser;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
 import org.json.JSONObject;
@@ -37,6 +40,10 @@ import org.apache.commons.io.FileUtils;
  */
 public class Invoice {
 
+    public static final String XML_SUFFIX = ".pdf.metadata.properties.xml";
+
+    public static final String JSON_SUFFIX = "-Metadata.json";
+
     String voucher;
 
     String company;
@@ -49,7 +56,12 @@ public class Invoice {
 
     String poNumber;
 
+    // Null: the invoice number
+    String fileName;
+
     File pdf;
+
+    long pdfChecksum;
     
     String schemaPrefix;
 
@@ -67,7 +79,7 @@ public class Invoice {
 
     /**
      * IMPORTANT
-     * We do not use XML Java class because we are short in time, so we generate the XML by just exporting text.
+     * We do not use XML Java class, the XML is written as text, see {@link MetadataWriter}.
      * 
      * @return a XMl file property of the data
      * @since TODO
@@ -75,45 +87,42 @@ public class Invoice {
     public File toXmlFilePropertyForAlfrescoBulkImport(String destinationDirectoryPath, long index, String copoFileName)
             throws IOException {
 
-        if (schemaPrefix == null || schemaPrefix.isEmpty()) {
-            throw new IllegalArgumentException("The schemaPrefix is not defined.");
-        }
+        String xml = getXmlPropertiesForAlfrescoBulkImport(index, copoFileName);
 
         if (!fullpathExists(destinationDirectoryPath)) {
             throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
         }
 
-        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
-        xml += "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n";
-        xml += "<properties>\n";
-        xml += "  <entry key=\"type\">cm:content</entry>\n";
-        xml += "  <entry key=\"aspects\">cm:versionable,test:Test</entry>\n";
-        xml += "  <entry key=\"cm:title\">" + invoiceNumber + "</entry>\n";
-        if (index > 0) {
-            xml += "  <entry key=\"cm:description\">File #" + index + " from bulk import of " + copoFileName
-                    + "</entry>\n";
-        } else {
-            xml += "  <entry key=\"cm:description\">From bulk import of " + copoFileName + "</entry>\n";
-        }
-        // Specific
-        xml += "  <entry key=\"" + schemaPrefix + ":voucher\">" + voucher + "</entry>\n";
-        xml += "  <entry key=\"" + schemaPrefix + ":company\">" + company + "</entry>\n";
-        xml += "  <entry key=\"" + schemaPrefix + ":invoiceNumber\">" + invoiceNumber + "</entry>\n";
-        xml += "  <entry key=\"" + schemaPrefix + ":invoiceDate\">" + invoiceDateStr + "</entry>\n";
-        xml += "  <entry key=\"" + schemaPrefix + ":invoiceAmount\">" + invoiceAmount + "</entry>\n";
-        xml += "  <entry key=\"" + schemaPrefix + ":poNumber\">" + poNumber + "</entry>\n";
-
-        xml += "</properties>\n";
-
         if (!destinationDirectoryPath.endsWith("/")) {
             destinationDirectoryPath += "/";
         }
-        String finalFullPath = destinationDirectoryPath + invoiceNumber + ".pdf.metadata.properties.xml";
+        String finalFullPath = destinationDirectoryPath + getFileName() + XML_SUFFIX;
         File f = new File(finalFullPath);
         FileUtils.writeStringToFile(f, xml, "UTF-8");
         return f;
     }
 
+    /**
+     * @return the content of the XML file property, see {@link #toXmlFilePropertyForAlfrescoBulkImport}
+     */
+    public String getXmlPropertiesForAlfrescoBulkImport(long index, String copoFileName) {
+        OutputBuffer buffer = new OutputBuffer();
+        new MetadataWriter(schemaPrefix, copoFileName).writeXml(this, index, buffer);
+        return buffer.toString();
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+
+    /**
+     * @return the name of the files of the invoice, without extension: its invoice number, unless it is a duplicate
+     *         renamed by the "suffix" duplicate policy, see {@link COPOParser#setDuplicatePolicy(String)}
+     */
+    public String getFileName() {
+        return fileName != null ? fileName : invoiceNumber;
+    }
+
     /**
      * @return the JSON of the invoice
      * @since TODO
@@ -132,7 +141,7 @@ public class Invoice {
     }
 
     /**
-     * @return the File of the JSON of the invoice
+     * @return the File of the JSON of the invoice, the values of {@link #getJson()}, always in the same order
      * @since TODO
      */
     public File toJsonFile(String destinationDirectoryPath) throws IOException {
@@ -141,15 +150,17 @@ public class Invoice {
             throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
         }
 
-        JSONObject obj = getJson();
-        String objStr = obj.toString();
+        OutputBuffer buffer = new OutputBuffer();
+        new MetadataWriter(null, null).writeJson(this, buffer);
 
         if (!destinationDirectoryPath.endsWith("/")) {
             destinationDirectoryPath += "/";
         }
-        String finalFullPath = destinationDirectoryPath + invoiceNumber + "-Metadata.json";
+        String finalFullPath = destinationDirectoryPath + getFileName() + JSON_SUFFIX;
         File f = new File(finalFullPath);
-        FileUtils.writeStringToFile(f, objStr, "UTF-8");
+        try (OutputStream out = Files.newOutputStream(f.toPath())) {
+            buffer.writeTo(out);
+        }
         return f;
     }
 
@@ -166,57 +177,81 @@ public class Invoice {
         return pdf;
     }
 
+    /**
+     * @return the CRC32 of the PDF, once {@link #buildPdf} was called
+     */
+    public long getPdfChecksum() {
+        return pdfChecksum;
+    }
+
     public File buildPdf(String textForPdf, String destinationDirectoryPath, int removeFirstNChars) throws IOException {
+        return buildPdf(RecordText.of(textForPdf), destinationDirectoryPath, removeFirstNChars);
+    }
+
+    /**
+     * Prints each line of the text, without its first <code>removeFirstNChars</code> characters. The lines are read
+     * directly from the record buffer, no need to join and split them.
+     */
+    public File buildPdf(RecordText text, String destinationDirectoryPath, int removeFirstNChars) throws IOException {
+        return buildPdf(text, destinationDirectoryPath, removeFirstNChars, new PdfBoxRenderer());
+    }
+
+    /**
+     * Same as {@link #buildPdf(RecordText, String, int)}, with a renderer that can be reused from one invoice to the next
+     * (by the same thread)
+     */
+    public File buildPdf(RecordText text, String destinationDirectoryPath, int removeFirstNChars,
+            PdfRenderer renderer) throws IOException {
 
         if (!fullpathExists(destinationDirectoryPath)) {
             throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
         }
 
-        PDDocument document = new PDDocument();
-        // PDPage page = new PDPage(PDRectangle.A4);
-        // Create a U.S. Letter size rectangle (8.5 x 11 inches)
-        PDRectangle usLetter = new PDRectangle(612, 792); // 72 points per inch
-        PDPage page = new PDPage(usLetter);
-        document.addPage(page);
-
-        String[] textArray = textForPdf.split("\n");
-
-        PDPageContentStream contentStream = new PDPageContentStream(document, page);
-        contentStream.beginText();
-
-        // WARNING: this is for PDFBox v2.n, it changed in PDFBox 3
-        // contentStream.setFont( PDType1Font.COURIER, 7 );
-        // PDF3 style:
-        PDType1Font courier = new PDType1Font(Standard14Fonts.FontName.COURIER);
-        contentStream.setFont(courier, 7);
-
-        contentStream.setLeading(4f);
-        // contentStream.newLineAtOffset(40, 750);
-        contentStream.newLineAtOffset(20, 750);
-
-        for (String line : textArray) {
-            if (removeFirstNChars > 0) {
-                contentStream.showText(line.substring(removeFirstNChars));
-            } else {
-                contentStream.showText(line);
-            }
-            contentStream.newLine();
-            contentStream.newLine();
-        }
-        contentStream.endText();
-        contentStream.close();
-
         if (!destinationDirectoryPath.endsWith("/")) {
             destinationDirectoryPath += "/";
         }
-        String finalFullPath = destinationDirectoryPath + invoiceNumber + ".pdf";
-        document.save(finalFullPath);
-        document.close();
+        String finalFullPath = destinationDirectoryPath + getFileName() + ".pdf";
+        return buildPdf(text, Paths.get(finalFullPath), removeFirstNChars, renderer);
+    }
+
+    /**
+     * Same as {@link #buildPdf(RecordText, String, int, PdfRenderer)}, but writes the PDF to <code>out</code>, which is
+     * not closed (an archive entry, see {@link ArchiveWriter}). {@link #getPdf()} is then null.
+     */
+    public void buildPdf(RecordText text, OutputStream out, int removeFirstNChars, PdfRenderer renderer)
+            throws IOException {
 
-        pdf = new File(finalFullPath);
+        CRC32 crc = new CRC32();
+        renderer.render(text, removeFirstNChars, new CheckedOutputStream(out, crc));
+        pdfChecksum = crc.getValue();
+        pdf = null;
+    }
+
+    /**
+     * Same as {@link #buildPdf(RecordText, String, int, PdfRenderer)}, but writes the PDF to <code>pdfFile</code>,
+     * whose directory must exist (not checked)
+     */
+    public File buildPdf(RecordText text, Path pdfFile, int removeFirstNChars, PdfRenderer renderer)
+            throws IOException {
+
+        CRC32 crc = new CRC32();
+        try (OutputStream out = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(pdfFile)),
+                crc)) {
+            renderer.render(text, removeFirstNChars, out);
+        }
+        pdfChecksum = crc.getValue();
+
+        pdf = pdfFile.toFile();
         return pdf;
     }
 
+    /**
+     * Loads the font metrics used by {@link #buildPdf}, so concurrent workers don't all do it on their first invoice.
+     */
+    public static void warmUp() {
+        new PDType1Font(Standard14Fonts.FontName.COURIER);
+    }
+
     protected boolean fullpathExists(String path) {
 
         if (path == null) {
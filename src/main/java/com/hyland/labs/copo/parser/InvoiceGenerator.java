@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Generates the PDF and the metadata of each record, and hands them to sinks instead of writing files: what
+ * {@link COPOParser} does, for the records of a {@link COPORecords} stream.
+ * <p>
+ * Thread safe (each thread has its own PDF renderer and buffer), so it can consume a parallel stream. The sinks must
+ * then be thread safe too.
+ */
+public class InvoiceGenerator implements Consumer<COPORecord> {
+
+    final String schemaPrefix;
+
+    final PdfSink pdfSink;
+
+    final MetadataSink metadataSink;
+
+    final ThreadLocal<PdfRenderer> pdfRenderers;
+
+    final ThreadLocal<OutputBuffer> pdfBuffers = ThreadLocal.withInitial(() -> new OutputBuffer(16 * 1024));
+
+    /**
+     * @param schemaPrefix the prefix of the XML properties, see {@link COPORecord#toInvoice(String)}
+     * @param pdfRendererType "pdfbox" or "fast", see {@link PdfRenderer#newRenderer(String)}
+     * @param pdfSink null to not render the PDFs
+     * @param metadataSink null to not write the metadata, for example a {@link ManifestMetadataSink}
+     */
+    public InvoiceGenerator(String schemaPrefix, String pdfRendererType, PdfSink pdfSink, MetadataSink metadataSink) {
+        // Fails now, not on the first record
+        PdfRenderer.newRenderer(pdfRendererType);
+        this.schemaPrefix = schemaPrefix;
+        this.pdfSink = pdfSink;
+        this.metadataSink = metadataSink;
+        pdfRenderers = ThreadLocal.withInitial(() -> PdfRenderer.newRenderer(pdfRendererType));
+    }
+
+    /**
+     * @return the invoice of the record, with its PDF checksum if there is a PDF sink
+     */
+    public Invoice generate(COPORecord record) throws IOException {
+        Invoice invoice = record.toInvoice(schemaPrefix);
+        if (pdfSink != null) {
+            OutputBuffer pdf = pdfBuffers.get();
+            pdf.clear();
+            invoice.buildPdf(record.getText(), pdf.asOutputStream(), 2, pdfRenderers.get());
+            pdfSink.write(invoice, record.getIndex(), pdf);
+        }
+        if (metadataSink != null) {
+            metadataSink.write(invoice, record.getIndex());
+        }
+        return invoice;
+    }
+
+    /**
+     * Same as {@link #generate(COPORecord)}, an {@link IOException} of a sink is thrown as an
+     * {@link UncheckedIOException}.
+     */
+    @Override
+    public void accept(COPORecord record) {
+        try {
+            generate(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,459 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * A file to find the invoices of a run by invoice number, PO number, voucher, company or invoice date, without reading
+ * the metadata files. Built during the run by an {@link InvoiceIndexWriter}.
+ * <p>
+ * The file is made of:
+ * <ul>
+ * <li>a header of {@value #HEADER_SIZE} bytes: magic, version, number of fields and of entries, start of the
+ * sections</li>
+ * <li>the data: an entry per invoice, the values, the PDF path and the position of the record in the CO_PO file</li>
+ * <li>the positions of the entries in the data, a long per entry, by entry number (the order they were added)</li>
+ * <li>a sorted table of longs per field: the key of the value in the high 32 bits, the entry number in the low 32
+ * bits. The key of the date is the date itself, <code>yyyymmdd</code>, so the table also answers date ranges. The key of
+ * the other fields is a 32-bit hash of the value: the entries found are checked against the value.</li>
+ * </ul>
+ * The tables are memory mapped, a lookup is a binary search (about 25 reads for 20 million invoices) and a positional
+ * read per invoice found. The data is read with positional reads, so it is not limited by the size of a mapping.
+ * <p>
+ * Thread safe.
+ */
+public class InvoiceIndex implements Closeable {
+
+    protected static final long MAGIC = 0x434f504f49444958L; // "COPOIDIX"
+
+    protected static final int VERSION = 1;
+
+    protected static final int HEADER_SIZE = 48;
+
+    public static final String INVOICE_NUMBER = "invoiceNumber";
+
+    public static final String PO_NUMBER = "poNumber";
+
+    public static final String VOUCHER = "voucher";
+
+    public static final String COMPANY = "company";
+
+    public static final String INVOICE_DATE = "invoiceDate";
+
+    /**
+     * The indexed fields, in the order of their table
+     */
+    public static final String[] FIELDS = { INVOICE_NUMBER, PO_NUMBER, VOUCHER, COMPANY, INVOICE_DATE };
+
+    protected static final int DATE_FIELD = 4;
+
+    // Not a key: stored in the entry only
+    protected static final int AMOUNT_VALUE = FIELDS.length;
+
+    protected static final int NULL_LENGTH = 0xFFFF;
+
+    protected static final int MAX_ENTRY_SIZE = 8 + 8 + 4 + (FIELDS.length + 2) * (2 + NULL_LENGTH);
+
+    /**
+     * An indexed invoice
+     */
+    public static class Entry {
+
+        final long index;
+
+        final long sourceOffset;
+
+        final int sourceLength;
+
+        final String[] values;
+
+        final String path;
+
+        Entry(long index, long sourceOffset, int sourceLength, String[] values, String path) {
+            this.index = index;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+            this.values = values;
+            this.path = path;
+        }
+
+        /**
+         * @return the 1-based position of the record in its CO_PO file
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the offset of the record in the CO_PO file, -1 if unknown (the "lines" reader)
+         */
+        public long getSourceOffset() {
+            return sourceOffset;
+        }
+
+        public int getSourceLength() {
+            return sourceLength;
+        }
+
+        /**
+         * @param field one of {@link InvoiceIndex#FIELDS}
+         */
+        public String get(String field) {
+            return values[fieldNumber(field)];
+        }
+
+        public String getInvoiceNumber() {
+            return values[0];
+        }
+
+        public String getAmount() {
+            return values[AMOUNT_VALUE];
+        }
+
+        /**
+         * @return where the PDF is: relative to the destination directory, <code>archive!/entry</code> in an archive,
+         *         or null (uploaded)
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            for (int i = 0; i < FIELDS.length; i++) {
+                json.put(FIELDS[i], values[i]);
+            }
+            json.put("invoiceAmount", values[AMOUNT_VALUE]);
+            json.put("index", index);
+            json.put("offset", sourceOffset);
+            json.put("length", sourceLength);
+            json.put("pdf", path);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return toJson().toString();
+        }
+    }
+
+    final FileChannel channel;
+
+    final int entryCount;
+
+    final long dataStart;
+
+    final LongBuffer positions;
+
+    final LongBuffer[] tables = new LongBuffer[FIELDS.length];
+
+    public InvoiceIndex(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            read(header, 0);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION || header.getInt() != FIELDS.length) {
+                throw new IOException("Not an invoice index, or of another version: " + file);
+            }
+            entryCount = (int) header.getLong();
+            dataStart = header.getLong();
+            long positionsStart = header.getLong();
+            long keysStart = header.getLong();
+            positions = map(positionsStart, entryCount);
+            for (int i = 0; i < FIELDS.length; i++) {
+                tables[i] = map(keysStart + 8L * entryCount * i, entryCount);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    protected LongBuffer map(long start, int count) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, 8L * count).asLongBuffer();
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @param field one of {@link #FIELDS}
+     * @return the invoices whose field has this value, in the order they were added
+     */
+    public List<Entry> find(String field, String value) throws IOException {
+        int fieldNumber = fieldNumber(field);
+        if (fieldNumber == DATE_FIELD) {
+            return findDates(value, value);
+        }
+        List<Entry> entries = new ArrayList<>();
+        if (value == null) {
+            return entries;
+        }
+        // Stored as written
+        value = truncate(value);
+        int key = key(field, value);
+        for (int entryNumber : findEntryNumbers(fieldNumber, key, key)) {
+            Entry entry = readEntry(entryNumber);
+            // Another value with the same hash
+            if (value.equals(entry.values[fieldNumber])) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param from first date, <code>yyyymmdd</code>
+     * @param to last date, included
+     * @return the invoices of these dates, by date then in the order they were added
+     */
+    public List<Entry> findDates(String from, String to) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int fromKey = dateKey(from);
+        int toKey = dateKey(to);
+        if (fromKey == 0 || toKey == 0) {
+            throw new IllegalArgumentException("Dates must be yyyymmdd: " + from + ", " + to);
+        }
+        for (int entryNumber : findEntryNumbers(DATE_FIELD, fromKey, toKey)) {
+            entries.add(readEntry(entryNumber));
+        }
+        return entries;
+    }
+
+    /**
+     * @return the numbers of the entries whose key is in <code>[fromKey, toKey]</code>, in the table order
+     */
+    protected int[] findEntryNumbers(int fieldNumber, int fromKey, int toKey) {
+        LongBuffer table = tables[fieldNumber];
+        long fromValue = sortKey(fromKey, 0);
+        long toValue = sortKey(toKey, 0xFFFFFFFFL);
+        int start = lowerBound(table, fromValue);
+        int end = start;
+        while (end < entryCount && table.get(end) <= toValue) {
+            end += 1;
+        }
+        int[] entryNumbers = new int[end - start];
+        for (int i = start; i < end; i++) {
+            entryNumbers[i - start] = (int) table.get(i);
+        }
+        return entryNumbers;
+    }
+
+    /**
+     * @return the first position whose value is >= <code>value</code>
+     */
+    protected int lowerBound(LongBuffer table, long value) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (table.get(mid) < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    protected Entry readEntry(int entryNumber) throws IOException {
+        long position = dataStart + positions.get(entryNumber);
+        // Most entries are much smaller than the maximum: let's read a bit and extend if needed
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        read(buffer, position);
+        int needed = entrySize(buffer);
+        if (needed < 0 || needed > buffer.limit()) {
+            buffer = ByteBuffer.allocate(MAX_ENTRY_SIZE);
+            read(buffer, position);
+        }
+        long index = buffer.getLong();
+        long sourceOffset = buffer.getLong();
+        int sourceLength = buffer.getInt();
+        String[] values = new String[FIELDS.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(buffer);
+        }
+        String path = readString(buffer);
+        return new Entry(index, sourceOffset, sourceLength, values, path);
+    }
+
+    /**
+     * @return the size of the entry at the start of the buffer, or -1 if it does not hold the lengths of all its
+     *         values
+     */
+    protected static int entrySize(ByteBuffer buffer) {
+        int size = 20;
+        for (int i = 0; i < FIELDS.length + 2; i++) {
+            if (size + 2 > buffer.limit()) {
+                return -1;
+            }
+            int length = buffer.getShort(size) & 0xFFFF;
+            size += 2 + (length == NULL_LENGTH ? 0 : length);
+        }
+        return size;
+    }
+
+    protected void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    protected static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    protected static int fieldNumber(String field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Field must be either " + String.join(", ", FIELDS) + " (case sensitive).");
+    }
+
+    /**
+     * @return the values of the invoice, in the order of {@link #FIELDS}, then its amount
+     */
+    protected static String[] getValues(Invoice invoice) {
+        // Truncated before their key is computed, so it is the key of the value stored
+        return new String[] { truncate(invoice.invoiceNumber), truncate(invoice.poNumber), truncate(invoice.voucher),
+                truncate(invoice.company), invoice.invoiceDateStr, Double.toString(invoice.invoiceAmount) };
+    }
+
+    protected static void writeEntry(OutputBuffer out, long index, long sourceOffset, int sourceLength,
+            String[] values, String path) {
+        byte[] fixed = ByteBuffer.allocate(20).putLong(index).putLong(sourceOffset).putInt(sourceLength).array();
+        out.append(fixed);
+        for (String value : values) {
+            writeString(out, value);
+        }
+        writeString(out, path);
+    }
+
+    protected static void writeString(OutputBuffer out, String value) {
+        if (value == null) {
+            out.append(new byte[] { (byte) 0xFF, (byte) 0xFF });
+            return;
+        }
+        byte[] bytes = truncate(value).getBytes(StandardCharsets.UTF_8);
+        out.append(new byte[] { (byte) (bytes.length >>> 8), (byte) bytes.length });
+        out.append(bytes);
+    }
+
+    /**
+     * @return the value cut, on a character boundary, to the longest start of it that fits the 65,534 bytes of a
+     *         stored value (in UTF-8), or the value itself if it fits
+     */
+    protected static String truncate(String value) {
+        // A CO_PO value is a few characters, a path a few hundreds
+        if (value == null || value.length() <= (NULL_LENGTH - 1) / 3) {
+            return value;
+        }
+        int size = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int charSize = c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                charSize = 4;
+            }
+            if (size + charSize > NULL_LENGTH - 1) {
+                return value.substring(0, i);
+            }
+            size += charSize;
+            if (charSize == 4) {
+                i += 1;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the key of the value in the table of the field: the date as an int for the date, a hash otherwise
+     */
+    protected static int key(String field, String value) {
+        if (INVOICE_DATE.equals(field)) {
+            return dateKey(value);
+        }
+        if (value == null) {
+            return 0;
+        }
+        // FNV-1a on the chars, folded to 32 bits
+        long hash = RecordText.FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= RecordText.FNV_PRIME;
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return <code>yyyymmdd</code> as an int, 0 if it is not 8 digits
+     */
+    protected static int dateKey(String date) {
+        if (date == null || date.length() != 8) {
+            return 0;
+        }
+        int key = 0;
+        for (int i = 0; i < 8; i++) {
+            char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    /**
+     * @return the long of the table for this key and entry: sorting the longs sorts by key, then by entry number
+     */
+    protected static long sortKey(int key, long entryNumber) {
+        return ((long) key << 32) | (entryNumber & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Builds an {@link InvoiceIndex} while the invoices are generated.
+ * <p>
+ * {@link #add} is called concurrently by the workers: the entry is encoded by the calling thread, then appended to the
+ * data section of the index file, and its keys (see {@link InvoiceIndex}) and position to a temporary file of
+ * {@value #KEYS_ENTRY_SIZE} bytes per invoice. {@link #close()} then sorts the keys of each field, one field at a time
+ * (8 bytes per invoice in memory), writes them after the data, and renames the file: a reader never sees a partial
+ * index. The invoices added before a failure are still indexed.
+ */
+public class InvoiceIndexWriter implements Closeable {
+
+    // Position of the entry in the data section, then the key of each field
+    protected static final int KEYS_ENTRY_SIZE = 8 + 4 * InvoiceIndex.FIELDS.length;
+
+    protected static final int BUFFER_SIZE = 1024 * 1024;
+
+    final File file;
+
+    final Path tmpFile;
+
+    final Path keysFile;
+
+    final DataOutputStream data;
+
+    final DataOutputStream keys;
+
+    final ThreadLocal<OutputBuffer> entryBuffers = ThreadLocal.withInitial(() -> new OutputBuffer(256));
+
+    long dataLength = 0;
+
+    long entryCount = 0;
+
+    boolean closed = false;
+
+    public InvoiceIndexWriter(File file) throws IOException {
+        this.file = file;
+        tmpFile = file.toPath().resolveSibling(file.getName() + ".tmp");
+        keysFile = file.toPath().resolveSibling(file.getName() + ".keys.tmp");
+        OutputStream dataOut = new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE);
+        data = new DataOutputStream(dataOut);
+        // The header is written by close()
+        data.write(new byte[InvoiceIndex.HEADER_SIZE]);
+        keys = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keysFile), BUFFER_SIZE));
+    }
+
+    /**
+     * @param record the record of the invoice, for its index and its position in the CO_PO file
+     * @param path where the PDF is: relative to the destination directory, <code>archive!/entry</code> in an archive,
+     *            or null
+     */
+    public void add(Invoice invoice, COPORecord record, String path) throws IOException {
+
+        String[] values = InvoiceIndex.getValues(invoice);
+        OutputBuffer entry = entryBuffers.get();
+        entry.clear();
+        InvoiceIndex.writeEntry(entry, record.getIndex(), record.getSourceOffset(), record.getSourceLength(), values,
+                path);
+        int[] fieldKeys = new int[InvoiceIndex.FIELDS.length];
+        for (int i = 0; i < fieldKeys.length; i++) {
+            fieldKeys[i] = InvoiceIndex.key(InvoiceIndex.FIELDS[i], values[i]);
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The invoice index is closed");
+            }
+            if (entryCount == Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many invoices for an index: " + entryCount);
+            }
+            keys.writeLong(dataLength);
+            for (int key : fieldKeys) {
+                keys.writeInt(key);
+            }
+            data.write(entry.bytes, 0, entry.length);
+            dataLength += entry.length;
+            entryCount += 1;
+        }
+    }
+
+    public synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            data.close();
+            keys.close();
+            writeTables();
+            Files.move(tmpFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(keysFile);
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Appends the positions of the entries, and the sorted keys of each field, then writes the header
+     */
+    protected void writeTables() throws IOException {
+        int count = (int) entryCount;
+        long dataStart = InvoiceIndex.HEADER_SIZE;
+        long positionsStart = dataStart + dataLength;
+        // The tables are read as longs: 8-byte aligned
+        positionsStart += (8 - positionsStart % 8) % 8;
+        long keysStart = positionsStart + 8L * count;
+
+        try (FileChannel out = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+            long[] table = new long[count];
+            // A pass on the keys file per table: it can be larger than a mapping
+            try (DataInputStream in = openKeys()) {
+                for (int i = 0; i < count; i++) {
+                    table[i] = in.readLong();
+                    in.skipBytes(KEYS_ENTRY_SIZE - 8);
+                }
+            }
+            writeLongs(out, positionsStart, table);
+
+            for (int field = 0; field < InvoiceIndex.FIELDS.length; field++) {
+                try (DataInputStream in = openKeys()) {
+                    for (int i = 0; i < count; i++) {
+                        in.skipBytes(8 + 4 * field);
+                        table[i] = InvoiceIndex.sortKey(in.readInt(), i);
+                        in.skipBytes(KEYS_ENTRY_SIZE - 12 - 4 * field);
+                    }
+                }
+                Arrays.parallelSort(table);
+                writeLongs(out, keysStart + 8L * count * field, table);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(InvoiceIndex.HEADER_SIZE);
+            header.putLong(InvoiceIndex.MAGIC);
+            header.putInt(InvoiceIndex.VERSION);
+            header.putInt(InvoiceIndex.FIELDS.length);
+            header.putLong(count);
+            header.putLong(dataStart);
+            header.putLong(positionsStart);
+            header.putLong(keysStart);
+            header.flip();
+            out.write(header, 0);
+            out.force(false);
+        }
+    }
+
+    protected DataInputStream openKeys() throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(keysFile), BUFFER_SIZE));
+    }
+
+    protected static void writeLongs(FileChannel out, long position, long[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        LongBuffer longs = buffer.asLongBuffer();
+        int written = 0;
+        while (written < values.length) {
+            int n = Math.min(longs.capacity(), values.length - written);
+            longs.clear();
+            longs.put(values, written, n);
+            buffer.clear();
+            buffer.limit(n * 8);
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+            written += n;
+        }
+    }
+
+}
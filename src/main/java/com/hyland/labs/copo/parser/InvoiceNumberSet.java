@@ -0,0 +1,210 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The invoice numbers seen during a run, to find the duplicates (whose files would overwrite the ones of the first
+ * occurrence).
+ * <p>
+ * An invoice number of up to {@value #MAX_PACKED_LENGTH} printable ASCII characters (all the ones of the CO_PO files
+ * seen so far) is packed, 7 bits per character, into 2 longs: it is stored as is, so there is no false positive, in 16
+ * bytes instead of about 100 for a String in a HashSet. The longs are kept in open addressing tables, spread over
+ * {@value #STRIPE_COUNT} stripes by their hash: a stripe is locked only while one of its numbers is added, so the
+ * workers rarely wait for each other, and when a table is full only that stripe is rehashed. The other invoice numbers
+ * (longer, or with other characters) go to a concurrent set of Strings.
+ * <p>
+ * With 20 million invoices the tables take between 430 and 850 MB (load factor between 0.375 and 0.75).
+ */
+public class InvoiceNumberSet {
+
+    protected static final int MAX_PACKED_LENGTH = 18;
+
+    protected static final int STRIPE_COUNT = 64;
+
+    protected static final int INITIAL_SLOTS_PER_STRIPE = 1024;
+
+    protected static class Stripe {
+
+        // 2 longs per slot, the first one is never 0 for a number
+        long[] slots = new long[2 * INITIAL_SLOTS_PER_STRIPE];
+
+        int size = 0;
+
+        /**
+         * @return false if the number was already there
+         */
+        synchronized boolean add(long high, long low, long hash) {
+            if (size * 4L >= (slots.length / 2) * 3L) {
+                grow();
+            }
+            if (!insert(slots, high, low, hash)) {
+                return false;
+            }
+            size += 1;
+            return true;
+        }
+
+        synchronized boolean contains(long high, long low, long hash) {
+            int mask = slots.length / 2 - 1;
+            for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+                long h = slots[2 * slot];
+                if (h == 0) {
+                    return false;
+                }
+                if (h == high && slots[2 * slot + 1] == low) {
+                    return true;
+                }
+            }
+        }
+
+        protected void grow() {
+            long[] larger = new long[slots.length * 2];
+            for (int slot = 0; slot < slots.length / 2; slot++) {
+                long high = slots[2 * slot];
+                if (high != 0) {
+                    long low = slots[2 * slot + 1];
+                    insert(larger, high, low, hash(high, low));
+                }
+            }
+            slots = larger;
+        }
+
+        protected static boolean insert(long[] slots, long high, long low, long hash) {
+            int mask = slots.length / 2 - 1;
+            for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+                long h = slots[2 * slot];
+                if (h == 0) {
+                    slots[2 * slot] = high;
+                    slots[2 * slot + 1] = low;
+                    return true;
+                }
+                if (h == high && slots[2 * slot + 1] == low) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    final Set<String> others = ConcurrentHashMap.newKeySet();
+
+    public InvoiceNumberSet() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Thread safe
+     *
+     * @return true if the invoice number was not in the set yet
+     */
+    public boolean add(String invoiceNumber) {
+        String number = String.valueOf(invoiceNumber);
+        long high = packHigh(number);
+        if (high == 0) {
+            return others.add(number);
+        }
+        long low = packLow(number);
+        long hash = hash(high, low);
+        return stripes[(int) (hash >>> 58)].add(high, low, hash);
+    }
+
+    public boolean contains(String invoiceNumber) {
+        String number = String.valueOf(invoiceNumber);
+        long high = packHigh(number);
+        if (high == 0) {
+            return others.contains(number);
+        }
+        long low = packLow(number);
+        long hash = hash(high, low);
+        return stripes[(int) (hash >>> 58)].contains(high, low, hash);
+    }
+
+    /**
+     * Not an atomic snapshot while numbers are added
+     */
+    public long size() {
+        long size = others.size();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of invoice numbers that could not be packed, kept as Strings
+     */
+    public long getUnpackedCount() {
+        return others.size();
+    }
+
+    /**
+     * @return the 9 first characters, 7 bits each, or 0 if the number is empty, too long, or not printable ASCII (not
+     *         packed)
+     */
+    protected static long packHigh(String number) {
+        int length = number.length();
+        if (length == 0 || length > MAX_PACKED_LENGTH) {
+            return 0;
+        }
+        long high = 0;
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            // Never 0: "A" and "A\0" cannot be mixed up
+            if (c < 0x20 || c > 0x7E) {
+                return 0;
+            }
+            if (i < MAX_PACKED_LENGTH / 2) {
+                high = (high << 7) | c;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return the characters after the 9 first ones, 7 bits each, of a number {@link #packHigh(String)} packed
+     */
+    protected static long packLow(String number) {
+        long low = 0;
+        for (int i = MAX_PACKED_LENGTH / 2; i < number.length(); i++) {
+            low = (low << 7) | number.charAt(i);
+        }
+        return low;
+    }
+
+    /**
+     * @return a hash whose top 6 bits select the stripe and low bits the slot
+     */
+    protected static long hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+}
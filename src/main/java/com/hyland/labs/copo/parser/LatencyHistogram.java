@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Latencies in power of 2 buckets of nanoseconds: bucket <code>b</code> counts the durations of
+ * <code>2^(b-1)</code> to <code>2^b - 1</code> ns, so 64 counters cover any duration with a precision of a factor 2,
+ * which is enough to see where the time goes.
+ * <p>
+ * Recording is a few {@link LongAdder} increments, without lock: the histogram is shared by all the worker threads.
+ * The percentiles are the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+    protected static final int BUCKET_COUNT = 64;
+
+    final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    final LongAdder count = new LongAdder();
+
+    final LongAdder totalNanos = new LongAdder();
+
+    final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            // nanoTime() is monotonic, but let's not index with a negative duration
+            nanos = 0;
+        }
+        buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the upper bound of the bucket of the percentile, at most the maximum duration recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long n = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                long upperBound = i == 0 ? 0 : i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the count, total, mean, percentiles and maximum in microseconds, and the non-empty buckets with their
+     *         (exclusive) upper bound in microseconds
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("count", getCount());
+        json.put("totalSeconds", getTotalNanos() / 1e9);
+        json.put("meanMicros", getMeanNanos() / 1e3);
+        json.put("p50Micros", getPercentileNanos(50) / 1e3);
+        json.put("p90Micros", getPercentileNanos(90) / 1e3);
+        json.put("p99Micros", getPercentileNanos(99) / 1e3);
+        json.put("maxMicros", getMaxNanos() / 1e3);
+        // An array: the keys of a JSONObject are not ordered
+        JSONArray histogram = new JSONArray();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = buckets[i].sum();
+            if (bucketCount > 0) {
+                JSONObject bucket = new JSONObject();
+                bucket.put("belowMicros", (i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << i) / 1e3);
+                bucket.put("count", bucketCount);
+                histogram.put(bucket);
+            }
+        }
+        json.put("buckets", histogram);
+        return json;
+    }
+
+}
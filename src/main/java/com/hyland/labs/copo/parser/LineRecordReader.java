@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import static com.hyland.labs.copo.parser.COPOParser.BEGIN_RECORD_TOKEN;
+import static com.hyland.labs.copo.parser.COPOParser.COMPANY_LINE_PATTERN;
+import static com.hyland.labs.copo.parser.COPOParser.INVOICE_INFO_LINE1_PATTERN;
+import static com.hyland.labs.copo.parser.COPOParser.VOUCHER_LINE_PATTERN;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+
+import com.hyland.labs.copo.parser.ParserMetrics.Stage;
+
+/**
+ * Reads the CO_PO file line by line and frames the records between {@link COPOParser#BEGIN_RECORD_TOKEN} and
+ * {@link COPOParser#END_RECORD_TOKEN}.
+ */
+public class LineRecordReader implements RecordReader {
+
+    LineIterator it;
+
+    long invoiceCount = 0;
+
+    boolean reuseTextBuffer = false;
+
+    RecordText reusableText = new RecordText();
+
+    ParserMetrics metrics;
+
+    public LineRecordReader(File copoFile) throws IOException {
+        it = FileUtils.lineIterator(copoFile, "UTF-8");
+    }
+
+    /**
+     * Reads the CO_PO content from <code>in</code>, in UTF-8. The stream is closed by {@link #close()}.
+     */
+    public LineRecordReader(InputStream in) {
+        it = new LineIterator(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public COPORecord next() throws IOException {
+
+        if (!it.hasNext()) {
+            return null;
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        String voucher;
+        String company;
+        String invoiceNumber;
+        String invoiceDateStr;
+        String invoiceAmountStr;
+        String poNumber;
+        RecordText text = newRecordText();
+
+        // ========================================
+        // First line: should be record start
+        // ========================================
+        String line = it.nextLine();
+        if (!isRecordStart(line)) {
+            throw new RuntimeException("Line should be a Record-Start, and starts with '" + BEGIN_RECORD_TOKEN + "'");
+        }
+
+        // ========================================
+        // Voucher
+        // ========================================
+        voucher = null;
+        do {
+            line = it.nextLine();
+            text.appendLine(line);
+
+            Matcher m = VOUCHER_LINE_PATTERN.matcher(line);
+            if (m.matches()) {
+                voucher = m.group(1);
+            }
+        } while (voucher == null);
+        // Error handling if voucher is null..., but nextLine() would have failed before that
+
+        // ========================================
+        // Company
+        // ========================================
+        company = null;
+        do {
+            line = it.nextLine();
+            text.appendLine(line);
+
+            Matcher m = COMPANY_LINE_PATTERN.matcher(line);
+            if (m.matches()) {
+                company = m.group(1);
+            }
+        } while (company == null);
+        // Error handling if company is null..., but nextLine() would have failed before that
+
+        // ========================================
+        // Invoice number, date, etc.
+        // ========================================
+        invoiceNumber = null;
+        invoiceDateStr = null;
+        invoiceAmountStr = null;
+        poNumber = null;
+        do {
+            line = it.nextLine();
+            text.appendLine(line);
+
+            Matcher m = INVOICE_INFO_LINE1_PATTERN.matcher(line);
+            if (m.matches()) {
+                line = it.nextLine();
+                text.appendLine(line);
+
+                // Saddly, can't find a pattern for these 4 groups... => doing it the ugly way (see COPOParser)
+                String[] values = line.split("\\s+");
+                // First will be "-."
+                invoiceNumber = values[1];
+                invoiceDateStr = values[2];
+                invoiceAmountStr = values[3];
+                poNumber = values[4];
+            }
+        } while (invoiceNumber == null);
+
+        // ========================================
+        // Get the rest of the record
+        // ========================================
+        do {
+            line = it.nextLine();
+            text.appendLine(line);
+        } while (!isRecordEnd(line));
+
+        invoiceCount += 1;
+        if (metrics != null) {
+            // The values are matched while framing, and the lines are decoded: no byte count, no extraction latency
+            metrics.recordFramed(0);
+            metrics.recordLatency(Stage.FRAMING, System.nanoTime() - start);
+        }
+        return new COPORecord(invoiceCount, voucher, company, invoiceNumber, invoiceDateStr, invoiceAmountStr,
+                poNumber, text, -1, -1);
+    }
+
+    @Override
+    public void setReuseTextBuffer(boolean reuse) {
+        reuseTextBuffer = reuse;
+    }
+
+    @Override
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    protected RecordText newRecordText() {
+        if (reuseTextBuffer) {
+            reusableText.clear();
+            return reusableText;
+        }
+        return new RecordText();
+    }
+
+    protected boolean isRecordStart(String line) {
+        return line.indexOf(BEGIN_RECORD_TOKEN) == 0;
+    }
+
+    protected boolean isRecordEnd(String line) {
+        return line.indexOf(COPOParser.END_RECORD_TOKEN) > -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        it.close();
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A cursor over the bytes of one line of a {@link RecordText}, for the {@link FieldExtractor}s. Moving the cursor
+ * allocates nothing, only {@link #decode} creates a String.
+ * <p>
+ * The expect/skip methods return false (or 0) when the line does not match, the position is then undefined: the
+ * extractor is expected to give up on the line.
+ */
+public class LineScanner {
+
+    RecordText text;
+
+    int line;
+
+    int length;
+
+    int position;
+
+    public void reset(RecordText text, int line) {
+        this.text = text;
+        this.line = line;
+        length = text.getLineLength(line);
+        position = 0;
+    }
+
+    /**
+     * Moves to the start of the next line of the record.
+     *
+     * @return false if there is no next line
+     */
+    public boolean nextLine() {
+        if (line + 1 >= text.getLineCount()) {
+            return false;
+        }
+        reset(text, line + 1);
+        return true;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the length of the line, in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public boolean atEnd() {
+        return position >= length;
+    }
+
+    /**
+     * Skips <code>count</code> bytes, whatever they are.
+     *
+     * @return false if the line is shorter than that
+     */
+    public boolean skip(int count) {
+        position += count;
+        return position <= length;
+    }
+
+    public boolean expect(char c) {
+        if (position < length && text.byteAt(line, position) == c) {
+            position += 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips <code>token</code> if the line continues with it.
+     */
+    public boolean expect(byte[] token) {
+        if (length - position < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (text.byteAt(line, position + i) != token[i]) {
+                return false;
+            }
+        }
+        position += token.length;
+        return true;
+    }
+
+    /**
+     * @return the number of ' ' skipped
+     */
+    public int skipSpaces() {
+        int start = position;
+        while (position < length && text.byteAt(line, position) == ' ') {
+            position += 1;
+        }
+        return position - start;
+    }
+
+    /**
+     * @return the number of whitespaces (as in the \s of a regular expression) skipped
+     */
+    public int skipWhitespaces() {
+        int start = position;
+        while (position < length && isWhitespace(text.byteAt(line, position))) {
+            position += 1;
+        }
+        return position - start;
+    }
+
+    /**
+     * @return the number of non whitespaces skipped
+     */
+    public int skipNonWhitespaces() {
+        int start = position;
+        while (position < length && !isWhitespace(text.byteAt(line, position))) {
+            position += 1;
+        }
+        return position - start;
+    }
+
+    /**
+     * @return the number of [A-Z0-9] skipped
+     */
+    public int skipUpperAlphanumerics() {
+        int start = position;
+        while (position < length) {
+            byte b = text.byteAt(line, position);
+            if ((b < 'A' || b > 'Z') && (b < '0' || b > '9')) {
+                break;
+            }
+            position += 1;
+        }
+        return position - start;
+    }
+
+    /**
+     * @return the bytes <code>[from, to)</code> of the line, decoded
+     */
+    public String decode(int from, int to) {
+        return text.decode(line, from, to);
+    }
+
+    public static byte[] bytes(String token) {
+        return token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+/**
+ * A part of the CO_PO file that could not be turned into an invoice: a record that cannot be framed or parsed, a
+ * record whose invoice could not be generated, or lines between two records.
+ */
+public class MalformedRecord {
+
+    final long index;
+
+    final long offset;
+
+    final long length;
+
+    final String reason;
+
+    final Throwable cause;
+
+    /**
+     * @param index the index of the record, or -1 if the bytes are not a record (they don't start with
+     *            {@link COPOParser#BEGIN_RECORD_TOKEN})
+     * @param offset offset of the bytes in the CO_PO file, -1 if unknown
+     * @param length number of bytes, up to the next record start
+     */
+    public MalformedRecord(long index, long offset, long length, String reason, Throwable cause) {
+        this.index = index;
+        this.offset = offset;
+        this.length = length;
+        this.reason = reason;
+        this.cause = cause;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return "MalformedRecord [index=" + index + ", offset=" + offset + ", length=" + length + ", reason=" + reason
+                + "]";
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+/**
+ * Thrown by a {@link MappedRecordReader} when the bytes at its position are not a valid record.
+ */
+public class MalformedRecordException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    final long offset;
+
+    final boolean recordStart;
+
+    /**
+     * @param offset offset of the malformed bytes in the CO_PO file
+     * @param recordStart true if the bytes start with {@link COPOParser#BEGIN_RECORD_TOKEN}
+     */
+    public MalformedRecordException(String message, long offset, boolean recordStart, Throwable cause) {
+        super(message, cause);
+        this.offset = offset;
+        this.recordStart = recordStart;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean isRecordStart() {
+        return recordStart;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the metadata of all the invoices as JSON lines (NDJSON) in a manifest, instead of one small file per invoice:
+ * one open and a few large writes for the whole CO_PO file. Each line is the JSON of {@link Invoice#getJson()} plus the
+ * "index" of the invoice in the CO_PO file and the path of its "pdf", relative to the manifest.
+ * <p>
+ * With <code>maxInvoicesPerFile</code> > 0, the manifest is split in numbered parts (name-00001.ndjson,
+ * name-00002.ndjson...) of at most this number of lines, so an importer can start with a part while the next ones are
+ * written.
+ * <p>
+ * The lines are in the order the workers write them, not in file order: sort on "index" if needed.
+ */
+public class ManifestMetadataSink implements MetadataSink {
+
+    public static final String EXTENSION = ".ndjson";
+
+    protected static final int BUFFER_SIZE = 256 * 1024;
+
+    final Path directory;
+
+    final String baseName;
+
+    final int maxInvoicesPerFile;
+
+    final OutputLayout layout;
+
+    final MetadataWriter writer = new MetadataWriter(null, null);
+
+    final ThreadLocal<OutputBuffer> buffers = ThreadLocal.withInitial(OutputBuffer::new);
+
+    // Guarded by this
+    OutputStream out;
+
+    int partNumber = 0;
+
+    int linesInPart = 0;
+
+    /**
+     * @param baseName the name of the manifest, without the {@link #EXTENSION}
+     * @param maxInvoicesPerFile 0 for a single manifest
+     */
+    public ManifestMetadataSink(Path directory, String baseName, int maxInvoicesPerFile) {
+        this(directory, baseName, maxInvoicesPerFile, null);
+    }
+
+    /**
+     * @param layout where the PDFs are, the "pdf" of each line is relative to the manifest. Null for the "flat" layout
+     */
+    public ManifestMetadataSink(Path directory, String baseName, int maxInvoicesPerFile, OutputLayout layout) {
+        if (directory == null || !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("destinationDirectoryPath must be a valid, existing path");
+        }
+        if (maxInvoicesPerFile < 0) {
+            throw new IllegalArgumentException("maxInvoicesPerFile cannot be negative");
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        this.maxInvoicesPerFile = maxInvoicesPerFile;
+        this.layout = layout;
+    }
+
+    @Override
+    public void write(Invoice invoice, long index) throws IOException {
+        // Formatting is done out of the lock
+        OutputBuffer buffer = buffers.get();
+        buffer.clear();
+        writer.writeJsonLine(invoice, index, layout == null ? "" : layout.getRelativeDirectory(invoice), buffer);
+
+        synchronized (this) {
+            if (out == null || (maxInvoicesPerFile > 0 && linesInPart == maxInvoicesPerFile)) {
+                nextPart();
+            }
+            buffer.writeTo(out);
+            linesInPart += 1;
+        }
+    }
+
+    protected void nextPart() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        partNumber += 1;
+        linesInPart = 0;
+        out = new BufferedOutputStream(Files.newOutputStream(directory.resolve(getPartName(partNumber))), BUFFER_SIZE);
+    }
+
+    protected String getPartName(int partNumber) {
+        if (maxInvoicesPerFile == 0) {
+            return baseName + EXTENSION;
+        }
+        return String.format("%s-%05d%s", baseName, partNumber, EXTENSION);
+    }
+
+    /**
+     * @return the number of manifest files written so far
+     */
+    public synchronized int getPartCount() {
+        return partNumber;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (partNumber == 0) {
+            // No invoice: still an (empty) manifest, so the importer knows the file was processed
+            nextPart();
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+}
@@ -0,0 +1,464 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import static com.hyland.labs.copo.parser.COPOParser.BEGIN_RECORD_TOKEN;
+import static com.hyland.labs.copo.parser.COPOParser.END_RECORD_TOKEN;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import com.hyland.labs.copo.parser.ParserMetrics.Stage;
+
+/**
+ * Frames the records directly on the bytes of the memory-mapped CO_PO file.
+ * <p>
+ * The file is mapped by windows of <code>chunkSize</code> bytes (a single mapping cannot exceed 2GB). When a record
+ * crosses the end of the current window, the next window starts at this record. The header values are read from the
+ * bytes by a {@link RecordFieldParser}, and the text of the record is handed to the {@link COPORecord} as line offsets
+ * over the mapping ({@link RecordText}), decoded only if the PDF is built.
+ * <p>
+ * A reader can also be limited to a byte range of the file (see {@link SplitFileParser}): both ends of the range are
+ * moved forward to the next record start, so that consecutive ranges frame each record exactly once.
+ */
+public class MappedRecordReader implements RecordReader {
+
+    public static final long DEFAULT_CHUNK_SIZE = 256L * 1024 * 1024;
+
+    protected static final byte[] BEGIN_RECORD_BYTES = BEGIN_RECORD_TOKEN.getBytes(StandardCharsets.UTF_8);
+
+    protected static final byte[] END_RECORD_BYTES = END_RECORD_TOKEN.getBytes(StandardCharsets.UTF_8);
+
+    protected static final int[] END_RECORD_SKIP = skipTable(END_RECORD_BYTES);
+
+    protected static final long NEW_LINES = 0x0A0A0A0A0A0A0A0AL;
+
+    FileChannel channel;
+
+    // Long.MAX_VALUE until a StreamRecordReader reaches the end of its input
+    long fileSize;
+
+    long chunkSize;
+
+    // A mapping, or the bytes read by a StreamRecordReader
+    ByteBuffer window;
+
+    // Shared by the RecordText of all the records framed in the window
+    ByteBuffer readOnlyWindow;
+
+    long windowStart;
+
+    int windowLength;
+
+    // Absolute offset of the next record
+    long position = 0;
+
+    // Absolute offset of the first record not framed by this reader
+    long rangeEnd;
+
+    long invoiceCount = 0;
+
+    RecordFieldParser fieldParser = new RecordFieldParser();
+
+    RecordFields fields = new RecordFields();
+
+    boolean reuseTextBuffer = false;
+
+    RecordText reusableText = new RecordText();
+
+    MalformedRecordHandler malformedRecordHandler;
+
+    ParserMetrics metrics;
+
+    // Of the last record framed, when there are metrics
+    long extractionNanos;
+
+    /**
+     * For a subclass reading the bytes another way, see {@link #map(long, long)}: the size of the input is unknown.
+     */
+    protected MappedRecordReader(long chunkSize) {
+        this.chunkSize = chunkSize;
+        fileSize = Long.MAX_VALUE;
+        rangeEnd = Long.MAX_VALUE;
+    }
+
+    public MappedRecordReader(File copoFile) throws IOException {
+        this(copoFile, DEFAULT_CHUNK_SIZE);
+    }
+
+    public MappedRecordReader(File copoFile, long chunkSize) throws IOException {
+        if (chunkSize < 1 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("chunkSize must be between 1 and " + Integer.MAX_VALUE);
+        }
+        this.chunkSize = chunkSize;
+        channel = FileChannel.open(copoFile.toPath(), StandardOpenOption.READ);
+        fileSize = channel.size();
+        rangeEnd = fileSize;
+    }
+
+    /**
+     * Frames only the records starting in <code>[rangeStart, rangeEnd)</code>, once both offsets are moved to the next
+     * record start.
+     *
+     * @param firstIndex the index of the first record of the range in the whole file
+     */
+    public MappedRecordReader(File copoFile, long rangeStart, long rangeEnd, long firstIndex) throws IOException {
+        this(copoFile, DEFAULT_CHUNK_SIZE);
+        try {
+            this.rangeEnd = alignToRecordStart(Math.min(rangeEnd, fileSize));
+            position = alignToRecordStart(Math.min(rangeStart, fileSize));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        invoiceCount = firstIndex - 1;
+    }
+
+    /**
+     * @return the offset of the next record
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the offset of the first record this reader will not frame (the file size if the reader is not limited
+     *         to a range)
+     */
+    public long getRangeEnd() {
+        return rangeEnd;
+    }
+
+    /**
+     * @return the offset of the first line starting with {@link COPOParser#BEGIN_RECORD_TOKEN} at or after
+     *         <code>offset</code>, or the file size
+     */
+    public long alignToRecordStart(long offset) throws IOException {
+        if (offset <= 0) {
+            return 0;
+        }
+        // Start of the first line at or after offset
+        long lineStart = endOfLineAt(offset - 1) + 1;
+        while (lineStart < fileSize) {
+            long lineEnd = endOfLineAt(lineStart);
+            ensureMapped(lineStart, lineEnd - lineStart);
+            int start = (int) (lineStart - windowStart);
+            if (startsWith(start, start + (int) (lineEnd - lineStart), BEGIN_RECORD_BYTES)) {
+                return lineStart;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Counts the records from the current position to the end of the range, without framing them (it only looks at the
+     * start of each line). Does not change the position.
+     */
+    public long countRecords() throws IOException {
+        long count = 0;
+        long lineStart = position;
+        while (lineStart < rangeEnd) {
+            long lineEnd = endOfLineAt(lineStart);
+            ensureMapped(lineStart, lineEnd - lineStart);
+            int start = (int) (lineStart - windowStart);
+            if (startsWith(start, start + (int) (lineEnd - lineStart), BEGIN_RECORD_BYTES)) {
+                count += 1;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return the absolute offset of the '\n' ending the line containing <code>offset</code>, or the file size
+     */
+    protected long endOfLineAt(long offset) throws IOException {
+        ensureMapped(offset, 1);
+        while (true) {
+            int end = endOfLine((int) (offset - windowStart));
+            if (end < windowLength || windowStart + windowLength >= fileSize) {
+                return windowStart + end;
+            }
+            // No '\n' before the end of the window, continue in the next one
+            offset = windowStart + windowLength;
+            map(offset, chunkSize);
+        }
+    }
+
+    protected void ensureMapped(long offset, long length) throws IOException {
+        if (window == null || offset < windowStart || offset + length > windowStart + windowLength) {
+            map(offset, Math.max(chunkSize, length));
+        }
+    }
+
+    @Override
+    public COPORecord next() throws IOException {
+
+        if (position >= rangeEnd) {
+            return null;
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        while (true) {
+            try {
+                COPORecord record = frame();
+                if (metrics != null) {
+                    metrics.recordFramed(record.getSourceLength());
+                    metrics.recordLatency(Stage.FRAMING, System.nanoTime() - start - extractionNanos);
+                    metrics.recordLatency(Stage.EXTRACTION, extractionNanos);
+                }
+                return record;
+            } catch (MalformedRecordException e) {
+                if (malformedRecordHandler == null) {
+                    throw e;
+                }
+                skipMalformed(e);
+                if (position >= rangeEnd) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    protected COPORecord frame() throws IOException {
+        long mapSize = chunkSize;
+        while (true) {
+            if (window == null || position < windowStart || position >= windowStart + windowLength) {
+                map(position, mapSize);
+            }
+            COPORecord record = scan((int) (position - windowStart));
+            if (record != null) {
+                return record;
+            }
+            // The record crosses the end of the window: map again, starting at the record
+            if (windowStart + windowLength >= fileSize || windowLength >= Integer.MAX_VALUE) {
+                throw new MalformedRecordException(
+                        "Record starting at offset " + position + " is larger than the maximum mapping size", position,
+                        true, null);
+            }
+            mapSize = Math.min(Integer.MAX_VALUE, Math.max(mapSize, windowLength) * 2L);
+            map(position, mapSize);
+        }
+    }
+
+    /**
+     * Moves to the next record start, after the malformed bytes, and passes them to the handler. A malformed record
+     * still uses an index, so the next records keep the index they have when the file is split (see
+     * {@link SplitFileParser}).
+     */
+    protected void skipMalformed(MalformedRecordException e) throws IOException {
+        long start = e.getOffset();
+        long end = Math.min(alignToRecordStart(start + 1), rangeEnd);
+        long index = -1;
+        if (e.isRecordStart()) {
+            invoiceCount += 1;
+            index = invoiceCount;
+        }
+        position = end;
+        malformedRecordHandler.handle(new MalformedRecord(index, start, end - start, e.getMessage(), e.getCause()));
+    }
+
+    protected void map(long start, long size) throws IOException {
+        windowStart = start;
+        windowLength = (int) Math.min(size, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+        readOnlyWindow = window.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void setReuseTextBuffer(boolean reuse) {
+        reuseTextBuffer = reuse;
+    }
+
+    /**
+     * When set, a malformed record (or lines that are not part of a record) is passed to the handler, and the reader
+     * goes on with the next record start. Default is null: {@link #next()} throws a {@link MalformedRecordException}.
+     */
+    public void setMalformedRecordHandler(MalformedRecordHandler handler) {
+        malformedRecordHandler = handler;
+    }
+
+    /**
+     * Also records the extraction latency: the time {@link RecordFieldParser} takes, not counted in the framing one.
+     */
+    @Override
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Replaces the extractors of the header values, default is {@link COPOFieldExtractors#DEFAULT}.
+     */
+    public void setFieldExtractors(List<FieldExtractor> extractors) {
+        fieldParser = new RecordFieldParser(extractors);
+    }
+
+    /**
+     * @return the record starting at <code>start</code> in the window, or null if it does not end in the window
+     */
+    protected COPORecord scan(int start) {
+
+        boolean windowIsEndOfFile = windowStart + windowLength >= fileSize;
+
+        // ========================================
+        // First line: should be record start
+        // ========================================
+        int lineEnd = endOfLine(start);
+        if (lineEnd == windowLength && !windowIsEndOfFile) {
+            return null;
+        }
+        if (!startsWith(start, lineEnd, BEGIN_RECORD_BYTES)) {
+            throw new MalformedRecordException("Line should be a Record-Start, and starts with '"
+                    + BEGIN_RECORD_TOKEN + "' (offset " + (windowStart + start) + ")", windowStart + start, false, null);
+        }
+
+        int textStart = nextLine(lineEnd);
+        RecordText text = reuseTextBuffer ? reusableText : new RecordText();
+        text.clear();
+        int lineStart = textStart;
+        while (true) {
+            if (lineStart >= windowLength) {
+                if (windowIsEndOfFile) {
+                    throw new MalformedRecordException(
+                            "End of file reached before the end of the record starting at offset "
+                                    + (windowStart + start),
+                            windowStart + start, true, null);
+                }
+                return null;
+            }
+            lineEnd = endOfLine(lineStart);
+            if (lineEnd == windowLength && !windowIsEndOfFile) {
+                // Maybe a truncated line
+                return null;
+            }
+            if (startsWith(lineStart, lineEnd, BEGIN_RECORD_BYTES)) {
+                throw new MalformedRecordException("Record-Start found at offset " + (windowStart + lineStart)
+                        + " before the end of the record starting at offset " + (windowStart + start),
+                        windowStart + start, true, null);
+            }
+            int contentEnd = lineEnd > lineStart && window.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            text.addLine(lineStart - textStart, contentEnd - textStart);
+            if (indexOf(lineStart, lineEnd, END_RECORD_BYTES, END_RECORD_SKIP) > -1) {
+                break;
+            }
+            lineStart = nextLine(lineEnd);
+        }
+
+        int recordEnd = nextLine(lineEnd);
+        text.setData(readOnlyWindow, textStart, recordEnd - textStart);
+
+        long extractionStart = metrics == null ? 0 : System.nanoTime();
+        try {
+            fieldParser.parse(text, fields);
+        } catch (RuntimeException e) {
+            throw new MalformedRecordException(
+                    "Record starting at offset " + (windowStart + start) + ": " + e.getMessage(), windowStart + start,
+                    true, e);
+        }
+
+        if (metrics != null) {
+            extractionNanos = System.nanoTime() - extractionStart;
+        }
+
+        invoiceCount += 1;
+        position = windowStart + recordEnd;
+        return new COPORecord(invoiceCount, fields, text, windowStart + start, recordEnd - start);
+    }
+
+    /**
+     * @return the index of the '\n' ending the line, or windowLength if there is none
+     */
+    protected int endOfLine(int from) {
+        // 8 bytes at a time: a byte of (word ^ NEW_LINES) is zero where there is a '\n' (see "Bit Twiddling Hacks",
+        // determine if a word has a zero byte). Only the least significant flag is exact: the borrow of a zero byte can
+        // also flag the next more significant byte (a 0x0B before a '\n'). So the word is read little-endian, the first
+        // byte being the least significant
+        int i = from;
+        for (int max = windowLength - Long.BYTES; i <= max; i += Long.BYTES) {
+            long word = Long.reverseBytes(window.getLong(i)) ^ NEW_LINES;
+            long found = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < windowLength; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return windowLength;
+    }
+
+    protected int nextLine(int lineEnd) {
+        return lineEnd < windowLength ? lineEnd + 1 : windowLength;
+    }
+
+    protected boolean startsWith(int from, int to, byte[] token) {
+        if (to - from < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (window.get(from + i) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Boyer-Moore-Horspool search, the tokens are long enough to skip most of the bytes of a line.
+     */
+    protected int indexOf(int from, int to, byte[] token, int[] skip) {
+        int last = token.length - 1;
+        for (int i = from, max = to - token.length; i <= max; i += skip[window.get(i + last) & 0xFF]) {
+            int j = last;
+            while (window.get(i + j) == token[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j -= 1;
+            }
+        }
+        return -1;
+    }
+
+    protected static int[] skipTable(byte[] token) {
+        int[] skip = new int[256];
+        Arrays.fill(skip, token.length);
+        for (int i = 0; i < token.length - 1; i++) {
+            skip[token[i] & 0xFF] = token.length - 1 - i;
+        }
+        return skip;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where the metadata of the invoices goes: one file per invoice ({@link FileMetadataSink}), or a manifest for the whole
+ * CO_PO file ({@link ManifestMetadataSink}).
+ * <p>
+ * {@link #write} is called concurrently by the workers, in no particular order: the index passed with each invoice is
+ * its position in the CO_PO file.
+ */
+public interface MetadataSink extends Closeable {
+
+    void write(Invoice invoice, long index) throws IOException;
+
+    /**
+     * @return the file holding the metadata of this invoice only, or null when the metadata of all the invoices go to
+     *         the same output (then {@link #write} is called for every invoice, even the ones that are up to date)
+     */
+    default Path getOutputFile(Invoice invoice) {
+        return null;
+    }
+
+}
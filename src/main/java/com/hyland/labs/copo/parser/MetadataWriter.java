@@ -0,0 +1,203 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the metadata of an invoice, XML file property or JSON, straight into a {@link OutputBuffer}: no
+ * concatenation, no JSONObject. Everything that does not depend on the invoice (the XML header, the keys qualified with
+ * the schema prefix, the escaped name of the CO_PO file) is encoded once, when the writer is created.
+ * <p>
+ * The values are escaped (XML entities, JSON string escapes). The JSON keys are always in the same order. The amount
+ * is written as {@link Invoice#getJson()} would: <code>Double.toString</code>, without trailing zeros in JSON.
+ * <p>
+ * Immutable, so one instance is shared by all the workers of a run.
+ */
+public class MetadataWriter {
+
+    protected static final byte[] XML_HEADER = utf8("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n" + "<properties>\n"
+            + "  <entry key=\"type\">cm:content</entry>\n"
+            + "  <entry key=\"aspects\">cm:versionable,test:Test</entry>\n" + "  <entry key=\"cm:title\">");
+
+    protected static final byte[] XML_DESCRIPTION_INDEX = utf8("</entry>\n  <entry key=\"cm:description\">File #");
+
+    protected static final byte[] XML_DESCRIPTION_NO_INDEX = utf8(
+            "</entry>\n  <entry key=\"cm:description\">From bulk import of ");
+
+    protected static final byte[] XML_FROM_BULK_IMPORT = utf8(" from bulk import of ");
+
+    protected static final byte[] XML_ENTRY_END = utf8("</entry>\n");
+
+    protected static final byte[] XML_FOOTER = utf8("</properties>\n");
+
+    protected static final String[] FIELD_NAMES = { "voucher", "company", "invoiceNumber", "invoiceDate",
+            "invoiceAmount", "poNumber" };
+
+    // The JSON of Invoice#getJson() names the date "invoiceDateStr"
+    protected static final String[] JSON_FIELD_NAMES = { "voucher", "company", "invoiceNumber", "invoiceDateStr",
+            "invoiceAmount", "poNumber" };
+
+    // "\"name\":"
+    protected static final byte[][] JSON_KEYS = new byte[JSON_FIELD_NAMES.length][];
+
+    protected static final byte[] JSON_INDEX_KEY = utf8(",\"index\":");
+
+    protected static final byte[] JSON_PDF_KEY = utf8(",\"pdf\":\"");
+
+    protected static final byte[] PDF_EXTENSION = utf8(".pdf\"");
+
+    static {
+        for (int i = 0; i < JSON_FIELD_NAMES.length; i++) {
+            JSON_KEYS[i] = utf8("\"" + JSON_FIELD_NAMES[i] + "\":");
+        }
+    }
+
+    final String schemaPrefix;
+
+    // "  <entry key=\"prefix:field\">", null without schemaPrefix
+    final byte[][] xmlEntries;
+
+    final byte[] escapedCopoFileName;
+
+    /**
+     * @param schemaPrefix prefix of the XML keys, can be null when only JSON is written
+     * @param copoFileName name of the CO_PO file, for the XML description
+     */
+    public MetadataWriter(String schemaPrefix, String copoFileName) {
+        this.schemaPrefix = schemaPrefix;
+        if (schemaPrefix == null || schemaPrefix.isEmpty()) {
+            xmlEntries = null;
+        } else {
+            xmlEntries = new byte[FIELD_NAMES.length][];
+            for (int i = 0; i < FIELD_NAMES.length; i++) {
+                OutputBuffer entry = new OutputBuffer(64);
+                entry.append("  <entry key=\"").appendXmlEscaped(schemaPrefix + ":" + FIELD_NAMES[i]).append("\">");
+                xmlEntries[i] = entry.toByteArray();
+            }
+        }
+        escapedCopoFileName = new OutputBuffer(64).appendXmlEscaped(String.valueOf(copoFileName)).toByteArray();
+    }
+
+    /**
+     * Appends the XML file property for the Alfresco bulk import
+     *
+     * @param index position of the invoice in the CO_PO file, not written if <= 0
+     */
+    public void writeXml(Invoice invoice, long index, OutputBuffer out) {
+
+        if (xmlEntries == null) {
+            throw new IllegalArgumentException("The schemaPrefix is not defined.");
+        }
+
+        out.append(XML_HEADER).appendXmlEscaped(invoice.invoiceNumber);
+        if (index > 0) {
+            out.append(XML_DESCRIPTION_INDEX).append(index).append(XML_FROM_BULK_IMPORT);
+        } else {
+            out.append(XML_DESCRIPTION_NO_INDEX);
+        }
+        out.append(escapedCopoFileName).append(XML_ENTRY_END);
+
+        out.append(xmlEntries[0]).appendXmlEscaped(invoice.voucher).append(XML_ENTRY_END);
+        out.append(xmlEntries[1]).appendXmlEscaped(invoice.company).append(XML_ENTRY_END);
+        out.append(xmlEntries[2]).appendXmlEscaped(invoice.invoiceNumber).append(XML_ENTRY_END);
+        out.append(xmlEntries[3]).appendXmlEscaped(invoice.invoiceDateStr).append(XML_ENTRY_END);
+        out.append(xmlEntries[4]).append(Double.toString(invoice.invoiceAmount)).append(XML_ENTRY_END);
+        out.append(xmlEntries[5]).appendXmlEscaped(invoice.poNumber).append(XML_ENTRY_END);
+        out.append(XML_FOOTER);
+    }
+
+    /**
+     * Appends the JSON object of the invoice, the same values as {@link Invoice#getJson()}
+     */
+    public void writeJson(Invoice invoice, OutputBuffer out) {
+        writeJsonFields(invoice, out);
+        out.append('}');
+    }
+
+    /**
+     * Appends a line of an NDJSON manifest: the JSON of the invoice, plus its index and the name of its PDF, and "\n"
+     */
+    public void writeJsonLine(Invoice invoice, long index, OutputBuffer out) {
+        writeJsonLine(invoice, index, "", out);
+    }
+
+    /**
+     * Same as {@link #writeJsonLine(Invoice, long, OutputBuffer)}, with the PDF in <code>pdfDirectory</code> (relative
+     * to the manifest, ending with "/", see {@link OutputLayout#getRelativeDirectory(Invoice)})
+     */
+    public void writeJsonLine(Invoice invoice, long index, String pdfDirectory, OutputBuffer out) {
+        writeJsonFields(invoice, out);
+        out.append(JSON_INDEX_KEY).append(index);
+        out.append(JSON_PDF_KEY).appendJsonEscaped(pdfDirectory).appendJsonEscaped(invoice.getFileName())
+                .append(PDF_EXTENSION);
+        out.append('}').append('\n');
+    }
+
+    protected void writeJsonFields(Invoice invoice, OutputBuffer out) {
+        out.append('{');
+        int start = out.getLength();
+        writeJsonString(JSON_KEYS[0], invoice.voucher, start, out);
+        writeJsonString(JSON_KEYS[1], invoice.company, start, out);
+        writeJsonString(JSON_KEYS[2], invoice.invoiceNumber, start, out);
+        writeJsonString(JSON_KEYS[3], invoice.invoiceDateStr, start, out);
+        if (out.getLength() > start) {
+            out.append(',');
+        }
+        out.append(JSON_KEYS[4]).append(jsonNumber(invoice.invoiceAmount));
+        writeJsonString(JSON_KEYS[5], invoice.poNumber, start, out);
+    }
+
+    /**
+     * Appends the key and the value, after a comma unless it is the first member of the object (which starts at
+     * <code>start</code>). A null value is not written, as JSONObject#put removes the key.
+     */
+    protected static void writeJsonString(byte[] key, String value, int start, OutputBuffer out) {
+        if (value != null) {
+            if (out.getLength() > start) {
+                out.append(',');
+            }
+            out.append(key).append('"').appendJsonEscaped(value).append('"');
+        }
+    }
+
+    /**
+     * @return the number the way org.json writes it: no trailing zeros after the decimal point
+     */
+    protected static String jsonNumber(double value) {
+        String s = Double.toString(value);
+        if (s.indexOf('.') > 0 && s.indexOf('E') < 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end -= 1;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end -= 1;
+            }
+            return s.substring(0, end);
+        }
+        return s;
+    }
+
+    protected static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.hyland.labs.copo.parser.ParserMetrics.Stage;
+
+/**
+ * Writes a line of {@link ParserMetrics} every <code>intervalMillis</code>, on a daemon thread, until closed:
+ * <p>
+ * <code>[metrics] 120.0 s: 48210 records (402/s), 201.3 MB (1.7 MB/s), 0 malformed, 0 failed, 16 in flight |
+ * mean/p99 us: framing 4/8 extraction 2/4 buildPdf 1870/4095 metadataWrite 61/255</code>
+ * <p>
+ * The rates are the ones of the last interval, the latencies the ones since the start.
+ */
+public class MetricsReporter implements Closeable {
+
+    ParserMetrics metrics;
+
+    Consumer<String> output;
+
+    ScheduledExecutorService scheduler;
+
+    long previousRecordCount = 0;
+
+    long previousByteCount = 0;
+
+    double previousSeconds = 0;
+
+    public MetricsReporter(ParserMetrics metrics, long intervalMillis, Consumer<String> output) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be at least 1");
+        }
+        this.metrics = metrics;
+        this.output = output;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "copo-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    protected synchronized void report() {
+        try {
+            output.accept(formatLine());
+        } catch (RuntimeException e) {
+            // A failing output must not stop the next reports
+        }
+    }
+
+    protected String formatLine() {
+        double seconds = metrics.getElapsedSeconds();
+        long recordCount = metrics.getRecordCount();
+        long byteCount = metrics.getByteCount();
+        double interval = seconds - previousSeconds;
+        StringBuilder line = new StringBuilder(String.format(
+                "[metrics] %.1f s: %d records (%.0f/s), %.1f MB (%.1f MB/s), %d malformed, %d failed, %d in flight |"
+                        + " mean/p99 us:",
+                seconds, recordCount, interval > 0 ? (recordCount - previousRecordCount) / interval : 0,
+                byteCount / (1024.0 * 1024.0),
+                interval > 0 ? (byteCount - previousByteCount) / (1024.0 * 1024.0) / interval : 0,
+                metrics.getMalformedRecordCount(), metrics.getFailedRecordCount(), metrics.getInFlightRecordCount()));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = metrics.getLatency(stage);
+            line.append(' ')
+                .append(stage.getName())
+                .append(' ')
+                .append(latency.getMeanNanos() / 1000)
+                .append('/')
+                .append(latency.getPercentileNanos(99) / 1000);
+        }
+        previousSeconds = seconds;
+        previousRecordCount = recordCount;
+        previousByteCount = byteCount;
+        return line.toString();
+    }
+
+    /**
+     * Stops the reports, without a last one.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+}
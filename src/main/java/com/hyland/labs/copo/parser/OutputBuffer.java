@@ -0,0 +1,276 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer, appended with UTF-8 text or written as an {@link OutputStream}, cleared and reused from one
+ * invoice to the next: once it is large enough, writing the metadata or the PDF of an invoice allocates no buffer.
+ * <p>
+ * Not thread safe.
+ */
+public class OutputBuffer {
+
+    protected static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    byte[] bytes;
+
+    int length;
+
+    OutputStream outputStream;
+
+    public OutputBuffer() {
+        this(1024);
+    }
+
+    public OutputBuffer(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public OutputBuffer append(char c) {
+        ensureCapacity(length + 1);
+        if (c < 0x80) {
+            bytes[length++] = (byte) c;
+        } else {
+            append(String.valueOf(c));
+        }
+        return this;
+    }
+
+    /**
+     * Appends the chars, encoded in UTF-8
+     */
+    public OutputBuffer append(CharSequence chars) {
+        return append(chars, 0, chars.length());
+    }
+
+    /**
+     * Appends the chars <code>[from, to)</code>, encoded in UTF-8
+     */
+    public OutputBuffer append(CharSequence chars, int from, int to) {
+        // At most 3 bytes per char (a surrogate pair is 2 chars for 4 bytes)
+        ensureCapacity(length + (to - from) * 3);
+        length = encodeUtf8(chars, from, to, bytes, length);
+        return this;
+    }
+
+    /**
+     * Encodes the chars <code>[from, to)</code> in UTF-8 into <code>bytes</code>, which must have room for 3 bytes per
+     * char. A lone surrogate is encoded '?'.
+     *
+     * @return the offset following the last byte written
+     */
+    static int encodeUtf8(CharSequence chars, int from, int to, byte[] bytes, int offset) {
+        for (int i = from; i < to; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                bytes[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[offset++] = (byte) (0xC0 | (c >> 6));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, chars.charAt(++i));
+                bytes[offset++] = (byte) (0xF0 | (cp >> 18));
+                bytes[offset++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[offset++] = '?';
+            } else {
+                bytes[offset++] = (byte) (0xE0 | (c >> 12));
+                bytes[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return offset;
+    }
+
+    public OutputBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    public OutputBuffer append(byte[] bytes, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(bytes, offset, this.bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * @return an output stream appending to this buffer (a PDF written in memory, for instance)
+     */
+    public OutputStream asOutputStream() {
+        if (outputStream == null) {
+            outputStream = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    ensureCapacity(length + 1);
+                    bytes[length++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    append(b, off, len);
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    /**
+     * Appends the chars with &amp;, &lt;, &gt;, &quot; and &apos; replaced by their XML entity, and the control
+     * characters other than tab, line feed and carriage return (not allowed in XML) by '?'. A null value is written
+     * "null", as a concatenation would.
+     */
+    public OutputBuffer appendXmlEscaped(String chars) {
+        if (chars == null) {
+            return append("null");
+        }
+        int from = 0;
+        int count = chars.length();
+        for (int i = 0; i < count; i++) {
+            String entity;
+            switch (chars.charAt(i)) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            case '\'':
+                entity = "&apos;";
+                break;
+            case '\t':
+            case '\n':
+            case '\r':
+                continue;
+            default:
+                if (chars.charAt(i) >= 0x20) {
+                    continue;
+                }
+                // Not allowed in XML 1.0, even as a character reference
+                entity = "?";
+            }
+            append(chars, from, i).append(entity);
+            from = i + 1;
+        }
+        return append(chars, from, count);
+    }
+
+    /**
+     * Appends the chars escaped for a JSON string (without the quotes)
+     */
+    public OutputBuffer appendJsonEscaped(String chars) {
+        int from = 0;
+        int count = chars.length();
+        for (int i = 0; i < count; i++) {
+            char c = chars.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            append(chars, from, i).append('\\');
+            switch (c) {
+            case '"':
+            case '\\':
+                append(c);
+                break;
+            case '\n':
+                append('n');
+                break;
+            case '\r':
+                append('r');
+                break;
+            case '\t':
+                append('t');
+                break;
+            case '\b':
+                append('b');
+                break;
+            case '\f':
+                append('f');
+                break;
+            default:
+                append('u').append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF])
+                        .append(HEX[c & 0xF]);
+            }
+            from = i + 1;
+        }
+        return append(chars, from, count);
+    }
+
+    public OutputBuffer append(long value) {
+        if (value < 0) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(length + 20);
+        int start = length;
+        do {
+            bytes[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // Digits were written backwards
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+        return this;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * @return the content, decoded
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where the files of an invoice (PDF and metadata, always in the same directory, as expected by the Alfresco bulk
+ * import) are written, under the destination directory:
+ * <ul>
+ * <li>"flat" (default): in the destination directory itself</li>
+ * <li>"hash": in 2 levels of 256 directories, named after a hash of the invoice number, like <code>3f/a2/</code>. The
+ * invoices are spread evenly, whatever their numbers</li>
+ * <li>"company": in a directory per company, like <code>0987/</code></li>
+ * <li>"date": in a directory per invoice date, like <code>2024/03/14/</code></li>
+ * </ul>
+ * A directory is created the first time an invoice is written in it, then remembered: the next invoices do not check
+ * the file system again.
+ * <p>
+ * Thread safe.
+ */
+public class OutputLayout {
+
+    public static final String UNKNOWN_DIRECTORY = "_";
+
+    protected static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final Path root;
+
+    final String type;
+
+    // Relative directories already created
+    final Set<String> createdDirectories = ConcurrentHashMap.newKeySet();
+
+    public OutputLayout(Path root, String type) {
+        if (!"flat".equals(type) && !"hash".equals(type) && !"company".equals(type) && !"date".equals(type)) {
+            throw new IllegalArgumentException("Output Layout must be either flat, hash, company or date (case sensitive).");
+        }
+        this.root = root;
+        this.type = type;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the directory of the invoice relative to the destination, ending with "/" (empty with "flat")
+     */
+    public String getRelativeDirectory(Invoice invoice) {
+        switch (type) {
+        case "hash":
+            long hash = RecordText.FNV_OFFSET_BASIS;
+            for (byte b : String.valueOf(invoice.getInvoiceNumber()).getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xFF)) * RecordText.FNV_PRIME;
+            }
+            return new String(new char[] { HEX[(int) (hash >>> 60) & 0xF], HEX[(int) (hash >>> 56) & 0xF], '/',
+                    HEX[(int) (hash >>> 52) & 0xF], HEX[(int) (hash >>> 48) & 0xF], '/' });
+
+        case "company":
+            return toDirectoryName(invoice.company) + "/";
+
+        case "date":
+            // yyyyMMdd
+            String date = invoice.invoiceDateStr;
+            if (date == null || date.length() != 8 || !date.chars().allMatch(Character::isDigit)) {
+                return UNKNOWN_DIRECTORY + "/";
+            }
+            return date.substring(0, 4) + "/" + date.substring(4, 6) + "/" + date.substring(6, 8) + "/";
+
+        default:
+            return "";
+        }
+    }
+
+    /**
+     * @return the directory of the invoice, without creating it
+     */
+    public Path resolveDirectory(Invoice invoice) {
+        String relative = getRelativeDirectory(invoice);
+        return relative.isEmpty() ? root : root.resolve(relative);
+    }
+
+    /**
+     * @return the directory of the invoice, created if it is the first invoice written there
+     */
+    public Path getDirectory(Invoice invoice) throws IOException {
+        String relative = getRelativeDirectory(invoice);
+        if (relative.isEmpty()) {
+            return root;
+        }
+        Path dir = root.resolve(relative);
+        if (!createdDirectories.contains(relative)) {
+            // Does nothing if another thread just created it
+            Files.createDirectories(dir);
+            createdDirectories.add(relative);
+        }
+        return dir;
+    }
+
+    /**
+     * @return the PDF file of the invoice, without creating its directory
+     */
+    public Path resolvePdfFile(Invoice invoice) {
+        return resolveDirectory(invoice).resolve(invoice.getFileName() + ".pdf");
+    }
+
+    /**
+     * Keeps the letters, digits, "-" and "_" of a value, so it is a valid directory name (and a valid Alfresco folder
+     * name) on all platforms
+     */
+    protected static String toDirectoryName(String value) {
+        if (value == null || value.isEmpty()) {
+            return UNKNOWN_DIRECTORY;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            sb.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+/**
+ * Where the lines of a record go on the pages of its PDF: the first line at (startX, startY), each line
+ * <code>2 x leading</code> below the previous one (a line is followed by two newLine()), and a new page when the next
+ * line would go below the bottom margin.
+ */
+public class PageLayout {
+
+    /**
+     * U.S. Letter (8.5 x 11 inches, 72 points per inch), Courier 7, the layout of the PDFs since the first version.
+     * The bottom margin is the same as the top one.
+     */
+    public static final PageLayout DEFAULT = new PageLayout(612, 792, 7, 4, 20, 750, 42);
+
+    protected final float pageWidth;
+
+    protected final float pageHeight;
+
+    protected final float fontSize;
+
+    protected final float leading;
+
+    protected final float startX;
+
+    protected final float startY;
+
+    protected final float bottomMargin;
+
+    protected final int linesPerPage;
+
+    public PageLayout(float pageWidth, float pageHeight, float fontSize, float leading, float startX, float startY,
+            float bottomMargin) {
+        if (leading <= 0) {
+            throw new IllegalArgumentException("leading must be positive");
+        }
+        if (startY < bottomMargin || startY > pageHeight - fontSize) {
+            throw new IllegalArgumentException("startY must be between the bottom margin and the top of the page");
+        }
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.fontSize = fontSize;
+        this.leading = leading;
+        this.startX = startX;
+        this.startY = startY;
+        this.bottomMargin = bottomMargin;
+        linesPerPage = 1 + (int) ((startY - bottomMargin) / getLineHeight());
+    }
+
+    /**
+     * @return the distance between the baselines of two lines
+     */
+    public float getLineHeight() {
+        return 2 * leading;
+    }
+
+    public int getLinesPerPage() {
+        return linesPerPage;
+    }
+
+    /**
+     * @return the number of pages for <code>lineCount</code> lines, at least 1 (a record without line still has a
+     *         blank page)
+     */
+    public int getPageCount(int lineCount) {
+        return Math.max(1, (lineCount + linesPerPage - 1) / linesPerPage);
+    }
+
+    public float getPageWidth() {
+        return pageWidth;
+    }
+
+    public float getPageHeight() {
+        return pageHeight;
+    }
+
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    public float getLeading() {
+        return leading;
+    }
+
+    public float getStartX() {
+        return startX;
+    }
+
+    public float getStartY() {
+        return startY;
+    }
+
+    public float getBottomMargin() {
+        return bottomMargin;
+    }
+
+}
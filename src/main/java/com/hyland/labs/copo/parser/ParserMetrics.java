@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
+
+/**
+ * Counters and per-stage latencies of one run, or of all the files of a batch: the readers and the workers record
+ * into the same instance, so it is thread safe and lock free ({@link LongAdder}s and {@link LatencyHistogram}s).
+ * <p>
+ * The stages of a record are:
+ * <ul>
+ * <li>framing: finding the record in the file (with the mapped reader, without the extraction)</li>
+ * <li>extraction: finding the header values of the record (mapped reader only, the lines reader matches them while
+ * framing)</li>
+ * <li>buildPdf: rendering the PDF, and writing it to its file</li>
+ * <li>metadataWrite: writing the metadata file or manifest line (with archives: copying the PDF and the metadata to
+ * the archive, with an upload: queuing the PDF and the metadata, waiting when too many requests are in flight)</li>
+ * </ul>
+ * The records in flight are the ones read but not handled yet: queued for the workers, or being handled. A number close
+ * to the queue capacity means the reader waits for the workers.
+ * <p>
+ * Instrumentation is off unless an instance is set, see {@link COPOParser#setMetrics(ParserMetrics)}.
+ */
+public class ParserMetrics implements ParserMetricsMXBean {
+
+    public enum Stage {
+
+        FRAMING("framing"), EXTRACTION("extraction"), PDF("buildPdf"), METADATA("metadataWrite");
+
+        final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static final String DEFAULT_MBEAN_NAME = "com.hyland.labs.copo:type=ParserMetrics";
+
+    final LongAdder recordCount = new LongAdder();
+
+    final LongAdder byteCount = new LongAdder();
+
+    final LongAdder handledRecordCount = new LongAdder();
+
+    final LongAdder invoiceCount = new LongAdder();
+
+    final LongAdder upToDateInvoiceCount = new LongAdder();
+
+    final LongAdder malformedRecordCount = new LongAdder();
+
+    final LongAdder failedRecordCount = new LongAdder();
+
+    final LongAdder duplicateInvoiceCount = new LongAdder();
+
+    final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+
+    final long startNanos = System.nanoTime();
+
+    // Set by stop(), 0 while running
+    volatile long stopNanos = 0;
+
+    public ParserMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * A record was framed. <code>bytes</code> is its size in the file, 0 if unknown.
+     */
+    public void recordFramed(long bytes) {
+        recordCount.increment();
+        if (bytes > 0) {
+            byteCount.add(bytes);
+        }
+    }
+
+    public void recordLatency(Stage stage, long nanos) {
+        latencies[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * A record was handled by a worker, whatever the outcome.
+     */
+    public void recordHandled() {
+        handledRecordCount.increment();
+    }
+
+    public void invoiceGenerated() {
+        invoiceCount.increment();
+    }
+
+    public void invoiceUpToDate() {
+        upToDateInvoiceCount.increment();
+    }
+
+    public void malformedRecord() {
+        malformedRecordCount.increment();
+    }
+
+    /**
+     * A record was framed, but its invoice could not be generated (and it was passed to the malformed record handler,
+     * so it is also counted in the malformed records).
+     */
+    public void failedRecord() {
+        failedRecordCount.increment();
+    }
+
+    /**
+     * A record had the invoice number of a previous one, see {@link COPOParser#setDuplicatePolicy(String)}
+     */
+    public void duplicateInvoice() {
+        duplicateInvoiceCount.increment();
+    }
+
+    /**
+     * Freezes the elapsed time, and so the rates. The counters still count.
+     */
+    public void stop() {
+        if (stopNanos == 0) {
+            stopNanos = System.nanoTime();
+        }
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    @Override
+    public long getRecordCount() {
+        return recordCount.sum();
+    }
+
+    @Override
+    public long getByteCount() {
+        return byteCount.sum();
+    }
+
+    @Override
+    public long getInvoiceCount() {
+        return invoiceCount.sum();
+    }
+
+    @Override
+    public long getUpToDateInvoiceCount() {
+        return upToDateInvoiceCount.sum();
+    }
+
+    @Override
+    public long getMalformedRecordCount() {
+        return malformedRecordCount.sum();
+    }
+
+    @Override
+    public long getFailedRecordCount() {
+        return failedRecordCount.sum();
+    }
+
+    @Override
+    public long getDuplicateInvoiceCount() {
+        return duplicateInvoiceCount.sum();
+    }
+
+    @Override
+    public long getInFlightRecordCount() {
+        // Not an atomic snapshot: handled first, so it is never negative
+        long handled = handledRecordCount.sum();
+        return Math.max(0, recordCount.sum() - handled);
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        long end = stopNanos == 0 ? System.nanoTime() : stopNanos;
+        return (end - startNanos) / 1e9;
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? getRecordCount() / seconds : 0;
+    }
+
+    @Override
+    public double getMegaBytesPerSecond() {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? getByteCount() / (1024.0 * 1024.0) / seconds : 0;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            means.put(stage.getName(), getLatency(stage).getMeanNanos() / 1e3);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros() {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            percentiles.put(stage.getName(), getLatency(stage).getPercentileNanos(99) / 1e3);
+        }
+        return percentiles;
+    }
+
+    @Override
+    public String getReport() {
+        return toJson().toString();
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        double seconds = getElapsedSeconds();
+        json.put("seconds", seconds);
+        json.put("records", getRecordCount());
+        json.put("bytes", getByteCount());
+        json.put("recordsPerSecond", getRecordsPerSecond());
+        json.put("megaBytesPerSecond", getMegaBytesPerSecond());
+        json.put("invoices", getInvoiceCount());
+        json.put("upToDate", getUpToDateInvoiceCount());
+        json.put("malformed", getMalformedRecordCount());
+        json.put("failed", getFailedRecordCount());
+        json.put("duplicates", getDuplicateInvoiceCount());
+        json.put("inFlight", getInFlightRecordCount());
+        JSONObject stages = new JSONObject();
+        for (Stage stage : Stage.values()) {
+            stages.put(stage.getName(), getLatency(stage).toJson());
+        }
+        json.put("stages", stages);
+        return json;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, with the name <code>objectName</code>, for example
+     * {@link #DEFAULT_MBEAN_NAME}.
+     */
+    public ObjectName registerMBean(String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    public static void unregisterMBean(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.Map;
+
+/**
+ * What {@link ParserMetrics} exposes with JMX (see {@link ParserMetrics#registerMBean(String)}), for jconsole,
+ * VisualVM or a JMX exporter.
+ */
+public interface ParserMetricsMXBean {
+
+    long getRecordCount();
+
+    long getByteCount();
+
+    long getInvoiceCount();
+
+    long getUpToDateInvoiceCount();
+
+    long getMalformedRecordCount();
+
+    long getFailedRecordCount();
+
+    long getDuplicateInvoiceCount();
+
+    long getInFlightRecordCount();
+
+    double getElapsedSeconds();
+
+    double getRecordsPerSecond();
+
+    double getMegaBytesPerSecond();
+
+    /**
+     * @return the mean latency of each stage, keyed by {@link ParserMetrics.Stage#getName()}
+     */
+    Map<String, Double> getMeanMicros();
+
+    /**
+     * @return the 99th percentile of the latency of each stage, keyed by {@link ParserMetrics.Stage#getName()}
+     */
+    Map<String, Double> getP99Micros();
+
+    /**
+     * @return {@link ParserMetrics#toJson()}, as a string
+     */
+    String getReport();
+
+}
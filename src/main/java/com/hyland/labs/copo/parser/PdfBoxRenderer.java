@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+
+/**
+ * Builds the PDF with PDFBox. The font and the page size are created once per renderer instead of once per invoice.
+ * <p>
+ * The content stream of each page is closed as soon as the page is full, but PDFBox keeps the whole document in memory
+ * until it is saved: for records with many pages, {@link TemplatePdfRenderer} only buffers one page.
+ */
+public class PdfBoxRenderer implements PdfRenderer {
+
+    final PageLayout layout;
+
+    // WARNING: this is for PDFBox 3. With PDFBox v2.n, use PDType1Font.COURIER
+    final PDType1Font courier = new PDType1Font(Standard14Fonts.FontName.COURIER);
+
+    final PDRectangle pageSize;
+
+    public PdfBoxRenderer() {
+        this(PageLayout.DEFAULT);
+    }
+
+    public PdfBoxRenderer(PageLayout layout) {
+        this.layout = layout;
+        pageSize = new PDRectangle(layout.getPageWidth(), layout.getPageHeight());
+    }
+
+    @Override
+    public void render(RecordText text, int removeFirstNChars, OutputStream out) throws IOException {
+
+        try (PDDocument document = new PDDocument()) {
+            int lineCount = text.getLineCount();
+            int line = 0;
+            do {
+                PDPage page = new PDPage(pageSize);
+                document.addPage(page);
+
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.beginText();
+                    contentStream.setFont(courier, layout.getFontSize());
+                    contentStream.setLeading(layout.getLeading());
+                    contentStream.newLineAtOffset(layout.getStartX(), layout.getStartY());
+
+                    int pageEnd = Math.min(lineCount, line + layout.getLinesPerPage());
+                    for (; line < pageEnd; line++) {
+                        contentStream.showText(text.getLine(line, removeFirstNChars));
+                        contentStream.newLine();
+                        contentStream.newLine();
+                    }
+                    contentStream.endText();
+                }
+            } while (line < lineCount);
+
+            // PDDocument#save closes the stream
+            document.save(new CloseShieldOutputStream(out));
+        }
+    }
+
+}
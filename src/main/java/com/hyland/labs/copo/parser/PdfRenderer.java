@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Renders the text of a record as a PDF: one line of text per line of the record, as many pages as needed (see
+ * {@link PageLayout}).
+ * <p>
+ * An instance keeps its resources (font, buffers) from one document to the next, so it is not thread safe: use one
+ * renderer per worker thread.
+ */
+public interface PdfRenderer {
+
+    /**
+     * Writes the PDF to <code>out</code>, which is not closed.
+     *
+     * @param removeFirstNChars number of characters removed at the start of each line
+     */
+    void render(RecordText text, int removeFirstNChars, OutputStream out) throws IOException;
+
+    /**
+     * @param type "pdfbox" ({@link PdfBoxRenderer}) or "fast" ({@link TemplatePdfRenderer})
+     */
+    static PdfRenderer newRenderer(String type) {
+        if ("pdfbox".equals(type)) {
+            return new PdfBoxRenderer();
+        }
+        if ("fast".equals(type)) {
+            return new TemplatePdfRenderer();
+        }
+        throw new IllegalArgumentException("PDF Renderer Type must be either pdfbox or fast (case sensitive).");
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+
+/**
+ * Where an {@link InvoiceGenerator} sends the PDF of each invoice.
+ * <p>
+ * {@link #write} is called concurrently when the records are processed in parallel, in no particular order: the index
+ * passed with each invoice is its position in the CO_PO file.
+ */
+public interface PdfSink {
+
+    /**
+     * @param pdf the bytes of the PDF, in a buffer reused by the calling thread for its next invoice: copy it (see
+     *            {@link OutputBuffer#toByteArray()}) or write it (see {@link OutputBuffer#writeTo}) before
+     *            returning. The checksum of the PDF is {@link Invoice#getPdfChecksum()}.
+     */
+    void write(Invoice invoice, long index, OutputBuffer pdf) throws IOException;
+
+}
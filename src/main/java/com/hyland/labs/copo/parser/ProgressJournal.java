@@ -0,0 +1,261 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact, append-only journal of the progress of a run, so a failed run can be resumed where it stopped instead of
+ * from the start of the CO_PO file.
+ * <p>
+ * The workers complete the records in any order. The journal keeps the <i>watermark</i>: the last record such that it
+ * and all the records before it are done. Every <code>interval</code> records, and when the journal is closed, the
+ * watermark is appended and forced to the disk as a checkpoint of {@value #ENTRY_SIZE} bytes:
+ * <ul>
+ * <li>the offset in the CO_PO file right after the watermark record (where to resume)</li>
+ * <li>the index of the watermark record</li>
+ * <li>a running checksum of the PDFs generated up to it, in index order (two runs generating the same PDFs have the
+ * same checksums)</li>
+ * <li>a CRC32 of the entry, so an entry torn by a crash is ignored</li>
+ * </ul>
+ * The journal starts with a header identifying the CO_PO file (size and last modification), a journal is never used to
+ * resume a different file.
+ */
+public class ProgressJournal implements Closeable {
+
+    protected static final long MAGIC = 0x434f504f4a524e31L; // "COPOJRN1"
+
+    public static final int HEADER_SIZE = 24;
+
+    public static final int ENTRY_SIZE = 28;
+
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    /**
+     * A committed position of the run
+     */
+    public static class Checkpoint {
+
+        final long offset;
+
+        final long index;
+
+        final long checksum;
+
+        public Checkpoint(long offset, long index, long checksum) {
+            this.offset = offset;
+            this.index = index;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return the offset in the CO_PO file of the first record not done yet
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the index of the last record done (0 if none)
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public String toString() {
+            return "Checkpoint [offset=" + offset + ", index=" + index + ", checksum=" + Long.toHexString(checksum)
+                    + "]";
+        }
+    }
+
+    final FileChannel channel;
+
+    final int interval;
+
+    final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+
+    final CRC32 crc = new CRC32();
+
+    // Guarded by this
+    long watermarkIndex;
+
+    long watermarkOffset;
+
+    long watermarkChecksum;
+
+    long lastCommittedIndex;
+
+    // Done after the watermark: index => { end offset, checksum }
+    final Map<Long, long[]> pending = new HashMap<>();
+
+    /**
+     * Opens the journal for a run. Without <code>resumeFrom</code>, a new journal replaces the existing one.
+     *
+     * @param resumeFrom the checkpoint the run resumes from, as read by {@link #readLastCheckpoint}, or null
+     */
+    public ProgressJournal(File journalFile, File copoFile, Checkpoint resumeFrom, int interval) throws IOException {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+        this.interval = interval;
+        if (resumeFrom == null) {
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putLong(copoFile.length()).putLong(copoFile.lastModified()).flip();
+            write(header);
+        } else {
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+            // Drop a torn entry at the end, if any
+            long size = channel.size();
+            channel.truncate(size - (size - HEADER_SIZE) % ENTRY_SIZE);
+            channel.position(channel.size());
+            watermarkOffset = resumeFrom.offset;
+            watermarkIndex = resumeFrom.index;
+            watermarkChecksum = resumeFrom.checksum;
+            lastCommittedIndex = resumeFrom.index;
+        }
+    }
+
+    /**
+     * @return the last valid checkpoint of the journal, or null if the journal does not exist or has no checkpoint
+     * @throws IllegalArgumentException if the journal is not one of <code>copoFile</code>, in its current version
+     */
+    public static Checkpoint readLastCheckpoint(File journalFile, File copoFile) throws IOException {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.position() < HEADER_SIZE || header.getLong(0) != MAGIC) {
+                throw new IllegalArgumentException(journalFile + " is not a progress journal");
+            }
+            if (header.getLong(8) != copoFile.length() || header.getLong(16) != copoFile.lastModified()) {
+                throw new IllegalArgumentException(
+                        journalFile + " is the journal of another CO_PO file, or of another version of " + copoFile);
+            }
+            // From the last entry back to the first valid one
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            CRC32 crc = new CRC32();
+            long entryCount = (channel.size() - HEADER_SIZE) / ENTRY_SIZE;
+            for (long i = entryCount - 1; i >= 0; i--) {
+                entry.clear();
+                readFully(channel, entry, HEADER_SIZE + i * ENTRY_SIZE);
+                crc.reset();
+                crc.update(entry.array(), 0, ENTRY_SIZE - 4);
+                if ((int) crc.getValue() == entry.getInt(ENTRY_SIZE - 4)) {
+                    return new Checkpoint(entry.getLong(0), entry.getLong(8), entry.getLong(16));
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Called when the record <code>index</code>, which ends at <code>endOffset</code> in the CO_PO file, is done.
+     *
+     * @param checksum checksum of what was generated for the record
+     */
+    public synchronized void completed(long index, long endOffset, long checksum) throws IOException {
+        if (index != watermarkIndex + 1) {
+            pending.put(index, new long[] { endOffset, checksum });
+            return;
+        }
+        advance(endOffset, checksum);
+        long[] next;
+        while ((next = pending.remove(watermarkIndex + 1)) != null) {
+            advance(next[0], next[1]);
+        }
+        if (watermarkIndex - lastCommittedIndex >= interval) {
+            commit();
+        }
+    }
+
+    protected void advance(long endOffset, long checksum) {
+        watermarkIndex += 1;
+        watermarkOffset = endOffset;
+        watermarkChecksum = watermarkChecksum * 31 + checksum;
+    }
+
+    /**
+     * @return the watermark, not necessarily committed yet
+     */
+    public synchronized Checkpoint getWatermark() {
+        return new Checkpoint(watermarkOffset, watermarkIndex, watermarkChecksum);
+    }
+
+    /**
+     * Appends the watermark and forces it to the disk, if it moved since the last checkpoint
+     */
+    public synchronized void commit() throws IOException {
+        if (watermarkIndex == lastCommittedIndex) {
+            return;
+        }
+        entry.clear();
+        entry.putLong(watermarkOffset).putLong(watermarkIndex).putLong(watermarkChecksum);
+        crc.reset();
+        crc.update(entry.array(), 0, ENTRY_SIZE - 4);
+        entry.putInt((int) crc.getValue()).flip();
+        write(entry);
+        channel.force(false);
+        lastCommittedIndex = watermarkIndex;
+    }
+
+    /**
+     * Commits the watermark and closes the journal
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            channel.close();
+        }
+    }
+
+    protected void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    protected static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+    }
+
+}
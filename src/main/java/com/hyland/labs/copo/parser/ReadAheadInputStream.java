@@ -0,0 +1,202 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream from its own thread, a few large buffers ahead of the reader: with a decompressing stream, the
+ * file is inflated while the previous buffers are parsed, instead of in turn.
+ * <p>
+ * The buffers are recycled: <code>bufferCount</code> + 2 of them at most, whatever the size of the stream. An error
+ * of the other stream is thrown to the reader once it reached the bytes read before it.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    protected static class Chunk {
+
+        final byte[] bytes;
+
+        int length;
+
+        // Last chunk: end of the stream, or the error reading it
+        boolean last;
+
+        IOException error;
+
+        Chunk(int size) {
+            bytes = new byte[size];
+        }
+    }
+
+    final InputStream in;
+
+    final int bufferSize;
+
+    final int bufferCount;
+
+    // Filled by the read-ahead thread
+    final BlockingQueue<Chunk> filled;
+
+    // Given back by the reader
+    final BlockingQueue<Chunk> free;
+
+    final Thread thread;
+
+    Chunk current;
+
+    int currentPosition;
+
+    volatile boolean closed = false;
+
+    public ReadAheadInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, "copo-read-ahead");
+    }
+
+    /**
+     * @param bufferCount number of buffers read ahead
+     */
+    public ReadAheadInputStream(InputStream in, int bufferSize, int bufferCount, String threadName) {
+        if (bufferSize < 1 || bufferCount < 1) {
+            throw new IllegalArgumentException("bufferSize and bufferCount must be at least 1");
+        }
+        this.in = in;
+        this.bufferSize = bufferSize;
+        this.bufferCount = bufferCount;
+        filled = new ArrayBlockingQueue<>(bufferCount);
+        free = new ArrayBlockingQueue<>(bufferCount + 2);
+        thread = new Thread(this::readAhead, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    protected void readAhead() {
+        try {
+            while (!closed) {
+                Chunk chunk = free.poll();
+                if (chunk == null) {
+                    chunk = new Chunk(bufferSize);
+                }
+                chunk.length = 0;
+                try {
+                    // Full buffers: a decompressing stream returns a few KB per read
+                    while (chunk.length < bufferSize) {
+                        int n = in.read(chunk.bytes, chunk.length, bufferSize - chunk.length);
+                        if (n < 0) {
+                            chunk.last = true;
+                            break;
+                        }
+                        chunk.length += n;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    chunk.last = true;
+                    chunk.error = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                filled.put(chunk);
+                if (chunk.last) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * @return the current chunk with bytes left to read, or null at the end of the stream
+     */
+    protected Chunk current() throws IOException {
+        while (current == null || currentPosition == current.length) {
+            if (current != null) {
+                if (current.last) {
+                    if (current.error != null) {
+                        throw current.error;
+                    }
+                    return null;
+                }
+                free.offer(current);
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the read-ahead thread");
+            }
+            currentPosition = 0;
+        }
+        return current;
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = current();
+        if (chunk == null) {
+            return -1;
+        }
+        return chunk.bytes[currentPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        Chunk chunk = current();
+        if (chunk == null) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - currentPosition);
+        System.arraycopy(chunk.bytes, currentPosition, b, off, n);
+        currentPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - currentPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            in.close();
+        }
+    }
+
+}
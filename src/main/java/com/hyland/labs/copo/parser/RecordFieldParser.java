@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.List;
+
+/**
+ * Finds the header values of a record with a list of {@link FieldExtractor}s, by default the ones of the CO_PO layout
+ * (see {@link COPOFieldExtractors#DEFAULT}).
+ * <p>
+ * Extractors are looked for in order, each one starting at the line after the ones used by the previous extractor, and
+ * the parsing stops as soon as the last one is found: the detail lines are not even read.
+ * <p>
+ * Not thread safe, each reader has its own instance.
+ */
+public class RecordFieldParser {
+
+    FieldExtractor[] extractors;
+
+    LineScanner scanner = new LineScanner();
+
+    public RecordFieldParser() {
+        this(COPOFieldExtractors.DEFAULT);
+    }
+
+    public RecordFieldParser(List<FieldExtractor> extractors) {
+        this.extractors = extractors.toArray(new FieldExtractor[0]);
+    }
+
+    /**
+     * @throws RuntimeException if a required line is missing
+     */
+    public void parse(RecordText text, RecordFields fields) {
+
+        fields.clear();
+        int lineCount = text.getLineCount();
+        int line = 0;
+        for (FieldExtractor extractor : extractors) {
+            boolean found = false;
+            for (int i = line; i < lineCount; i++) {
+                scanner.reset(text, i);
+                int used = extractor.extract(scanner, fields);
+                if (used > 0) {
+                    line = i + used;
+                    found = true;
+                    break;
+                }
+            }
+            if (!found && extractor.isRequired()) {
+                throw new RuntimeException("No " + extractor.getDescription() + " line in the record");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The values found in the header lines of a record by the {@link FieldExtractor}s. Reused from one record to the next
+ * by a {@link RecordFieldParser}.
+ */
+public class RecordFields {
+
+    String voucher;
+
+    String company;
+
+    String invoiceNumber;
+
+    String invoiceDateStr;
+
+    String invoiceAmountStr;
+
+    String poNumber;
+
+    // Values of additional extractors, created on first use
+    Map<String, String> others;
+
+    public void clear() {
+        voucher = null;
+        company = null;
+        invoiceNumber = null;
+        invoiceDateStr = null;
+        invoiceAmountStr = null;
+        poNumber = null;
+        if (others != null) {
+            others.clear();
+        }
+    }
+
+    public String getVoucher() {
+        return voucher;
+    }
+
+    public void setVoucher(String voucher) {
+        this.voucher = voucher;
+    }
+
+    public String getCompany() {
+        return company;
+    }
+
+    public void setCompany(String company) {
+        this.company = company;
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+
+    public void setInvoiceNumber(String invoiceNumber) {
+        this.invoiceNumber = invoiceNumber;
+    }
+
+    public String getInvoiceDateStr() {
+        return invoiceDateStr;
+    }
+
+    public void setInvoiceDateStr(String invoiceDateStr) {
+        this.invoiceDateStr = invoiceDateStr;
+    }
+
+    public String getInvoiceAmountStr() {
+        return invoiceAmountStr;
+    }
+
+    public void setInvoiceAmountStr(String invoiceAmountStr) {
+        this.invoiceAmountStr = invoiceAmountStr;
+    }
+
+    public String getPoNumber() {
+        return poNumber;
+    }
+
+    public void setPoNumber(String poNumber) {
+        this.poNumber = poNumber;
+    }
+
+    /**
+     * Sets a field by its name: voucher, company, invoiceNumber, invoiceDateStr, invoiceAmountStr, poNumber, or any other
+     * name (see {@link #put}).
+     */
+    public void set(String name, String value) {
+        switch (name) {
+        case "voucher":
+            voucher = value;
+            break;
+        case "company":
+            company = value;
+            break;
+        case "invoiceNumber":
+            invoiceNumber = value;
+            break;
+        case "invoiceDateStr":
+            invoiceDateStr = value;
+            break;
+        case "invoiceAmountStr":
+            invoiceAmountStr = value;
+            break;
+        case "poNumber":
+            poNumber = value;
+            break;
+        default:
+            put(name, value);
+        }
+    }
+
+    /**
+     * Stores the value of a field that is not part of the standard CO_PO header.
+     */
+    public void put(String name, String value) {
+        if (others == null) {
+            others = new HashMap<>();
+        }
+        others.put(name, value);
+    }
+
+    public String get(String name) {
+        return others == null ? null : others.get(name);
+    }
+
+    /**
+     * @return a copy of the values stored with {@link #put}
+     */
+    public Map<String, String> copyOthers() {
+        if (others == null || others.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new HashMap<>(others));
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads records on the calling thread and hands them to <code>workerCount</code> workers through a bounded queue.
+ * <p>
+ * The queue is the back-pressure: when the workers (PDF rendering, metadata writing) are slower than the reader, the
+ * reader blocks, so the number of records in memory never exceeds <code>queueCapacity + workerCount</code>.
+ * <p>
+ * The first error, either from the reader or from a worker, stops the pipeline and is rethrown by {@link #run}.
+ */
+public class RecordPipeline {
+
+    /**
+     * What the workers do with each record.
+     */
+    public interface RecordHandler {
+        void handle(COPORecord record) throws IOException;
+    }
+
+    // Tells a worker there is nothing more to read
+    protected static final COPORecord END_OF_INPUT = new COPORecord(-1, null, null, null, null, null, null, null);
+
+    protected static final long OFFER_TIMEOUT_MS = 100;
+
+    int workerCount;
+
+    int queueCapacity;
+
+    public RecordPipeline(int workerCount) {
+        this(workerCount, workerCount * 4);
+    }
+
+    public RecordPipeline(int workerCount, int queueCapacity) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the number of records read
+     */
+    public long run(RecordReader reader, RecordHandler handler) throws IOException {
+
+        BlockingQueue<COPORecord> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount, newThreadFactory());
+
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(() -> {
+                try {
+                    while (failure.get() == null) {
+                        COPORecord record = queue.poll(OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                        if (record == END_OF_INPUT) {
+                            break;
+                        }
+                        if (record != null) {
+                            handler.handle(record);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+        }
+
+        long recordCount = 0;
+        try {
+            COPORecord record;
+            while (failure.get() == null && (record = reader.next()) != null) {
+                put(queue, record, failure);
+                recordCount += 1;
+            }
+            for (int i = 0; i < workerCount; i++) {
+                put(queue, END_OF_INPUT, failure);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            workers.shutdown();
+            try {
+                while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // Workers exit at the end-of-input marker, or on failure
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                workers.shutdownNow();
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        rethrow(failure.get());
+        return recordCount;
+    }
+
+    protected void put(BlockingQueue<COPORecord> queue, COPORecord record, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        // Not a plain put(): if all the workers died, nobody would ever make room in the queue
+        while (failure.get() == null) {
+            if (queue.offer(record, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    protected static void rethrow(Throwable t) throws IOException {
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+    protected static ThreadFactory newThreadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "copo-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+}
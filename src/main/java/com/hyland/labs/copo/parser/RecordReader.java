@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Frames a CO_PO input into {@link COPORecord}s, in file order.
+ * <p>
+ * A reader is used by a single thread.
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * @return the next record, or null when the input is exhausted
+     */
+    COPORecord next() throws IOException;
+
+    /**
+     * When true, the reader may reuse the {@link RecordText} of a record for the next one, so framing allocates almost
+     * nothing. Only for callers that are done with a record before reading the next one (not when records are queued to
+     * other threads).
+     */
+    default void setReuseTextBuffer(boolean reuse) {
+    }
+
+    /**
+     * When set, the reader records each record it frames, and the framing latency. Default is null.
+     */
+    default void setMetrics(ParserMetrics metrics) {
+    }
+
+}
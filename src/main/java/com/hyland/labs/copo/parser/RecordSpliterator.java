@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * The records of a {@link RecordReader}, as a {@link Spliterator}: see {@link COPORecords}.
+ * <p>
+ * The reader frames the records in file order, on the thread consuming the spliterator. For a parallel stream,
+ * {@link #trySplit()} hands batches of records already framed to the other threads (growing batches, see
+ * {@link Spliterators.AbstractSpliterator}): framing stays sequential, what is done with the records runs in
+ * parallel. The text buffer of the reader is never reused, so a record stays valid after the next one is read.
+ * <p>
+ * An {@link IOException} of the reader is thrown as an {@link UncheckedIOException}.
+ */
+public class RecordSpliterator extends Spliterators.AbstractSpliterator<COPORecord> {
+
+    final RecordReader reader;
+
+    public RecordSpliterator(RecordReader reader) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+        this.reader = reader;
+        reader.setReuseTextBuffer(false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super COPORecord> action) {
+        COPORecord record;
+        try {
+            record = reader.next();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (record == null) {
+            return false;
+        }
+        action.accept(record);
+        return true;
+    }
+
+}
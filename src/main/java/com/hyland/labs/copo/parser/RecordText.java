@@ -0,0 +1,235 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The lines of a record: UTF-8 bytes plus the offsets of each line, so the PDF writer gets the lines without any
+ * concatenation or split.
+ * <p>
+ * The bytes are either a view of the memory-mapped input (see {@link #setData}) or the own growable buffer of the
+ * instance, filled by {@link #appendLine}. Either way, an instance can be cleared and reused for the next record: once
+ * the arrays are large enough for the longest record, framing a record allocates nothing.
+ * <p>
+ * Not thread safe.
+ */
+public class RecordText {
+
+    protected static final int INITIAL_LINE_CAPACITY = 64;
+
+    public static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    public static final long FNV_PRIME = 0x100000001b3L;
+
+    ByteBuffer data;
+
+    // data.get(base + i) is the byte i of the text
+    int base;
+
+    // Only used when the bytes are appended
+    byte[] buffer;
+
+    ByteBuffer bufferView;
+
+    int length;
+
+    int[] lineStarts = new int[INITIAL_LINE_CAPACITY];
+
+    // Excluding the end of line
+    int[] lineEnds = new int[INITIAL_LINE_CAPACITY];
+
+    int lineCount;
+
+    byte[] scratch;
+
+    /**
+     * @return a new instance with the lines of <code>text</code>, separated by "\n" (a trailing "\n" does not add an
+     *         empty line)
+     */
+    public static RecordText of(String text) {
+        RecordText result = new RecordText();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) > -1) {
+            result.appendLine(text, start, end);
+            start = end + 1;
+        }
+        if (start < text.length()) {
+            result.appendLine(text, start, text.length());
+        }
+        return result;
+    }
+
+    public void clear() {
+        data = null;
+        base = 0;
+        length = 0;
+        lineCount = 0;
+    }
+
+    /**
+     * Uses <code>length</code> bytes of <code>data</code>, starting at <code>base</code>, as the text. The lines are then
+     * declared with {@link #addLine}.
+     */
+    public void setData(ByteBuffer data, int base, int length) {
+        this.data = data;
+        this.base = base;
+        this.length = length;
+    }
+
+    /**
+     * Declares a line of the bytes set with {@link #setData}.
+     *
+     * @param start offset of the first byte of the line in the text
+     * @param end offset of the end of the line in the text (so "\r\n" excluded)
+     */
+    public void addLine(int start, int end) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+        }
+        lineStarts[lineCount] = start;
+        lineEnds[lineCount] = end;
+        lineCount += 1;
+    }
+
+    public void appendLine(CharSequence line) {
+        appendLine(line, 0, line.length());
+    }
+
+    /**
+     * Encodes the chars in UTF-8 at the end of the own buffer of this instance, and adds them as a new line.
+     */
+    public void appendLine(CharSequence chars, int from, int to) {
+        if (buffer == null) {
+            buffer = new byte[1024];
+            bufferView = ByteBuffer.wrap(buffer);
+        }
+        data = bufferView;
+        // At most 3 bytes per char (a surrogate pair is 2 chars for 4 bytes)
+        ensureCapacity(length + (to - from) * 3);
+        int start = length;
+        length = OutputBuffer.encodeUtf8(chars, from, to, buffer, length);
+        addLine(start, length);
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            bufferView = ByteBuffer.wrap(buffer);
+            data = bufferView;
+        }
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @param skipChars number of characters removed at the start of the line (the carriage control columns of the
+     *            CO_PO file). A line shorter than that gives an empty string
+     */
+    public String getLine(int line, int skipChars) {
+        return decode(line, skipChars(line, skipChars), getLineLength(line));
+    }
+
+    /**
+     * @return the offset in the line, in bytes, of the character <code>chars</code> (the line length if the line is
+     *         shorter)
+     */
+    public int skipChars(int line, int chars) {
+        int length = getLineLength(line);
+        int from = 0;
+        // Skip characters, not bytes: continuation bytes (10xxxxxx) do not start a character
+        for (int skipped = 0; skipped < chars && from < length; skipped++) {
+            from += 1;
+            while (from < length && (byteAt(line, from) & 0xC0) == 0x80) {
+                from += 1;
+            }
+        }
+        return from;
+    }
+
+    public String getLine(int line) {
+        return getLine(line, 0);
+    }
+
+    /**
+     * @return the length of the line, in bytes
+     */
+    public int getLineLength(int line) {
+        return lineEnds[line] - lineStarts[line];
+    }
+
+    /**
+     * @return the byte at <code>index</code> in the line
+     */
+    public byte byteAt(int line, int index) {
+        return data.get(base + lineStarts[line] + index);
+    }
+
+    /**
+     * @return the bytes <code>[from, to)</code> of the line, decoded
+     */
+    public String decode(int line, int from, int to) {
+        int start = base + lineStarts[line] + from;
+        int length = to - from;
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[Math.max(length, 256)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = data.get(start + i);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a 64-bit FNV-1a hash of the lines, each one followed by "\n", continuing from <code>hash</code>
+     */
+    public long hash(long hash) {
+        for (int line = 0; line < lineCount; line++) {
+            int start = base + lineStarts[line];
+            int end = base + lineEnds[line];
+            for (int i = start; i < end; i++) {
+                hash = (hash ^ (data.get(i) & 0xFF)) * FNV_PRIME;
+            }
+            hash = (hash ^ '\n') * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the lines, each one followed by "\n"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length + lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            sb.append(getLine(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+}
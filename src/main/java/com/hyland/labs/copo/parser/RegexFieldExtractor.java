@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link FieldExtractor} matching a whole line with a regular expression, each group giving the value of a field (see
+ * {@link RecordFields#set}). Handy to support a new header line without writing a dedicated extractor, but it decodes
+ * every line it is tried on.
+ */
+public class RegexFieldExtractor implements FieldExtractor {
+
+    Pattern pattern;
+
+    String description;
+
+    String[] fieldNames;
+
+    boolean required = true;
+
+    /**
+     * @param fieldNames the name of the field of each group of the pattern
+     */
+    public RegexFieldExtractor(Pattern pattern, String description, String... fieldNames) {
+        this.pattern = pattern;
+        this.description = description;
+        this.fieldNames = fieldNames;
+    }
+
+    public RegexFieldExtractor optional() {
+        required = false;
+        return this;
+    }
+
+    @Override
+    public int extract(LineScanner line, RecordFields fields) {
+        Matcher m = pattern.matcher(line.decode(0, line.getLength()));
+        if (!m.matches()) {
+            return 0;
+        }
+        for (int i = 0; i < fieldNames.length; i++) {
+            fields.set(fieldNames[i], m.group(i + 1));
+        }
+        return 1;
+    }
+
+    @Override
+    public boolean isRequired() {
+        return required;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+}
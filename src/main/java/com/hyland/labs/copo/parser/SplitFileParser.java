@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.hyland.labs.copo.parser.RecordPipeline.RecordHandler;
+
+/**
+ * Parses one CO_PO file with several threads, each one framing and handling the records of its own byte range.
+ * <p>
+ * The file is cut in <code>rangeCount</code> ranges of the same size, each one realigned to the next record start
+ * (see {@link MappedRecordReader#alignToRecordStart(long)}). To give each record the same index as a sequential run,
+ * a first pass counts the records of each range (it only looks at the start of the lines, which is much cheaper than
+ * framing). The ranges are then processed in a {@link ForkJoinPool}.
+ * <p>
+ * The handler is called concurrently, in no particular order.
+ */
+public class SplitFileParser {
+
+    File copoFile;
+
+    int rangeCount;
+
+    int parallelism;
+
+    List<FieldExtractor> fieldExtractors = COPOFieldExtractors.DEFAULT;
+
+    MalformedRecordHandler malformedRecordHandler;
+
+    ParserMetrics metrics;
+
+    public SplitFileParser(File copoFile, int rangeCount, int parallelism) {
+        if (rangeCount < 1) {
+            throw new IllegalArgumentException("rangeCount must be at least 1");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.copoFile = copoFile;
+        this.rangeCount = rangeCount;
+        this.parallelism = parallelism;
+    }
+
+    public void setFieldExtractors(List<FieldExtractor> fieldExtractors) {
+        this.fieldExtractors = fieldExtractors;
+    }
+
+    /**
+     * See {@link MappedRecordReader#setMalformedRecordHandler(MalformedRecordHandler)}
+     */
+    public void setMalformedRecordHandler(MalformedRecordHandler malformedRecordHandler) {
+        this.malformedRecordHandler = malformedRecordHandler;
+    }
+
+    /**
+     * See {@link RecordReader#setMetrics(ParserMetrics)}. The first pass, counting the records, is not recorded.
+     */
+    public void setMetrics(ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of records handled (without the malformed ones, when there is a malformed record handler)
+     */
+    public long run(RecordHandler handler) throws IOException {
+
+        long[] bounds = computeRanges();
+        int count = bounds.length - 1;
+        long[] firstIndexes = new long[count];
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // Pass 1: count the records of each range
+            long[] recordCounts = new long[count];
+            invokeAll(pool, count, i -> {
+                try (MappedRecordReader reader = new MappedRecordReader(copoFile, bounds[i], bounds[i + 1], 1)) {
+                    recordCounts[i] = reader.countRecords();
+                }
+            });
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                firstIndexes[i] = total + 1;
+                total += recordCounts[i];
+            }
+
+            // Pass 2: frame and handle
+            long[] handledCounts = new long[count];
+            invokeAll(pool, count, i -> {
+                try (MappedRecordReader reader = new MappedRecordReader(copoFile, bounds[i], bounds[i + 1],
+                        firstIndexes[i])) {
+                    // Records are handled on the thread framing them
+                    reader.setReuseTextBuffer(true);
+                    reader.setFieldExtractors(fieldExtractors);
+                    reader.setMalformedRecordHandler(malformedRecordHandler);
+                    reader.setMetrics(metrics);
+                    COPORecord record;
+                    while ((record = reader.next()) != null) {
+                        handler.handle(record);
+                        handledCounts[i] += 1;
+                    }
+                }
+            });
+            long handled = 0;
+            for (long handledCount : handledCounts) {
+                handled += handledCount;
+            }
+            return handled;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the <code>n + 1</code> boundaries of the n non-empty ranges, each one a record start (or the file size)
+     */
+    protected long[] computeRanges() throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        try (MappedRecordReader reader = new MappedRecordReader(copoFile)) {
+            long fileSize = reader.getRangeEnd();
+            bounds.add(0L);
+            for (int i = 1; i < rangeCount; i++) {
+                long bound = reader.alignToRecordStart(fileSize / rangeCount * i);
+                if (bound > bounds.get(bounds.size() - 1) && bound < fileSize) {
+                    bounds.add(bound);
+                }
+            }
+            bounds.add(fileSize);
+        }
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    protected interface RangeTask {
+        void run(int rangeIndex) throws IOException;
+    }
+
+    protected static void invokeAll(ForkJoinPool pool, int count, RangeTask task) throws IOException {
+        // ForkJoinTask may rethrow a copy of an exception thrown in another thread, let's keep the original
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<RecursiveAction> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int rangeIndex = i;
+            actions.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    if (failure.get() != null) {
+                        return;
+                    }
+                    try {
+                        task.run(rangeIndex);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        try {
+            pool.submit(() -> ForkJoinTask.invokeAll(actions)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        }
+        RecordPipeline.rethrow(failure.get());
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames the records of a stream, a decompressed file for example (see {@link CompressedInput}), the way a
+ * {@link MappedRecordReader} frames the ones of a file: the windows are heap buffers filled from the stream instead of
+ * mappings. A new window starts with the bytes of the record that did not fit in the previous one, which is left to the
+ * records framed in it.
+ * <p>
+ * The offsets and lengths of the records are the ones in the stream. The stream is only read forward, so this reader
+ * cannot be used to split the input.
+ */
+public class StreamRecordReader extends MappedRecordReader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    final InputStream in;
+
+    // Offset in the stream of the next byte to read
+    long streamPosition = 0;
+
+    /**
+     * <code>in</code> is closed with the reader
+     */
+    public StreamRecordReader(InputStream in) {
+        this(in, DEFAULT_WINDOW_SIZE);
+    }
+
+    public StreamRecordReader(InputStream in, int windowSize) {
+        super(windowSize);
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.in = in;
+    }
+
+    /**
+     * Frames only the records starting in <code>[rangeStart, rangeEnd)</code>: the bytes before
+     * <code>rangeStart</code> are read and ignored. Unlike {@link MappedRecordReader}, both offsets must be record
+     * starts (or the end of the stream), like the offsets of a {@link ProgressJournal}.
+     *
+     * @param firstIndex the index of the first record of the range in the whole stream
+     */
+    public StreamRecordReader(InputStream in, long rangeStart, long rangeEnd, long firstIndex) {
+        this(in, DEFAULT_WINDOW_SIZE);
+        position = rangeStart;
+        this.rangeEnd = rangeEnd;
+        invoiceCount = firstIndex - 1;
+    }
+
+    @Override
+    public COPORecord next() throws IOException {
+        if (position < rangeEnd && (window == null || position >= windowStart + windowLength)) {
+            // The end of the stream is known once read
+            map(position, chunkSize);
+        }
+        return super.next();
+    }
+
+    /**
+     * Reads the window <code>[start, start + size)</code>, keeping the bytes of the current window from
+     * <code>start</code>. A stream is only read forward.
+     */
+    @Override
+    protected void map(long start, long size) throws IOException {
+        if (start < (window == null ? streamPosition : windowStart)) {
+            throw new IllegalStateException("Offset " + start + " was already read, a stream is only read forward");
+        }
+        skipTo(start);
+        byte[] bytes = new byte[(int) Math.min(size, Integer.MAX_VALUE)];
+        int length = 0;
+        if (window != null && start < streamPosition) {
+            // The beginning of the new window is at the end of the current one
+            length = (int) (streamPosition - start);
+            ByteBuffer kept = window.duplicate();
+            kept.position((int) (start - windowStart));
+            kept.get(bytes, 0, length);
+        }
+        while (length < bytes.length) {
+            int n = in.read(bytes, length, bytes.length - length);
+            if (n < 0) {
+                fileSize = start + length;
+                rangeEnd = Math.min(rangeEnd, fileSize);
+                break;
+            }
+            length += n;
+            streamPosition += n;
+        }
+        windowStart = start;
+        windowLength = length;
+        window = ByteBuffer.wrap(bytes);
+        // Never written once read: the text of the records is decoded from the array
+        readOnlyWindow = window;
+    }
+
+    /**
+     * Reads and ignores the bytes before <code>offset</code>, if it is after the bytes read
+     */
+    protected void skipTo(long offset) throws IOException {
+        if (offset <= streamPosition) {
+            return;
+        }
+        byte[] skipped = new byte[(int) Math.min(offset - streamPosition, 64 * 1024)];
+        while (streamPosition < offset) {
+            int n = in.read(skipped, 0, (int) Math.min(skipped.length, offset - streamPosition));
+            if (n < 0) {
+                throw new EOFException("End of the stream at offset " + streamPosition + ", before " + offset);
+            }
+            streamPosition += n;
+        }
+    }
+
+    /**
+     * Same as {@link MappedRecordReader#endOfLineAt(long)}, but a window crossed by the line starts at
+     * <code>offset</code>, since the stream cannot go back.
+     */
+    @Override
+    protected long endOfLineAt(long offset) throws IOException {
+        ensureMapped(offset, 1);
+        while (true) {
+            int end = endOfLine((int) (offset - windowStart));
+            if (end < windowLength || windowStart + windowLength >= fileSize) {
+                return windowStart + end;
+            }
+            map(offset, Math.max(chunkSize, 2L * (windowStart + windowLength - offset)));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
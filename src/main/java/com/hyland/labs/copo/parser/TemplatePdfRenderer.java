@@ -0,0 +1,341 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the PDF directly, without PDFBox: the layout is fixed (Courier, one text object per page), so everything but
+ * the text and a few numbers is a precomputed template.
+ * <p>
+ * The pages are written as they are filled: only the content of the current page is buffered, whatever the number of
+ * lines of the record. The page tree, which lists the pages, is written after them, then the cross-reference table.
+ * <p>
+ * The text is written as is, uncompressed, in WinAnsiEncoding (the encoding PDFBox uses for the standard Courier font).
+ * Characters with no WinAnsi code are replaced with '?', where PDFBox would throw an exception.
+ */
+public class TemplatePdfRenderer implements PdfRenderer {
+
+    // Object numbers. Then, for each page, its content stream and the page itself
+    protected static final int CATALOG = 1;
+
+    protected static final int PAGES = 2;
+
+    protected static final int FONT = 3;
+
+    protected static final int FIRST_PAGE_OBJECT = 4;
+
+    // Header, catalog and font: the same for every PDF
+    protected static final byte[] HEADER;
+
+    protected static final long[] HEADER_OFFSETS = new long[FIRST_PAGE_OBJECT];
+
+    protected static final byte[] OBJ = latin1(" 0 obj\n");
+
+    protected static final byte[] END_OBJ = latin1("\nendobj\n");
+
+    protected static final byte[] REF = latin1(" 0 R");
+
+    protected static final byte[] STREAM_START = latin1(" >>\nstream\n");
+
+    protected static final byte[] STREAM_END = latin1("\nendstream\nendobj\n");
+
+    // A line is followed by two newLine(), as with PDFBox
+    protected static final byte[] LINE_END = latin1(") Tj\nT*\nT*\n");
+
+    protected static final byte[] TEXT_END = latin1("ET\n");
+
+    protected static final byte[] STREAM_DICTIONARY = latin1("<< /Length ");
+
+    protected static final byte[] PAGES_START = latin1("<< /Type /Pages /Kids [");
+
+    protected static final byte[] COUNT = latin1("] /Count ");
+
+    protected static final byte[] DICTIONARY_END = latin1(" >>");
+
+    protected static final byte[] XREF = latin1("xref\n0 ");
+
+    protected static final byte[] XREF_FREE_HEAD = latin1("\n0000000000 65535 f\r\n");
+
+    protected static final byte[] TRAILER_SIZE = latin1("trailer\n<< /Size ");
+
+    protected static final byte[] TRAILER_ROOT = latin1(" /Root " + CATALOG + " 0 R >>\nstartxref\n");
+
+    protected static final byte[] EOF = latin1("\n%%EOF\n");
+
+    // Unicode value of the WinAnsi codes 0x80-0x9F, 0 when undefined
+    protected static final char[] WIN_ANSI_80_9F = { 0x20AC, 0, 0x201A, 0x0192, 0x201E, 0x2026, 0x2020, 0x2021, 0x02C6,
+            0x2030, 0x0160, 0x2039, 0x0152, 0, 0x017D, 0, 0, 0x2018, 0x2019, 0x201C, 0x201D, 0x2022, 0x2013, 0x2014,
+            0x02DC, 0x2122, 0x0161, 0x203A, 0x0153, 0, 0x017E, 0x0178 };
+
+    static {
+        // The binary comment tells file transfer tools this is not a text file
+        StringBuilder header = new StringBuilder("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+        HEADER_OFFSETS[CATALOG] = header.length();
+        header.append(CATALOG).append(" 0 obj\n<< /Type /Catalog /Pages ").append(PAGES).append(" 0 R >>\nendobj\n");
+        HEADER_OFFSETS[FONT] = header.length();
+        header.append(FONT).append(" 0 obj\n")
+                .append("<< /Type /Font /Subtype /Type1 /BaseFont /Courier /Encoding /WinAnsiEncoding >>\nendobj\n");
+        HEADER = latin1(header.toString());
+    }
+
+    final PageLayout layout;
+
+    final byte[] textStart;
+
+    // The page dictionary, up to the number of its content stream
+    final byte[] pageStart;
+
+    // Content of the current page
+    byte[] content = new byte[8192];
+
+    int contentLength;
+
+    OutputStream out;
+
+    long position;
+
+    // Offset of each object, by object number
+    long[] offsets = new long[64];
+
+    int objectCount;
+
+    byte[] digits = new byte[20];
+
+    // Each entry is exactly 20 bytes: 10 digits offset, generation, "n", EOL
+    byte[] xrefEntry = latin1("0000000000 00000 n\r\n");
+
+    public TemplatePdfRenderer() {
+        this(PageLayout.DEFAULT);
+    }
+
+    public TemplatePdfRenderer(PageLayout layout) {
+        this.layout = layout;
+        textStart = latin1("BT\n/F1 " + format(layout.getFontSize()) + " Tf\n" + format(layout.getLeading()) + " TL\n"
+                + format(layout.getStartX()) + " " + format(layout.getStartY()) + " Td\n");
+        pageStart = latin1("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + format(layout.getPageWidth())
+                + " " + format(layout.getPageHeight()) + "] /Resources << /Font << /F1 " + FONT
+                + " 0 R >> >> /Contents ");
+    }
+
+    @Override
+    public void render(RecordText text, int removeFirstNChars, OutputStream out) throws IOException {
+
+        this.out = out;
+        position = 0;
+        write(HEADER);
+        System.arraycopy(HEADER_OFFSETS, 0, offsets, 0, HEADER_OFFSETS.length);
+        objectCount = FIRST_PAGE_OBJECT;
+
+        int lineCount = text.getLineCount();
+        int linesPerPage = layout.getLinesPerPage();
+        int line = 0;
+        int pageCount = 0;
+        do {
+            contentLength = 0;
+            put(textStart);
+            int pageEnd = Math.min(lineCount, line + linesPerPage);
+            for (; line < pageEnd; line++) {
+                put((byte) '(');
+                putText(text, line, text.skipChars(line, removeFirstNChars));
+                put(LINE_END);
+            }
+            put(TEXT_END);
+            writePage();
+            pageCount += 1;
+        } while (line < lineCount);
+
+        writePages(pageCount);
+        writeXref();
+        this.out = null;
+    }
+
+    /**
+     * Writes the content stream of the current page, then the page
+     */
+    protected void writePage() throws IOException {
+        int contentObject = startObject();
+        write(STREAM_DICTIONARY);
+        writeDecimal(contentLength);
+        write(STREAM_START);
+        write(content, contentLength);
+        write(STREAM_END);
+
+        startObject();
+        write(pageStart);
+        writeDecimal(contentObject);
+        write(REF);
+        write(DICTIONARY_END);
+        write(END_OBJ);
+    }
+
+    /**
+     * Writes the page tree, once all the pages are written
+     */
+    protected void writePages(int pageCount) throws IOException {
+        offsets[PAGES] = position;
+        writeDecimal(PAGES);
+        write(OBJ);
+        write(PAGES_START);
+        for (int i = 0; i < pageCount; i++) {
+            if (i > 0) {
+                write((byte) ' ');
+            }
+            // The page follows its content stream
+            writeDecimal(FIRST_PAGE_OBJECT + 2 * i + 1);
+            write(REF);
+        }
+        write(COUNT);
+        writeDecimal(pageCount);
+        write(DICTIONARY_END);
+        write(END_OBJ);
+    }
+
+    protected void writeXref() throws IOException {
+        long xrefOffset = position;
+        write(XREF);
+        writeDecimal(objectCount);
+        write(XREF_FREE_HEAD);
+        byte[] entry = xrefEntry;
+        for (int i = 1; i < objectCount; i++) {
+            long offset = offsets[i];
+            for (int j = 9; j >= 0; j--) {
+                entry[j] = (byte) ('0' + offset % 10);
+                offset /= 10;
+            }
+            write(entry, entry.length);
+        }
+        write(TRAILER_SIZE);
+        writeDecimal(objectCount);
+        write(TRAILER_ROOT);
+        writeDecimal(xrefOffset);
+        write(EOF);
+    }
+
+    /**
+     * Writes "n 0 obj" for a new object
+     *
+     * @return the number of the object
+     */
+    protected int startObject() throws IOException {
+        if (objectCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, objectCount * 2);
+        }
+        int object = objectCount++;
+        offsets[object] = position;
+        writeDecimal(object);
+        write(OBJ);
+        return object;
+    }
+
+    /**
+     * Appends the bytes of the line from <code>from</code>, converted from UTF-8 to WinAnsi and escaped for a PDF literal
+     * string.
+     */
+    protected void putText(RecordText text, int line, int from) {
+        int length = text.getLineLength(line);
+        // At most one byte per UTF-8 byte, plus the escapes
+        ensureCapacity(contentLength + (length - from) * 2 + LINE_END.length + TEXT_END.length);
+        int i = from;
+        while (i < length) {
+            int b = text.byteAt(line, i++) & 0xFF;
+            if (b < 0x80) {
+                if (b == '(' || b == ')' || b == '\\') {
+                    content[contentLength++] = '\\';
+                } else if (b < 0x20 || b == 0x7F) {
+                    b = '?';
+                }
+                content[contentLength++] = (byte) b;
+                continue;
+            }
+            // Multi-byte character: decode the code point
+            int extra = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : 0;
+            int cp = b & (0x3F >> extra);
+            for (int j = 0; j < extra && i < length; j++) {
+                cp = (cp << 6) | (text.byteAt(line, i++) & 0x3F);
+            }
+            content[contentLength++] = (byte) toWinAnsi(extra == 0 ? -1 : cp);
+        }
+    }
+
+    protected static int toWinAnsi(int cp) {
+        if (cp >= 0xA0 && cp <= 0xFF) {
+            return cp;
+        }
+        for (int i = 0; i < WIN_ANSI_80_9F.length; i++) {
+            if (WIN_ANSI_80_9F[i] == cp) {
+                return 0x80 + i;
+            }
+        }
+        return '?';
+    }
+
+    protected void put(byte b) {
+        ensureCapacity(contentLength + 1);
+        content[contentLength++] = b;
+    }
+
+    protected void put(byte[] bytes) {
+        ensureCapacity(contentLength + bytes.length);
+        System.arraycopy(bytes, 0, content, contentLength, bytes.length);
+        contentLength += bytes.length;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity > content.length) {
+            content = Arrays.copyOf(content, Math.max(capacity, content.length * 2));
+        }
+    }
+
+    protected void write(byte b) throws IOException {
+        out.write(b);
+        position += 1;
+    }
+
+    protected void write(byte[] bytes) throws IOException {
+        write(bytes, bytes.length);
+    }
+
+    protected void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        position += length;
+    }
+
+    protected void writeDecimal(long value) throws IOException {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        out.write(digits, pos, digits.length - pos);
+        position += digits.length - pos;
+    }
+
+    protected static String format(float value) {
+        return value == (int) value ? Integer.toString((int) value) : Float.toString(value);
+    }
+
+    protected static byte[] latin1(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright 2024 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package com.hyland.labs.copo.parser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates a CO_PO file with the same layout as the real ones, for tests and measurements. Invoice numbers are unique,
+ * and the GRAND TOTAL of each record is the sum of its detail lines. The same parameters always give the same file.
+ * <p>
+ * Part of the test sources (and of the test jar, used by the benchmarks), not of the parser. Can be run from the
+ * command line:
+ * <code>java -cp target/classes:target/test-classes com.hyland.labs.copo.parser.SyntheticCOPOGenerator /path/to/CO_PO recordCount detailLinesPerRecord</code>
+ */
+public class SyntheticCOPOGenerator {
+
+    protected static final String[] COMPANIES = { "0042", "0987", "1234", "2001", "7310" };
+
+    protected static final String[] ITEMS = { "COTTON T-SHIRT", "SOCKS 6-PACK", "FLEECE HOODIE", "JOGGER PANTS",
+            "BOXER BRIEFS", "UNDERSHIRT", "FREIGHT" };
+
+    int recordCount;
+
+    int detailLinesPerRecord;
+
+    long seed = 42;
+
+    // Number of digits of the values (after their letter prefix)
+    int voucherWidth = 7;
+
+    int invoiceNumberWidth = 7;
+
+    int poNumberWidth = 8;
+
+    // Width of the item description column of the detail lines
+    int descriptionWidth = 20;
+
+    public SyntheticCOPOGenerator(int recordCount, int detailLinesPerRecord) {
+        this.recordCount = recordCount;
+        this.detailLinesPerRecord = detailLinesPerRecord;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Arguments: /path/to/CO_PO recordCount detailLinesPerRecord");
+            return;
+        }
+        new SyntheticCOPOGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2])).generate(new File(args[0]));
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setVoucherWidth(int voucherWidth) {
+        this.voucherWidth = checkWidth(voucherWidth);
+    }
+
+    public void setInvoiceNumberWidth(int invoiceNumberWidth) {
+        this.invoiceNumberWidth = checkWidth(invoiceNumberWidth);
+    }
+
+    public void setPoNumberWidth(int poNumberWidth) {
+        this.poNumberWidth = checkWidth(poNumberWidth);
+    }
+
+    public void setDescriptionWidth(int descriptionWidth) {
+        if (descriptionWidth < 1) {
+            throw new IllegalArgumentException("descriptionWidth must be at least 1");
+        }
+        this.descriptionWidth = descriptionWidth;
+    }
+
+    protected static int checkWidth(int width) {
+        if (width < 1 || width > 18) {
+            throw new IllegalArgumentException("A width must be between 1 and 18");
+        }
+        return width;
+    }
+
+    public File generate(File copoFile) throws IOException {
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(copoFile.toPath()), StandardCharsets.UTF_8), 1024 * 1024)) {
+            generate(writer);
+        }
+        return copoFile;
+    }
+
+    public void generate(Writer writer) throws IOException {
+        Random random = new Random(seed);
+        long[] amounts = new long[detailLinesPerRecord];
+        String voucherFormat = "0.VOUCHER # V%0" + voucherWidth + "d\n";
+        String invoiceFormat = "-.  INV%0" + invoiceNumberWidth + "d  202403%02d  %s  PO%0" + poNumberWidth
+                + "d  VN0001  H1\n";
+        String detailFormat = " .  %03d   %-" + descriptionWidth + "s %4d  %10s\n";
+        long maxPoNumber = (long) Math.pow(10, poNumberWidth);
+        for (int i = 1; i <= recordCount; i++) {
+            long totalCents = 0;
+            for (int j = 0; j < detailLinesPerRecord; j++) {
+                amounts[j] = 1 + random.nextInt(100000);
+                totalCents += amounts[j];
+            }
+            String total = formatCents(totalCents);
+
+            writer.write("1.PROGRAM ZA401                    Hanesbrands Inc.                     DATE: 03/15/24\n");
+            writer.write(String.format(voucherFormat, i));
+            writer.write("0.  COMPANY # " + COMPANIES[random.nextInt(COMPANIES.length)] + "\n");
+            writer.write(" .  VENDOR NAME: ACME TEXTILES LLC\n");
+            writer.write(" .  INV-NUMBER  INV-DATE  INV-AMT  PO-NUMBER  VNDR-NUMBER  HNDL-CODE\n");
+            writer.write(String.format(invoiceFormat, i, 1 + random.nextInt(28), total,
+                    maxPoNumber <= Integer.MAX_VALUE ? random.nextInt((int) maxPoNumber)
+                            : Math.floorMod(random.nextLong(), maxPoNumber)));
+            writer.write(" .  LINE  ITEM DESCRIPTION       QTY      AMOUNT\n");
+            for (int j = 0; j < detailLinesPerRecord; j++) {
+                writer.write(String.format(detailFormat, j + 1, ITEMS[random.nextInt(ITEMS.length)],
+                        1 + random.nextInt(50), formatCents(amounts[j])));
+            }
+            writer.write("0.                 GRAND TOTAL        " + total + "\n");
+        }
+    }
+
+    protected static String formatCents(long cents) {
+        return (cents / 100) + "." + String.format("%02d", cents % 100);
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.ArchiveWriter;
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.ProgressJournal;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class ArchiveWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected static Map<String, byte[]> readFiles(File dir) throws Exception {
+        Map<String, byte[]> files = new TreeMap<>();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir.toPath())) {
+            paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            files.put(dir.toPath().relativize(p).toString().replace(File.separatorChar, '/'), Files.readAllBytes(p));
+        }
+        return files;
+    }
+
+    protected static Map<String, byte[]> readZips(File dir) throws Exception {
+        Map<String, byte[]> files = new TreeMap<>();
+        for (File f : dir.listFiles((d, name) -> name.endsWith(".zip"))) {
+            try (ZipFile zip = new ZipFile(f)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Assert.assertNull(files.put(entry.getName(), in.readAllBytes()));
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    protected static Map<String, byte[]> readTars(File dir) throws Exception {
+        Map<String, byte[]> files = new TreeMap<>();
+        for (File f : dir.listFiles((d, name) -> name.endsWith(".tar"))) {
+            Assert.assertEquals(0, f.length() % 512);
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(f.toPath()))) {
+                byte[] header = new byte[512];
+                while (true) {
+                    in.readFully(header);
+                    if (header[0] == 0) {
+                        break;
+                    }
+                    Assert.assertEquals("ustar", new String(header, 257, 5, StandardCharsets.US_ASCII));
+                    long checksum = 0;
+                    for (int i = 0; i < 512; i++) {
+                        checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+                    }
+                    Assert.assertEquals(checksum,
+                            Long.parseLong(new String(header, 148, 6, StandardCharsets.US_ASCII), 8));
+                    String name = new String(header, 0, 100, StandardCharsets.UTF_8).replace("\0", "");
+                    int size = Integer.parseInt(new String(header, 124, 11, StandardCharsets.US_ASCII), 8);
+                    byte[] content = new byte[size];
+                    in.readFully(content);
+                    in.readFully(new byte[(512 - size % 512) % 512]);
+                    Assert.assertNull(files.put(name, content));
+                }
+            }
+        }
+        return files;
+    }
+
+    protected COPOParser newParser(File copo, File dest, String metadataExportType) {
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), metadataExportType, "acme");
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(2);
+        return parser;
+    }
+
+    protected void assertSameFiles(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet()) {
+            if (name.endsWith(".pdf")) {
+                // Same PDF but the creation date
+                Assert.assertEquals(name, expected.get(name).length, actual.get(name).length);
+            } else {
+                Assert.assertArrayEquals(name, expected.get(name), actual.get(name));
+            }
+        }
+    }
+
+    @Test
+    public void testZip() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(250, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File files = tmp.newFolder("files");
+        COPOParser parser = newParser(copo, files, "xml");
+        parser.setOutputLayout("hash");
+        parser.process();
+
+        File archives = tmp.newFolder("archives");
+        parser = newParser(copo, archives, "xml");
+        parser.setOutputLayout("hash");
+        parser.setArchiveFormat("zip");
+        parser.setMaxInvoicesPerArchive(100);
+        parser.process();
+        Assert.assertEquals(250, parser.getInvoiceCount());
+
+        Assert.assertTrue(new File(archives, "CO_PO-synthetic.txt.invoices-00003.zip").exists());
+        Assert.assertFalse(new File(archives, "CO_PO-synthetic.txt.invoices-00004.zip").exists());
+        assertSameFiles(readFiles(files), readZips(archives));
+
+        int lineCount = 0;
+        for (int i = 1; i <= 3; i++) {
+            File manifest = new File(archives, String.format("CO_PO-synthetic.txt.invoices-%05d%s", i,
+                    ArchiveWriter.MANIFEST_EXTENSION));
+            for (String line : Files.readAllLines(manifest.toPath())) {
+                String pdf = new JSONObject(line).getString("pdf");
+                Assert.assertTrue(pdf, new File(files, pdf).exists());
+                lineCount += 1;
+            }
+        }
+        Assert.assertEquals(250, lineCount);
+    }
+
+    @Test
+    public void testTar() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(120, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File files = tmp.newFolder("files");
+        newParser(copo, files, "json").process();
+
+        File archives = tmp.newFolder("archives");
+        COPOParser parser = newParser(copo, archives, "json");
+        parser.setArchiveFormat("tar");
+        // About 10 archives: each entry is a header block, then its content padded to a block
+        long tarSize = 0;
+        for (File f : files.listFiles()) {
+            tarSize += 512 + (f.length() + 511) / 512 * 512;
+        }
+        parser.setMaxBytesPerArchive(tarSize / 10);
+        parser.process();
+
+        int archiveCount = archives.list((d, name) -> name.endsWith(".tar")).length;
+        Assert.assertTrue("" + archiveCount, archiveCount >= 10 && archiveCount <= 12);
+        Assert.assertEquals(archiveCount,
+                archives.list((d, name) -> name.endsWith(ArchiveWriter.MANIFEST_EXTENSION)).length);
+        assertSameFiles(readFiles(files), readTars(archives));
+    }
+
+    @Test
+    public void testJournalWaitsForArchives() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(250, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File archives = tmp.newFolder("archives");
+        File journal = new File(tmp.getRoot(), "journal");
+        List<Long> checkpoints = new ArrayList<>();
+        COPOParser failing = new COPOParser(copo, archives.getAbsolutePath(), "ndjson", null) {
+            @Override
+            protected void processRecord(COPORecord record) throws IOException {
+                if (record.getIndex() == 130 || record.getIndex() == 151) {
+                    // Only the invoices of the first archive, closed and with its manifest, are journaled
+                    checkpoints.add(ProgressJournal.readLastCheckpoint(journal, copo).getIndex());
+                    Assert.assertTrue(new File(archives, "CO_PO-synthetic.txt.invoices-00001"
+                            + ArchiveWriter.MANIFEST_EXTENSION).exists());
+                }
+                if (record.getIndex() == 151) {
+                    throw new IOException("No space left on device");
+                }
+                super.processRecord(record);
+            }
+        };
+        failing.setPdfRendererType("fast");
+        failing.setThreadCount(1);
+        failing.setArchiveFormat("zip");
+        failing.setMaxInvoicesPerArchive(100);
+        failing.setJournalFile(journal);
+        failing.setCheckpointInterval(1);
+        try {
+            failing.process();
+            Assert.fail("The run should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertEquals(Arrays.asList(100L, 100L), checkpoints);
+        // The second archive was closed when the run failed
+        Assert.assertEquals(150, ProgressJournal.readLastCheckpoint(journal, copo).getIndex());
+
+        COPOParser parser = newParser(copo, archives, "ndjson");
+        parser.setArchiveFormat("zip");
+        parser.setMaxInvoicesPerArchive(100);
+        parser.setJournalFile(journal);
+        parser.setResume(true);
+        parser.process();
+        Assert.assertEquals(100, parser.getInvoiceCount());
+        Assert.assertEquals(250, readZips(archives).size());
+    }
+
+    @Test
+    public void testNoInvoice() throws Exception {
+
+        File copo = tmp.newFile("CO_PO-empty.txt");
+        File archives = tmp.newFolder("archives");
+        COPOParser parser = newParser(copo, archives, "ndjson");
+        parser.setArchiveFormat("tar");
+        parser.process();
+        String[] names = archives.list();
+        Arrays.sort(names);
+        Assert.assertEquals(
+                Arrays.asList("CO_PO-empty.txt.invoices-00001.manifest.ndjson", "CO_PO-empty.txt.invoices-00001.tar"),
+                Arrays.asList(names));
+        Assert.assertEquals(1024, new File(archives, "CO_PO-empty.txt.invoices-00001.tar").length());
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.BatchParser;
+import com.hyland.labs.copo.parser.BatchParser.FileSummary;
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class BatchParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected COPOParser newParser(File copo, File dest) {
+        // Each synthetic file has the same invoice numbers
+        File dir = new File(dest, copo.getName());
+        dir.mkdirs();
+        COPOParser parser = new COPOParser(copo, dir.getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        return parser;
+    }
+
+    protected static List<String> readManifest(File dir, File copo) throws IOException {
+        List<String> lines = Files.readAllLines(
+                new File(new File(dir, copo.getName()), copo.getName() + ".metadata.ndjson").toPath());
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+
+        File input = tmp.newFolder("input");
+        File small = new SyntheticCOPOGenerator(30, 2).generate(new File(input, "CO_PO-1.txt"));
+        File large = new SyntheticCOPOGenerator(300, 2).generate(new File(input, "CO_PO-2.txt"));
+        File truncated = new File(input, "CO_PO-3.txt");
+        byte[] bytes = Files.readAllBytes(small.toPath());
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length - 20));
+        new File(input, "CO_PO-3.txt" + COPOParser.DEAD_LETTER_SUFFIX).createNewFile();
+
+        List<File> files = BatchParser.listFiles(input.getPath() + "/CO_PO-*");
+        Assert.assertEquals(Arrays.asList(small, large, truncated), files);
+        Assert.assertEquals(files, BatchParser.listFiles(input.getPath()));
+        Assert.assertTrue(BatchParser.isBatch(input.getPath()));
+        Assert.assertFalse(BatchParser.isBatch(small.getPath()));
+
+        File dest = tmp.newFolder("dest");
+        File summaryFile = new File(tmp.getRoot(), "summary.ndjson");
+        BatchParser batchParser = new BatchParser(files, copo -> newParser(copo, dest));
+        batchParser.setThreadCount(3);
+        batchParser.setConcurrentFileCount(3);
+        batchParser.setSummaryFile(summaryFile);
+        List<FileSummary> summaries = batchParser.run();
+
+        Assert.assertEquals(3, summaries.size());
+        Assert.assertEquals(30, summaries.get(0).getInvoiceCount());
+        Assert.assertEquals(300, summaries.get(1).getInvoiceCount());
+        Assert.assertFalse(summaries.get(1).isFailed());
+        // The truncated file fails, the others are done
+        Assert.assertTrue(summaries.get(2).isFailed());
+        Assert.assertTrue(summaries.get(2).getError(), summaries.get(2).getError().contains("End of file reached"));
+
+        List<String> lines = Files.readAllLines(summaryFile.toPath());
+        Assert.assertEquals(3, lines.size());
+        int failed = 0;
+        for (String line : lines) {
+            JSONObject json = new JSONObject(line);
+            if ("failed".equals(json.getString("status"))) {
+                failed += 1;
+                Assert.assertEquals(truncated.getPath(), json.getString("file"));
+            }
+        }
+        Assert.assertEquals(1, failed);
+
+        // Same files as a run of its own
+        File single = tmp.newFolder("single");
+        COPOParser parser = newParser(large, single);
+        parser.setThreadCount(2);
+        parser.process();
+        Assert.assertEquals(readManifest(single, large), readManifest(dest, large));
+        Assert.assertEquals(300 + 1, new File(dest, large.getName()).list().length);
+    }
+
+}
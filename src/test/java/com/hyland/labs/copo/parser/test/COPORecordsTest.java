@@ -0,0 +1,112 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.COPORecords;
+import com.hyland.labs.copo.parser.Invoice;
+import com.hyland.labs.copo.parser.InvoiceGenerator;
+import com.hyland.labs.copo.parser.MalformedRecordException;
+import com.hyland.labs.copo.parser.MetadataSink;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class COPORecordsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected static String describe(COPORecord record) {
+        return record.getIndex() + " " + record.getVoucher() + " " + record.getCompany() + " "
+                + record.getInvoiceNumber() + " " + record.getInvoiceDateStr() + " " + record.getInvoiceAmountStr()
+                + " " + record.getPoNumber() + " " + record.getTextForPdf();
+    }
+
+    @Test
+    public void testSources() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(100, 3).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        List<String> fromPath;
+        try (Stream<COPORecord> records = COPORecords.stream(copo.toPath())) {
+            fromPath = records.map(COPORecordsTest::describe).collect(Collectors.toList());
+        }
+        Assert.assertEquals(100, fromPath.size());
+        Assert.assertTrue(fromPath.get(0), fromPath.get(0).startsWith("1 "));
+
+        List<String> fromInputStream;
+        try (Stream<COPORecord> records = COPORecords.stream(Files.newInputStream(copo.toPath()))) {
+            fromInputStream = records.map(COPORecordsTest::describe).collect(Collectors.toList());
+        }
+        Assert.assertEquals(fromPath, fromInputStream);
+
+        AtomicBoolean closed = new AtomicBoolean();
+        FileChannel channel = FileChannel.open(copo.toPath(), StandardOpenOption.READ);
+        try (Stream<COPORecord> records = COPORecords.stream(channel).onClose(() -> closed.set(true))) {
+            Assert.assertEquals(fromPath.subList(0, 10),
+                    records.limit(10).map(COPORecordsTest::describe).collect(Collectors.toList()));
+        }
+        Assert.assertTrue(closed.get());
+        Assert.assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testParallelGeneration() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(300, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        Map<Long, byte[]> pdfs = new ConcurrentHashMap<>();
+        Map<Long, JSONObject> metadata = new ConcurrentHashMap<>();
+        MetadataSink metadataSink = new MetadataSink() {
+            @Override
+            public void write(Invoice invoice, long index) {
+                metadata.put(index, invoice.getJson());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        InvoiceGenerator generator = new InvoiceGenerator(null, "fast",
+                (invoice, index, pdf) -> pdfs.put(index, pdf.toByteArray()), metadataSink);
+
+        try (Stream<COPORecord> records = COPORecords.stream(copo.toPath())) {
+            records.parallel().forEach(generator);
+        }
+
+        // Nothing written next to the CO_PO file
+        Assert.assertEquals(1, tmp.getRoot().list().length);
+        Assert.assertEquals(300, pdfs.size());
+        Assert.assertEquals(300, metadata.size());
+        for (long index = 1; index <= 300; index++) {
+            Assert.assertEquals("%PDF", new String(pdfs.get(index), 0, 4, StandardCharsets.US_ASCII));
+            Assert.assertEquals(String.format("INV%07d", index), metadata.get(index).getString("invoiceNumber"));
+        }
+    }
+
+    @Test(expected = MalformedRecordException.class)
+    public void testMalformed() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(10, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        byte[] bytes = Files.readAllBytes(copo.toPath());
+        Files.write(copo.toPath(), new String(bytes, StandardCharsets.UTF_8).replace("GRAND TOTAL", "GRAND")
+                                                                             .getBytes(StandardCharsets.UTF_8));
+        try (Stream<COPORecord> records = COPORecords.stream(copo.toPath())) {
+            records.count();
+        }
+    }
+
+}
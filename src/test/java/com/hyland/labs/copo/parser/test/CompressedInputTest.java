@@ -0,0 +1,189 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.COPORecords;
+import com.hyland.labs.copo.parser.CompressedInput;
+import com.hyland.labs.copo.parser.ReadAheadInputStream;
+import com.hyland.labs.copo.parser.StreamRecordReader;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class CompressedInputTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected File compress(File copo, String compression) throws IOException {
+        File compressed = new File(tmp.getRoot(), copo.getName() + ("gzip".equals(compression) ? ".gz" : ".zst"));
+        try (OutputStream out = Files.newOutputStream(compressed.toPath());
+                OutputStream compressing = "gzip".equals(compression) ? new GZIPOutputStream(out)
+                        : new ZstdOutputStream(out)) {
+            Files.copy(copo.toPath(), compressing);
+        }
+        return compressed;
+    }
+
+    /**
+     * @return "index offset length invoiceNumber" for each record
+     */
+    protected static List<String> describe(Stream<COPORecord> records) {
+        try (Stream<COPORecord> s = records) {
+            return s.map(r -> r.getIndex() + " " + r.getSourceOffset() + " " + r.getSourceLength() + " "
+                    + r.getInvoiceNumber()).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testRecords() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(300, 3).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        List<String> expected = describe(COPORecords.stream(copo));
+        Assert.assertEquals(300, expected.size());
+        Assert.assertNull(CompressedInput.getCompression(copo));
+        for (String compression : new String[] { CompressedInput.GZIP, CompressedInput.ZSTD }) {
+            File compressed = compress(copo, compression);
+            Assert.assertEquals(compression, CompressedInput.getCompression(compressed));
+            Assert.assertEquals(compression, expected, describe(COPORecords.stream(compressed)));
+            // Windows much smaller than the records: the records cross them
+            byte[] content = Files.readAllBytes(copo.toPath());
+            for (int windowSize : new int[] { 1, 100, 4096 }) {
+                Assert.assertEquals(expected, describe(COPORecords.stream(
+                        new StreamRecordReader(new ByteArrayInputStream(content), windowSize))));
+            }
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(100, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File compressed = compress(copo, CompressedInput.ZSTD);
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = new COPOParser(compressed, dest.getAbsolutePath(), "json", null);
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(3);
+        parser.process();
+        Assert.assertEquals(100, parser.getInvoiceCount());
+        Assert.assertEquals(200, dest.list().length);
+        Assert.assertTrue(new File(dest, "INV0000100.pdf").exists());
+
+        File linesDest = tmp.newFolder("lines");
+        parser = new COPOParser(compress(copo, CompressedInput.GZIP), linesDest.getAbsolutePath(), "json", null);
+        parser.setPdfRendererType("fast");
+        parser.setReaderType("lines");
+        parser.process();
+        Assert.assertEquals(100, parser.getInvoiceCount());
+        Assert.assertEquals(200, linesDest.list().length);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+
+        File copo = compress(new SyntheticCOPOGenerator(100, 2).generate(tmp.newFile("CO_PO-synthetic.txt")),
+                CompressedInput.GZIP);
+        File dest = tmp.newFolder("dest");
+        File journal = new File(tmp.getRoot(), "journal");
+        COPOParser failing = new COPOParser(copo, dest.getAbsolutePath(), "json", null) {
+            @Override
+            protected void processRecord(COPORecord record) throws IOException {
+                if (record.getIndex() == 41) {
+                    throw new IOException("No space left on device");
+                }
+                super.processRecord(record);
+            }
+        };
+        failing.setPdfRendererType("fast");
+        failing.setThreadCount(1);
+        failing.setJournalFile(journal);
+        failing.setCheckpointInterval(1);
+        try {
+            failing.process();
+            Assert.fail("The run should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertEquals(80, dest.list().length);
+
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "json", null);
+        parser.setPdfRendererType("fast");
+        parser.setJournalFile(journal);
+        parser.setResume(true);
+        parser.process();
+        Assert.assertEquals(40, parser.getResumedInvoiceCount());
+        Assert.assertEquals(60, parser.getInvoiceCount());
+        Assert.assertEquals(200, dest.list().length);
+    }
+
+    @Test
+    public void testNoSplit() throws Exception {
+        File copo = compress(new SyntheticCOPOGenerator(10, 2).generate(tmp.newFile("CO_PO-synthetic.txt")),
+                CompressedInput.GZIP);
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "ndjson", null);
+        parser.setSplitCount(2);
+        parser.setDuplicatePolicy("suffix");
+        parser.setInvoiceIndexFile(new File(tmp.getRoot(), "invoices.idx"));
+        try {
+            parser.process();
+            Assert.fail("Splitting a compressed file should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        // Rejected before any output is opened
+        Assert.assertEquals(0, dest.list().length);
+        Assert.assertFalse(new File(tmp.getRoot(), "invoices.idx").exists());
+        Assert.assertFalse(parser.getDuplicateReportFile().exists());
+    }
+
+    @Test
+    public void testReadAheadError() throws Exception {
+
+        // Fails after 10000 bytes: the bytes before are read first
+        byte[] content = new byte[50_000];
+        InputStream failing = new FilterInputStream(new ByteArrayInputStream(content)) {
+            int read = 0;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (read >= 10_000) {
+                    throw new IOException("Unexpected end of ZLIB input stream");
+                }
+                int n = super.read(b, off, Math.min(len, 10_000 - read));
+                read += n;
+                return n;
+            }
+        };
+        List<Integer> chunks = new ArrayList<>();
+        try (ReadAheadInputStream in = new ReadAheadInputStream(failing, 1000, 2, "test-read-ahead")) {
+            byte[] buffer = new byte[700];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                chunks.add(n);
+            }
+            Assert.fail("The error should have been thrown");
+        } catch (IOException e) {
+            Assert.assertEquals("Unexpected end of ZLIB input stream", e.getMessage());
+        }
+        Assert.assertEquals(10_000, chunks.stream().mapToInt(Integer::intValue).sum());
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+
+public class ContentHashIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected COPOParser newParser(File copoFile, File dest, File index, String exportType) {
+        COPOParser parser = new COPOParser(copoFile, dest.getAbsolutePath(), exportType, "acme");
+        parser.setContentIndexFile(index);
+        parser.setThreadCount(2);
+        return parser;
+    }
+
+    @Test
+    public void testUnchangedInvoicesAreSkipped() throws Exception {
+
+        File dest = tmp.newFolder("dest");
+        File index = new File(tmp.getRoot(), "content.index");
+
+        COPOParser parser = newParser(RecordPipelineTest.SAMPLE_FILE, dest, index, "xml");
+        parser.process();
+        Assert.assertEquals(5, parser.getInvoiceCount());
+        Assert.assertEquals(0, parser.getUpToDateInvoiceCount());
+
+        File pdf = new File(dest, "CD789012.pdf");
+        long modified = pdf.lastModified() - 10000;
+        pdf.setLastModified(modified);
+        // A missing file is generated again
+        new File(dest, "AB123456.pdf.metadata.properties.xml").delete();
+
+        // Next day: same records, except the amount of INV0000002
+        String content = new String(Files.readAllBytes(RecordPipelineTest.SAMPLE_FILE.toPath()), StandardCharsets.UTF_8);
+        int inv2 = content.indexOf("-.  INV0000002");
+        int amountEnd = content.indexOf('\n', inv2);
+        String changed = content.substring(0, inv2)
+                + content.substring(inv2, amountEnd).replaceFirst("  (\\d+)\\.(\\d+)  ", "  9$1.$2  ")
+                + content.substring(amountEnd);
+        Assert.assertNotEquals(content, changed);
+        File nextDay = tmp.newFile("CO_PO-next-day.txt");
+        Files.write(nextDay.toPath(), changed.getBytes(StandardCharsets.UTF_8));
+
+        parser = newParser(nextDay, dest, index, "xml");
+        parser.process();
+        Assert.assertEquals(5, parser.getInvoiceCount());
+        Assert.assertEquals(3, parser.getUpToDateInvoiceCount());
+        Assert.assertEquals(modified, pdf.lastModified());
+        Assert.assertTrue(new File(dest, "AB123456.pdf.metadata.properties.xml").exists());
+
+        // Forced
+        parser = newParser(nextDay, dest, index, "xml");
+        parser.setForceRebuild(true);
+        parser.process();
+        Assert.assertEquals(0, parser.getUpToDateInvoiceCount());
+        Assert.assertNotEquals(modified, pdf.lastModified());
+
+        // Other settings: nothing is up to date
+        parser = newParser(nextDay, dest, index, "json");
+        parser.process();
+        Assert.assertEquals(0, parser.getUpToDateInvoiceCount());
+        parser = newParser(nextDay, dest, index, "json");
+        parser.process();
+        Assert.assertEquals(5, parser.getUpToDateInvoiceCount());
+    }
+
+    @Test
+    public void testManifestListsUpToDateInvoices() throws Exception {
+
+        File dest = tmp.newFolder("dest");
+        File index = new File(tmp.getRoot(), "content.index");
+        newParser(RecordPipelineTest.SAMPLE_FILE, dest, index, "ndjson").process();
+
+        COPOParser parser = newParser(RecordPipelineTest.SAMPLE_FILE, dest, index, "ndjson");
+        parser.process();
+        Assert.assertEquals(5, parser.getUpToDateInvoiceCount());
+        Assert.assertEquals(5,
+                Files.readAllLines(new File(dest, "CO_PO-sample.txt.metadata.ndjson").toPath()).size());
+    }
+
+}
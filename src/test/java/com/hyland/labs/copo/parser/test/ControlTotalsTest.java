@@ -0,0 +1,153 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.COPORecords;
+import com.hyland.labs.copo.parser.ControlTotals;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class ControlTotalsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected COPOParser newParser(File copo, File totalsFile) throws Exception {
+        COPOParser parser = new COPOParser(copo, tmp.newFolder().getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(3);
+        parser.setTotalsFile(totalsFile);
+        return parser;
+    }
+
+    @Test
+    public void testParseCents() {
+        Assert.assertEquals(123895, ControlTotals.parseCents("1238.95"));
+        Assert.assertEquals(4200, ControlTotals.parseCents("42"));
+        Assert.assertEquals(1250, ControlTotals.parseCents("12.5"));
+        Assert.assertEquals(1234, ControlTotals.parseCents("12.340"));
+        Assert.assertEquals(-1, ControlTotals.parseCents("-0.01"));
+        Assert.assertEquals(50, ControlTotals.parseCents(".5"));
+        for (String amount : new String[] { "12.345", "", "1,2", "-", ".", "1.2.3", "12 ", "99999999999999999999" }) {
+            try {
+                ControlTotals.parseCents(amount);
+                Assert.fail(amount);
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testTotals() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(500, 3).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        Map<String, BigDecimal> expectedByCompany = new HashMap<>();
+        BigDecimal expected = BigDecimal.ZERO;
+        try (Stream<COPORecord> records = COPORecords.stream(copo)) {
+            for (COPORecord record : (Iterable<COPORecord>) records::iterator) {
+                BigDecimal amount = new BigDecimal(record.getInvoiceAmountStr());
+                expected = expected.add(amount);
+                expectedByCompany.merge(record.getCompany(), amount, BigDecimal::add);
+            }
+        }
+
+        File totalsFile = new File(tmp.getRoot(), "totals.json");
+        COPOParser parser = newParser(copo, totalsFile);
+        parser.setSplitCount(3);
+        parser.process();
+
+        JSONObject report = new JSONObject(new String(Files.readAllBytes(totalsFile.toPath()), StandardCharsets.UTF_8));
+        Assert.assertEquals("CO_PO-synthetic.txt", report.getString("copoFile"));
+        Assert.assertEquals(500, report.getLong("invoices"));
+        Assert.assertEquals(0, report.getLong("mismatches"));
+        Assert.assertEquals(0, report.getJSONArray("mismatchedInvoices").length());
+        Assert.assertEquals(0, expected.compareTo(report.getBigDecimal("invoiceAmount")));
+        Assert.assertEquals(0, expected.compareTo(report.getBigDecimal("grandTotal")));
+
+        JSONArray companies = report.getJSONArray("companies");
+        Assert.assertEquals(expectedByCompany.size(), companies.length());
+        long invoices = 0;
+        for (int i = 0; i < companies.length(); i++) {
+            JSONObject company = companies.getJSONObject(i);
+            Assert.assertEquals(0, expectedByCompany.get(company.getString("company"))
+                                                    .compareTo(company.getBigDecimal("invoiceAmount")));
+            invoices += company.getLong("invoices");
+            if (i > 0) {
+                Assert.assertTrue(companies.getJSONObject(i - 1).getString("company")
+                                           .compareTo(company.getString("company")) < 0);
+            }
+        }
+        Assert.assertEquals(500, invoices);
+        long cents = parser.getControlTotals().getTotalsByDate().values().stream()
+                           .mapToLong(ControlTotals.Totals::getInvoiceAmountCents).sum();
+        Assert.assertEquals(expected.movePointRight(2).longValueExact(), cents);
+    }
+
+    @Test
+    public void testMismatch() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(50, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        // The GRAND TOTAL of the 10th record is wrong, the one of the 20th cannot be parsed
+        String[] lines = new String(Files.readAllBytes(copo.toPath()), StandardCharsets.UTF_8).split("\n");
+        int record = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].contains(COPOParser.END_RECORD_TOKEN)) {
+                record += 1;
+                if (record == 10) {
+                    lines[i] = "0.                 GRAND TOTAL        0.01";
+                } else if (record == 20) {
+                    lines[i] = "0.                 GRAND TOTAL        N/A";
+                }
+            }
+        }
+        Files.write(copo.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        File totalsFile = new File(tmp.getRoot(), "totals.json");
+        COPOParser parser = newParser(copo, totalsFile);
+        parser.process();
+        Assert.assertEquals(50, parser.getInvoiceCount());
+
+        ControlTotals totals = parser.getControlTotals();
+        Assert.assertEquals(2, totals.getMismatchCount());
+        Assert.assertEquals(50, totals.getTotals().getInvoiceCount());
+        JSONObject report = new JSONObject(new String(Files.readAllBytes(totalsFile.toPath()), StandardCharsets.UTF_8));
+        JSONArray mismatches = report.getJSONArray("mismatchedInvoices");
+        Assert.assertEquals(2, mismatches.length());
+        Map<String, JSONObject> byNumber = new HashMap<>();
+        for (int i = 0; i < mismatches.length(); i++) {
+            byNumber.put(mismatches.getJSONObject(i).getString("invoiceNumber"), mismatches.getJSONObject(i));
+        }
+        Assert.assertEquals("0.01", byNumber.get("INV0000010").getString("grandTotal"));
+        Assert.assertEquals(10, byNumber.get("INV0000010").getLong("index"));
+        Assert.assertTrue(byNumber.get("INV0000020").getString("reason").startsWith("GRAND TOTAL: "));
+        // 0.01 instead of the amount of the 10th, nothing for the 20th
+        long amount10 = ControlTotals.parseCents(byNumber.get("INV0000010").getString("invoiceAmount"));
+        long amount20 = ControlTotals.parseCents(byNumber.get("INV0000020").getString("invoiceAmount"));
+        Assert.assertEquals(totals.getTotals().getInvoiceAmountCents() - amount10 + 1 - amount20,
+                totals.getTotals().getGrandTotalCents());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotWhenResuming() throws Exception {
+        COPOParser parser = newParser(tmp.newFile("CO_PO-empty.txt"), new File(tmp.getRoot(), "totals.json"));
+        parser.setJournalFile(new File(tmp.getRoot(), "journal"));
+        parser.setResume(true);
+        parser.process();
+    }
+
+}
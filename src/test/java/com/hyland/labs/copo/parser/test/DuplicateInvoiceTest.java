@@ -0,0 +1,263 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.InvoiceNumberSet;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class DuplicateInvoiceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * @return a CO_PO file whose 60 first records are followed by the same 60 records again
+     */
+    protected File newCopoWithDuplicates() throws IOException {
+        File copo = new SyntheticCOPOGenerator(60, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        Files.write(copo.toPath(), Files.readAllBytes(copo.toPath()), StandardOpenOption.APPEND);
+        return copo;
+    }
+
+    protected COPOParser newParser(File copo, File dest, String duplicatePolicy) {
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "json", null);
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(3);
+        parser.setDuplicatePolicy(duplicatePolicy);
+        return parser;
+    }
+
+    protected static List<JSONObject> readReport(File report) throws IOException {
+        List<JSONObject> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(report.toPath())) {
+            lines.add(new JSONObject(line));
+        }
+        return lines;
+    }
+
+    @Test
+    public void testSet() throws Exception {
+
+        InvoiceNumberSet set = new InvoiceNumberSet();
+        Assert.assertTrue(set.add("A"));
+        Assert.assertFalse(set.add("A"));
+        Assert.assertTrue(set.add("A "));
+        Assert.assertTrue(set.add(" A"));
+        Assert.assertTrue(set.add("ABCDEFGHIJKLMNOPQR"));
+        Assert.assertTrue(set.add("ABCDEFGHIJKLMNOPQ"));
+        Assert.assertTrue(set.add("BCDEFGHIJKLMNOPQR"));
+        Assert.assertEquals(0, set.getUnpackedCount());
+        // Not packed: too long, not ASCII, empty. null is "null", like the name of its files
+        Assert.assertTrue(set.add("ABCDEFGHIJKLMNOPQRS"));
+        Assert.assertTrue(set.add("FACTURE-\u00c91"));
+        Assert.assertTrue(set.add(""));
+        Assert.assertTrue(set.add(null));
+        Assert.assertFalse(set.add("FACTURE-\u00c91"));
+        Assert.assertFalse(set.add(null));
+        Assert.assertEquals(3, set.getUnpackedCount());
+        Assert.assertEquals(10, set.size());
+        Assert.assertTrue(set.contains("ABCDEFGHIJKLMNOPQ"));
+        Assert.assertFalse(set.contains("ABCDEFGHIJKLMNOP"));
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+
+        // Each thread adds the same 200000 numbers (the tables grow meanwhile): each one is new for a single thread
+        InvoiceNumberSet set = new InvoiceNumberSet();
+        AtomicInteger added = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int first = t * 1000;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200_000; i++) {
+                        if (set.add(String.format("INV%07d", (first + i) % 200_000))) {
+                            added.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(200_000, added.get());
+        Assert.assertEquals(200_000, set.size());
+    }
+
+    @Test
+    public void testSuffix() throws Exception {
+
+        File copo = newCopoWithDuplicates();
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = newParser(copo, dest, "suffix");
+        parser.process();
+
+        Assert.assertEquals(120, parser.getInvoiceCount());
+        Assert.assertEquals(60, parser.getDuplicateInvoiceCount());
+        // 2 files per invoice
+        Assert.assertEquals(240, dest.list().length);
+        for (int i = 1; i <= 60; i++) {
+            String invoiceNumber = String.format("INV%07d", i);
+            Assert.assertTrue(new File(dest, invoiceNumber + "_2.pdf").exists());
+            File metadataFile = new File(dest, invoiceNumber + "_2-Metadata.json");
+            JSONObject metadata = new JSONObject(new String(Files.readAllBytes(metadataFile.toPath()), "UTF-8"));
+            Assert.assertEquals(invoiceNumber, metadata.getString("invoiceNumber"));
+        }
+        List<JSONObject> report = readReport(parser.getDuplicateReportFile());
+        Assert.assertEquals(60, report.size());
+        for (JSONObject line : report) {
+            Assert.assertEquals("suffix", line.getString("policy"));
+            Assert.assertEquals(line.getString("invoiceNumber") + "_2", line.getString("fileName"));
+        }
+    }
+
+    @Test
+    public void testSameFilesAsSequentialRun() throws Exception {
+
+        // Each invoice number 3 times in a row, with other amounts and lines each time, so the workers race for them
+        String[][] records = new String[3][];
+        for (int i = 0; i < 3; i++) {
+            SyntheticCOPOGenerator generator = new SyntheticCOPOGenerator(60, 2);
+            generator.setSeed(i + 1);
+            StringWriter text = new StringWriter();
+            generator.generate(text);
+            records[i] = text.toString().split("(?=1\\.PROGRAM)");
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            text.append(records[0][i]).append(records[1][i]).append(records[2][i]);
+        }
+        File copo = tmp.newFile("CO_PO-synthetic.txt");
+        Files.write(copo.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        File sequential = tmp.newFolder("sequential");
+        COPOParser parser = newParser(copo, sequential, "suffix");
+        parser.setThreadCount(1);
+        parser.process();
+        List<String> expectedReport = Files.readAllLines(parser.getDuplicateReportFile().toPath());
+        Assert.assertEquals(360, sequential.list().length);
+        Assert.assertTrue(new File(sequential, "INV0000001_3.pdf").exists());
+
+        for (int splitCount : new int[] { 0, 7 }) {
+            File dest = tmp.newFolder("parallel-" + splitCount);
+            parser = newParser(copo, dest, "suffix");
+            parser.setSplitCount(splitCount);
+            parser.process();
+
+            Assert.assertEquals(RecordPipelineTest.readMetadata(sequential), RecordPipelineTest.readMetadata(dest));
+            for (String name : sequential.list()) {
+                Assert.assertArrayEquals(name, Files.readAllBytes(new File(sequential, name).toPath()),
+                        Files.readAllBytes(new File(dest, name).toPath()));
+            }
+            Assert.assertEquals(360, dest.list().length);
+            // In file order too
+            Assert.assertEquals(expectedReport, Files.readAllLines(parser.getDuplicateReportFile().toPath()));
+        }
+    }
+
+    @Test
+    public void testSkipWithSplit() throws Exception {
+
+        File copo = newCopoWithDuplicates();
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = newParser(copo, dest, "skip");
+        parser.setSplitCount(4);
+        parser.process();
+
+        Assert.assertEquals(60, parser.getInvoiceCount());
+        Assert.assertEquals(60, parser.getDuplicateInvoiceCount());
+        Assert.assertEquals(120, dest.list().length);
+        List<JSONObject> report = readReport(new File(copo.getPath() + COPOParser.DUPLICATE_REPORT_SUFFIX));
+        Assert.assertEquals(60, report.size());
+        Assert.assertFalse(report.get(0).has("fileName"));
+    }
+
+    @Test
+    public void testFail() throws Exception {
+
+        File copo = newCopoWithDuplicates();
+        COPOParser parser = newParser(copo, tmp.newFolder("dest"), "fail");
+        try {
+            parser.process();
+            Assert.fail("The run should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Duplicate invoice number INV0000001 in record 61 at offset "));
+        }
+        // Found by the reader, in file order: the run stops at the first one
+        List<JSONObject> report = readReport(parser.getDuplicateReportFile());
+        Assert.assertEquals(1, report.size());
+        Assert.assertEquals(61, report.get(0).getLong("index"));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+
+        // Each invoice number 4 times
+        File copo = newCopoWithDuplicates();
+        Files.write(copo.toPath(), Files.readAllBytes(copo.toPath()), StandardOpenOption.APPEND);
+        File dest = tmp.newFolder("dest");
+        File journal = new File(tmp.getRoot(), "journal");
+        // Fails after the 2 first occurrences of each invoice number
+        COPOParser failing = new COPOParser(copo, dest.getAbsolutePath(), "json", null) {
+            @Override
+            protected void processRecord(COPORecord record) throws IOException {
+                if (record.getIndex() == 121) {
+                    throw new IOException("No space left on device");
+                }
+                super.processRecord(record);
+            }
+        };
+        failing.setPdfRendererType("fast");
+        failing.setThreadCount(1);
+        failing.setDuplicatePolicy("suffix");
+        failing.setJournalFile(journal);
+        failing.setCheckpointInterval(1);
+        try {
+            failing.process();
+            Assert.fail("The run should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        COPOParser parser = newParser(copo, dest, "suffix");
+        parser.setJournalFile(journal);
+        parser.setResume(true);
+        parser.process();
+        Assert.assertEquals(120, parser.getResumedInvoiceCount());
+        Assert.assertEquals(120, parser.getDuplicateInvoiceCount());
+        // The third occurrences get _3, not _2 again
+        Assert.assertEquals(480, dest.list().length);
+        Assert.assertTrue(new File(dest, "INV0000060_3.pdf").exists());
+        Assert.assertTrue(new File(dest, "INV0000060_4.pdf").exists());
+        // Appended to the report of the failed run, which found the duplicate 121 when reading it, before failing
+        List<JSONObject> report = readReport(parser.getDuplicateReportFile());
+        Assert.assertEquals(181, report.size());
+        Assert.assertEquals(121, report.get(60).getLong("index"));
+        Assert.assertEquals(121, report.get(61).getLong("index"));
+    }
+
+}
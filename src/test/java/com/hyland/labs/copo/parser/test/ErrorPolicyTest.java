@@ -0,0 +1,155 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.DeadLetterFile;
+import com.hyland.labs.copo.parser.MalformedRecordException;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class ErrorPolicyTest {
+
+    protected static final int RECORD_COUNT = 40;
+
+    // With 2 detail lines
+    protected static final int LINES_PER_RECORD = 10;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Record 10 has no GRAND TOTAL, the amount of record 20 is not a number, there are lines that are not a record
+     * before record 30, and the file ends in the middle of record 40.
+     */
+    protected File newCorruptedFile() throws Exception {
+        StringWriter writer = new StringWriter();
+        new SyntheticCOPOGenerator(RECORD_COUNT, 2).generate(writer);
+        List<String> lines = new ArrayList<>(Arrays.asList(writer.toString().split("\n")));
+        lines.remove(RECORD_COUNT * LINES_PER_RECORD - 1);
+        lines.addAll(29 * LINES_PER_RECORD, Arrays.asList("GARBAGE 1", "GARBAGE 2"));
+        int invoiceLine = 19 * LINES_PER_RECORD + 5;
+        lines.set(invoiceLine, lines.get(invoiceLine).replaceFirst("(\\d{8})  [0-9.]+  PO", "$1  1.2.3  PO"));
+        lines.remove(9 * LINES_PER_RECORD + 9);
+        File copo = tmp.newFile("CO_PO-corrupted.txt");
+        Files.write(copo.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        return copo;
+    }
+
+    protected static List<String> readManifest(File dir) throws Exception {
+        List<String> lines = Files.readAllLines(new File(dir, "CO_PO-corrupted.txt.metadata.ndjson").toPath());
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void testFail() throws Exception {
+
+        COPOParser parser = new COPOParser(newCorruptedFile(), tmp.newFolder("dest").getAbsolutePath(), "ndjson",
+                null);
+        parser.setThreadCount(1);
+        try {
+            parser.process();
+            Assert.fail("The run should have failed");
+        } catch (MalformedRecordException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Record-Start found"));
+            Assert.assertTrue(e.isRecordStart());
+        }
+    }
+
+    @Test
+    public void testQuarantine() throws Exception {
+
+        File copo = newCorruptedFile();
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        parser.setErrorPolicy("quarantine");
+        parser.setThreadCount(1);
+        parser.process();
+        Assert.assertEquals(4, parser.getMalformedRecordCount());
+        Assert.assertEquals(RECORD_COUNT - 3, parser.getInvoiceCount());
+        Assert.assertFalse(new File(dest, "INV0000010.pdf").exists());
+        Assert.assertFalse(new File(dest, "INV0000020.pdf").exists());
+        Assert.assertTrue(new File(dest, "INV0000039.pdf").exists());
+
+        // The malformed records keep their index
+        List<String> manifest = readManifest(dest);
+        Assert.assertEquals(RECORD_COUNT - 3, manifest.size());
+        for (String line : manifest) {
+            JSONObject json = new JSONObject(line);
+            Assert.assertEquals(Integer.parseInt(json.getString("invoiceNumber").substring(3)), json.getInt("index"));
+        }
+
+        // Without the entry lines, the dead-letter file is the malformed part of the CO_PO file
+        File deadLetterFile = new File(copo.getPath() + COPOParser.DEAD_LETTER_SUFFIX);
+        List<String> deadLetters = Files.readAllLines(deadLetterFile.toPath());
+        List<String> entries = deadLetters.stream()
+                                          .filter(line -> line.startsWith(DeadLetterFile.ENTRY_PREFIX))
+                                          .collect(Collectors.toList());
+        Assert.assertEquals(4, entries.size());
+        Assert.assertTrue(entries.get(0).startsWith(DeadLetterFile.ENTRY_PREFIX + " index=10 "));
+        Assert.assertTrue(entries.get(1).startsWith(DeadLetterFile.ENTRY_PREFIX + " index=20 "));
+        Assert.assertTrue(entries.get(1).contains("NumberFormatException"));
+        Assert.assertTrue(entries.get(2).startsWith(DeadLetterFile.ENTRY_PREFIX + " index=-1 "));
+        Assert.assertTrue(entries.get(3).contains("End of file reached"));
+        Assert.assertEquals(2 * (LINES_PER_RECORD - 1) + LINES_PER_RECORD + 2 + 4, deadLetters.size());
+        Assert.assertTrue(deadLetters.contains("GARBAGE 2"));
+
+        // Same invoices and dead letters when the file is split
+        File splitDest = tmp.newFolder("split");
+        File splitDeadLetterFile = new File(tmp.getRoot(), "split.dead-letter.txt");
+        COPOParser split = new COPOParser(copo, splitDest.getAbsolutePath(), "ndjson", null);
+        split.setPdfRendererType("fast");
+        split.setErrorPolicy("quarantine");
+        split.setDeadLetterFile(splitDeadLetterFile);
+        split.setSplitCount(4);
+        split.setThreadCount(2);
+        split.process();
+        Assert.assertEquals(4, split.getMalformedRecordCount());
+        Assert.assertEquals(RECORD_COUNT - 3, split.getInvoiceCount());
+        Assert.assertEquals(manifest, readManifest(splitDest));
+        List<String> splitDeadLetters = Files.readAllLines(splitDeadLetterFile.toPath());
+        Collections.sort(deadLetters);
+        Collections.sort(splitDeadLetters);
+        Assert.assertEquals(deadLetters, splitDeadLetters);
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+
+        File copo = newCorruptedFile();
+        COPOParser parser = new COPOParser(copo, tmp.newFolder("dest").getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        parser.setErrorPolicy("skip");
+        parser.setThreadCount(1);
+        parser.process();
+        Assert.assertEquals(4, parser.getMalformedRecordCount());
+        Assert.assertEquals(RECORD_COUNT - 3, parser.getInvoiceCount());
+        Assert.assertFalse(parser.getDeadLetterFile().exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSkipRequiresMappedReader() throws Exception {
+
+        COPOParser parser = new COPOParser(newCorruptedFile(), tmp.newFolder("dest").getAbsolutePath(), "ndjson",
+                null);
+        parser.setReaderType("lines");
+        parser.setErrorPolicy("skip");
+        parser.process();
+    }
+
+}
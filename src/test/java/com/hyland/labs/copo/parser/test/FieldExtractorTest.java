@@ -0,0 +1,90 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOFieldExtractors;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.FieldExtractor;
+import com.hyland.labs.copo.parser.MappedRecordReader;
+import com.hyland.labs.copo.parser.RecordFieldParser;
+import com.hyland.labs.copo.parser.RecordFields;
+import com.hyland.labs.copo.parser.RecordText;
+import com.hyland.labs.copo.parser.RegexFieldExtractor;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class FieldExtractorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSameValuesAsRegex() throws Exception {
+        File copo = new SyntheticCOPOGenerator(2000, 3).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        for (File file : new File[] { RecordPipelineTest.SAMPLE_FILE, copo }) {
+            try (MappedRecordReader expected = new MappedRecordReader(file);
+                    MappedRecordReader actual = new MappedRecordReader(file)) {
+                expected.setFieldExtractors(COPOFieldExtractors.REGEX);
+                COPORecord e;
+                while ((e = expected.next()) != null) {
+                    COPORecord a = actual.next();
+                    Assert.assertEquals(e.getVoucher(), a.getVoucher());
+                    Assert.assertEquals(e.getCompany(), a.getCompany());
+                    Assert.assertEquals(e.getInvoiceNumber(), a.getInvoiceNumber());
+                    Assert.assertEquals(e.getInvoiceDateStr(), a.getInvoiceDateStr());
+                    Assert.assertEquals(e.getInvoiceAmountStr(), a.getInvoiceAmountStr());
+                    Assert.assertEquals(e.getPoNumber(), a.getPoNumber());
+                }
+                Assert.assertNull(actual.next());
+            }
+        }
+    }
+
+    @Test
+    public void testSameLinesRejectedAsRegex() {
+        String[] lines = { "0.VOUCHER # V123", "0.VOUCHER #V123", "0xVOUCHER # ", "0.VOUCHER # v123", "0.VOUCHER # V1 ",
+                "1.VOUCHER # V1", "0.  COMPANY # 0987", "0.COMPANY # 0987", "0.  COMPANY #0987 x", "0 COMPANY # 1",
+                " .  INV-NUMBER  INV-DATE  INV-AMT  PO-NUMBER  VNDR-NUMBER  HNDL-CODE",
+                " .  INV-NUMBER INV-DATEINV-AMTPO-NUMBERVNDR-NUMBERHNDL-CODE",
+                " .  INV-NUMBERINV-DATE  INV-AMT  PO-NUMBER  VNDR-NUMBER  HNDL-CODE",
+                " .  INV-NUMBER  INV-DATE  INV-AMT  PO-NUMBER  VNDR-NUMBER  HNDL-CODE  ", "", "0" };
+        for (String line : lines) {
+            for (int i = 0; i < COPOFieldExtractors.DEFAULT.size(); i++) {
+                RecordText text = RecordText.of(line + "\n-.  INV1  20240101  1.00  PO1  VN1  H1\n");
+                Assert.assertEquals(line, extract(COPOFieldExtractors.REGEX.get(i), text),
+                        extract(COPOFieldExtractors.DEFAULT.get(i), text));
+            }
+        }
+    }
+
+    @Test
+    public void testAdditionalExtractor() throws Exception {
+        List<FieldExtractor> extractors = new ArrayList<>(COPOFieldExtractors.DEFAULT);
+        extractors.add(2, new RegexFieldExtractor(Pattern.compile(" . *VENDOR NAME: (.*)"), "vendor", "vendorName"));
+        try (MappedRecordReader reader = new MappedRecordReader(RecordPipelineTest.SAMPLE_FILE)) {
+            reader.setFieldExtractors(extractors);
+            COPORecord record = reader.next();
+            Assert.assertEquals("ACME TEXTILES LLC", record.getOtherField("vendorName"));
+            Assert.assertEquals("0987", record.getCompany());
+        }
+    }
+
+    protected static String extract(FieldExtractor extractor, RecordText text) {
+        RecordFields fields = new RecordFields();
+        RecordFieldParser parser = new RecordFieldParser(List.of(extractor));
+        try {
+            parser.parse(text, fields);
+        } catch (RuntimeException e) {
+            return "no match";
+        }
+        return fields.getVoucher() + "|" + fields.getCompany() + "|" + fields.getInvoiceNumber() + "|"
+                + fields.getInvoiceDateStr() + "|" + fields.getInvoiceAmountStr() + "|" + fields.getPoNumber();
+    }
+}
@@ -0,0 +1,88 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.FolderWatcher;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class FolderWatcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected void testWatch(boolean polling) throws Exception {
+
+        File input = tmp.newFolder("input");
+        File done = new File(tmp.getRoot(), "done");
+        File failed = new File(tmp.getRoot(), "failed");
+        File dest = tmp.newFolder("dest");
+        File summaryFile = new File(tmp.getRoot(), "summary.ndjson");
+        FolderWatcher watcher = new FolderWatcher(input, done, failed, copo -> {
+            COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "ndjson", null);
+            parser.setPdfRendererType("fast");
+            return parser;
+        });
+        watcher.setThreadCount(2);
+        watcher.setPollInterval(50);
+        watcher.setSettleTime(200);
+        watcher.setPolling(polling);
+        watcher.setSummaryFile(summaryFile);
+
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        try {
+            // Written with a hidden name, then renamed
+            File hidden = new SyntheticCOPOGenerator(50, 2).generate(new File(input, ".CO_PO-1.txt"));
+            Files.move(hidden.toPath(), new File(input, "CO_PO-1.txt").toPath(), StandardCopyOption.ATOMIC_MOVE);
+            // Written in place
+            File truncated = new File(input, "CO_PO-2.txt");
+            byte[] bytes = Files.readAllBytes(new File(input, "CO_PO-1.txt").toPath());
+            Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length - 20));
+
+            long deadline = System.currentTimeMillis() + 30000;
+            while (watcher.getDoneCount() + watcher.getFailedCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        } finally {
+            watcher.stop();
+            thread.join(30000);
+        }
+        Assert.assertFalse(thread.isAlive());
+
+        Assert.assertEquals(1, watcher.getDoneCount());
+        Assert.assertEquals(1, watcher.getFailedCount());
+        Assert.assertEquals(Arrays.asList("CO_PO-1.txt"), Arrays.asList(done.list()));
+        Assert.assertEquals(Arrays.asList("CO_PO-2.txt"), Arrays.asList(failed.list()));
+        Assert.assertEquals(0, input.list().length);
+        Assert.assertEquals(50, Files.readAllLines(new File(dest, "CO_PO-1.txt.metadata.ndjson").toPath()).size());
+        List<String> summaries = Files.readAllLines(summaryFile.toPath());
+        Assert.assertEquals(2, summaries.size());
+    }
+
+    @Test
+    public void testWatchService() throws Exception {
+        testWatch(false);
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        testWatch(true);
+    }
+
+}
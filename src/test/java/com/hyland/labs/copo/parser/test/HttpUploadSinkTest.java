@@ -0,0 +1,186 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpUploadSinkTest {
+
+    protected static final Pattern METADATA_PART_PATTERN = Pattern.compile(
+            "name=\"metadata\"; filename=\"(INV\\d+)-Metadata\\.json\"");
+
+    protected static final Pattern PDF_PART_PATTERN = Pattern.compile(
+            "name=\"filedata\"; filename=\"(INV\\d+)\\.pdf\"\r\nContent-Type: application/pdf\r\n\r\n%PDF");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    HttpServer server;
+
+    ExecutorService serverThreads;
+
+    // The invoice numbers of the requests answered with a 2xx
+    final List<String> received = new CopyOnWriteArrayList<>();
+
+    final AtomicInteger requestCount = new AtomicInteger();
+
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    // Status of the n-th request, 200 after the end
+    volatile int[] statuses = {};
+
+    volatile String authorization;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload", this::handle);
+        serverThreads = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverThreads);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1);
+            authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            int n = requestCount.getAndIncrement();
+            int status = n < statuses.length ? statuses[n] : 200;
+            if (status == 200) {
+                Matcher pdf = PDF_PART_PATTERN.matcher(body);
+                Matcher metadata = METADATA_PART_PATTERN.matcher(body);
+                while (metadata.find()) {
+                    Assert.assertTrue(pdf.find());
+                    Assert.assertEquals(pdf.group(1), metadata.group(1));
+                    received.add(metadata.group(1));
+                }
+                // Let the requests overlap
+                Thread.sleep(5);
+            }
+            exchange.sendResponseHeaders(status, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    protected URI getUrl() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/upload");
+    }
+
+    protected COPOParser newParser(File copo, File dest) {
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        parser.setUploadUrl(getUrl());
+        return parser;
+    }
+
+    protected static Set<String> invoiceNumbers(int from, int to) {
+        Set<String> numbers = new TreeSet<>();
+        for (int i = from; i <= to; i++) {
+            numbers.add(String.format("INV%07d", i));
+        }
+        return numbers;
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(103, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File dest = tmp.newFolder("dest");
+        statuses = new int[] { 503, 200, 429, 500 };
+        COPOParser parser = newParser(copo, dest);
+        parser.setThreadCount(2);
+        parser.setMaxUploadsInFlight(3);
+        parser.setUploadBatchSize(5);
+        parser.setUploadHeader("Authorization", "Basic YWRtaW46YWRtaW4=");
+        parser.process();
+
+        Assert.assertEquals(103, parser.getInvoiceCount());
+        Assert.assertEquals(103, received.size());
+        Assert.assertEquals(invoiceNumbers(1, 103), new TreeSet<>(received));
+        // 21 batches, the last one of 3 invoices, and 3 retries
+        Assert.assertEquals(21 + 3, requestCount.get());
+        Assert.assertTrue("" + maxInFlight.get(), maxInFlight.get() <= 3);
+        Assert.assertEquals("Basic YWRtaW46YWRtaW4=", authorization);
+        Assert.assertEquals(0, dest.list().length);
+    }
+
+    @Test
+    public void testResumeAfterFailedUpload() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(100, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File dest = tmp.newFolder("dest");
+        File journal = new File(tmp.getRoot(), "journal");
+        // A 400 is not retried
+        statuses = new int[31];
+        for (int i = 0; i < 30; i++) {
+            statuses[i] = 200;
+        }
+        statuses[30] = 400;
+        COPOParser parser = newParser(copo, dest);
+        parser.setThreadCount(1);
+        parser.setMaxUploadsInFlight(1);
+        parser.setJournalFile(journal);
+        parser.setCheckpointInterval(1);
+        try {
+            parser.process();
+            Assert.fail("The upload should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("INV0000031") && e.getMessage().contains("400"));
+        }
+        Assert.assertEquals(invoiceNumbers(1, 30), new TreeSet<>(received));
+
+        // Only the invoices not uploaded are sent again
+        received.clear();
+        parser = newParser(copo, dest);
+        parser.setThreadCount(2);
+        parser.setJournalFile(journal);
+        parser.setResume(true);
+        parser.process();
+        Assert.assertEquals(30, parser.getResumedInvoiceCount());
+        Assert.assertEquals(invoiceNumbers(31, 100), new TreeSet<>(received));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotWithArchives() throws Exception {
+        COPOParser parser = newParser(tmp.newFile("CO_PO-empty.txt"), tmp.newFolder("dest"));
+        parser.setArchiveFormat("zip");
+        parser.process();
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.Invoice;
+import com.hyland.labs.copo.parser.InvoiceIndex;
+import com.hyland.labs.copo.parser.InvoiceIndexWriter;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class InvoiceIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected COPOParser newParser(File copo, File dest, File indexFile) {
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(3);
+        parser.setInvoiceIndexFile(indexFile);
+        return parser;
+    }
+
+    protected static List<JSONObject> readManifest(File dest) throws Exception {
+        List<JSONObject> lines = new ArrayList<>();
+        for (File f : dest.listFiles((dir, name) -> name.endsWith(".ndjson"))) {
+            for (String line : Files.readAllLines(f.toPath())) {
+                lines.add(new JSONObject(line));
+            }
+        }
+        return lines;
+    }
+
+    protected static List<String> invoiceNumbers(List<InvoiceIndex.Entry> entries) {
+        return entries.stream().map(InvoiceIndex.Entry::getInvoiceNumber).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(500, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File dest = tmp.newFolder("dest");
+        File indexFile = new File(tmp.getRoot(), "invoices.idx");
+        COPOParser parser = newParser(copo, dest, indexFile);
+        parser.setOutputLayout("hash");
+        parser.process();
+        // Only the index, no temporary file
+        String[] names = tmp.getRoot().list();
+        Arrays.sort(names);
+        Assert.assertEquals(Arrays.asList("CO_PO-synthetic.txt", "dest", "invoices.idx"), Arrays.asList(names));
+
+        byte[] copoBytes = Files.readAllBytes(copo.toPath());
+        List<JSONObject> manifest = readManifest(dest);
+        Assert.assertEquals(500, manifest.size());
+        try (InvoiceIndex index = new InvoiceIndex(indexFile)) {
+            Assert.assertEquals(500, index.getEntryCount());
+
+            for (JSONObject line : manifest) {
+                String invoiceNumber = line.getString("invoiceNumber");
+                List<InvoiceIndex.Entry> entries = index.find(InvoiceIndex.INVOICE_NUMBER, invoiceNumber);
+                Assert.assertEquals(invoiceNumber, 1, entries.size());
+                InvoiceIndex.Entry entry = entries.get(0);
+                Assert.assertEquals(line.getLong("index"), entry.getIndex());
+                Assert.assertEquals(line.getString("company"), entry.get(InvoiceIndex.COMPANY));
+                Assert.assertEquals(line.getString("poNumber"), entry.get(InvoiceIndex.PO_NUMBER));
+                Assert.assertEquals(line.getString("voucher"), entry.get(InvoiceIndex.VOUCHER));
+                Assert.assertEquals(line.getString("invoiceDateStr"), entry.get(InvoiceIndex.INVOICE_DATE));
+                Assert.assertEquals(line.getString("pdf"), entry.getPath());
+                Assert.assertTrue(entry.getPath(), new File(dest, entry.getPath()).exists());
+                // The record, as it is in the CO_PO file
+                String record = new String(copoBytes, (int) entry.getSourceOffset(), entry.getSourceLength(),
+                        StandardCharsets.UTF_8);
+                Assert.assertTrue(record, record.contains(invoiceNumber));
+            }
+
+            String company = manifest.get(0).getString("company");
+            Assert.assertEquals(
+                    manifest.stream().filter(line -> company.equals(line.getString("company")))
+                            .map(line -> line.getString("invoiceNumber")).sorted().collect(Collectors.toList()),
+                    invoiceNumbers(index.find(InvoiceIndex.COMPANY, company)));
+
+            List<InvoiceIndex.Entry> dates = index.findDates("20240305", "20240310");
+            Assert.assertEquals(
+                    manifest.stream().filter(line -> line.getString("invoiceDateStr").compareTo("20240305") >= 0
+                            && line.getString("invoiceDateStr").compareTo("20240310") <= 0)
+                            .map(line -> line.getString("invoiceNumber")).sorted().collect(Collectors.toList()),
+                    invoiceNumbers(dates));
+            // By date
+            for (int i = 1; i < dates.size(); i++) {
+                Assert.assertTrue(dates.get(i - 1).get(InvoiceIndex.INVOICE_DATE)
+                                       .compareTo(dates.get(i).get(InvoiceIndex.INVOICE_DATE)) <= 0);
+            }
+
+            Assert.assertTrue(index.find(InvoiceIndex.INVOICE_NUMBER, "INV9999999").isEmpty());
+            Assert.assertTrue(index.find(InvoiceIndex.PO_NUMBER, null).isEmpty());
+            Assert.assertTrue(index.findDates("20250101", "20251231").isEmpty());
+        }
+    }
+
+    @Test
+    public void testArchive() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(120, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File dest = tmp.newFolder("dest");
+        File indexFile = new File(tmp.getRoot(), "invoices.idx");
+        COPOParser parser = newParser(copo, dest, indexFile);
+        parser.setOutputLayout("date");
+        parser.setArchiveFormat("zip");
+        parser.setMaxInvoicesPerArchive(50);
+        parser.process();
+
+        try (InvoiceIndex index = new InvoiceIndex(indexFile)) {
+            Assert.assertEquals(120, index.getEntryCount());
+            InvoiceIndex.Entry entry = index.find(InvoiceIndex.INVOICE_NUMBER, "INV0000042").get(0);
+            String date = entry.get(InvoiceIndex.INVOICE_DATE);
+            String pdf = date.substring(0, 4) + "/" + date.substring(4, 6) + "/" + date.substring(6) + "/INV0000042.pdf";
+            Assert.assertTrue(entry.getPath(),
+                    entry.getPath().matches("CO_PO-synthetic\\.txt\\.invoices-0000[1-3]\\.zip!/" + pdf));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+
+        File indexFile = new File(tmp.getRoot(), "invoices.idx");
+        newParser(tmp.newFile("CO_PO-empty.txt"), tmp.newFolder("dest"), indexFile).process();
+        try (InvoiceIndex index = new InvoiceIndex(indexFile)) {
+            Assert.assertEquals(0, index.getEntryCount());
+            Assert.assertTrue(index.find(InvoiceIndex.INVOICE_NUMBER, "INV0000001").isEmpty());
+        }
+    }
+
+    @Test
+    public void testLongValue() throws Exception {
+
+        // 1 + 2 * 40,000 bytes in UTF-8: cut after 32,766 accented characters, not in the middle of one
+        StringBuilder chars = new StringBuilder("a");
+        for (int i = 0; i < 40000; i++) {
+            chars.append('\u00e9');
+        }
+        String company = chars.toString();
+        File indexFile = new File(tmp.getRoot(), "invoices.idx");
+        try (InvoiceIndexWriter writer = new InvoiceIndexWriter(indexFile)) {
+            Invoice invoice = new Invoice("V1", company, "INV1", "20240414", "12.50", "PO1", "acme");
+            writer.add(invoice, new COPORecord(1, "V1", company, "INV1", "20240414", "12.50", "PO1", null), "INV1.pdf");
+        }
+        try (InvoiceIndex index = new InvoiceIndex(indexFile)) {
+            List<InvoiceIndex.Entry> entries = index.find(InvoiceIndex.COMPANY, company);
+            Assert.assertEquals(1, entries.size());
+            Assert.assertEquals(company.substring(0, 32767), entries.get(0).get(InvoiceIndex.COMPANY));
+            Assert.assertEquals(entries.size(), index.find(InvoiceIndex.COMPANY, company.substring(0, 32767)).size());
+            Assert.assertEquals("INV1.pdf", entries.get(0).getPath());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() throws Exception {
+
+        File indexFile = new File(tmp.getRoot(), "invoices.idx");
+        newParser(tmp.newFile("CO_PO-empty.txt"), tmp.newFolder("dest"), indexFile).process();
+        try (InvoiceIndex index = new InvoiceIndex(indexFile)) {
+            index.find("amount", "12.34");
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.LineRecordReader;
+import com.hyland.labs.copo.parser.MappedRecordReader;
+import com.hyland.labs.copo.parser.RecordReader;
+
+public class MappedRecordReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSameRecordsAsLineReader() throws Exception {
+        File sample = RecordPipelineTest.SAMPLE_FILE;
+        try (RecordReader expected = new LineRecordReader(sample);
+                RecordReader actual = new MappedRecordReader(sample)) {
+            assertSameRecords(expected, actual);
+        }
+    }
+
+    @Test
+    public void testRecordsCrossingMappingWindows() throws Exception {
+        File sample = RecordPipelineTest.SAMPLE_FILE;
+        // Much smaller than a record: every record needs a remapping
+        try (RecordReader expected = new LineRecordReader(sample);
+                RecordReader actual = new MappedRecordReader(sample, 100)) {
+            assertSameRecords(expected, actual);
+        }
+    }
+
+    @Test
+    public void testWindowsLineEndings() throws Exception {
+        File crlf = tmp.newFile("CO_PO-crlf.txt");
+        String text = FileUtils.readFileToString(RecordPipelineTest.SAMPLE_FILE, StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(crlf, text.replace("\n", "\r\n"), StandardCharsets.UTF_8);
+
+        try (RecordReader expected = new LineRecordReader(RecordPipelineTest.SAMPLE_FILE);
+                RecordReader actual = new MappedRecordReader(crlf, 512)) {
+            assertSameRecords(expected, actual);
+        }
+    }
+
+    @Test
+    public void testSourceOffsets() throws Exception {
+        File sample = RecordPipelineTest.SAMPLE_FILE;
+        byte[] bytes = FileUtils.readFileToByteArray(sample);
+        try (RecordReader reader = new MappedRecordReader(sample)) {
+            long expectedOffset = 0;
+            COPORecord record;
+            while ((record = reader.next()) != null) {
+                Assert.assertEquals(expectedOffset, record.getSourceOffset());
+                String source = new String(bytes, (int) record.getSourceOffset(), record.getSourceLength(),
+                        StandardCharsets.UTF_8);
+                Assert.assertTrue(source.startsWith("1.PROGRAM ZA401"));
+                Assert.assertTrue(source.endsWith(record.getTextForPdf()));
+                expectedOffset += record.getSourceLength();
+            }
+            Assert.assertEquals(bytes.length, expectedOffset);
+        }
+    }
+
+    @Test
+    public void testVerticalTabBeforeNewLine() throws Exception {
+        // A 0x0B followed by a '\n' is not a line end, at any position of the 8-byte words read at once
+        String text = FileUtils.readFileToString(RecordPipelineTest.SAMPLE_FILE, StandardCharsets.UTF_8);
+        for (int padding = 0; padding < Long.BYTES; padding++) {
+            String line = " .  AB" + "C".repeat(padding) + "\u000b\n";
+            File copo = tmp.newFile("CO_PO-vt-" + padding + ".txt");
+            String grandTotal = "0.                 GRAND TOTAL";
+            FileUtils.writeStringToFile(copo, text.replace(grandTotal, line + grandTotal), StandardCharsets.UTF_8);
+            try (RecordReader expected = new LineRecordReader(copo);
+                    RecordReader actual = new MappedRecordReader(copo)) {
+                assertSameRecords(expected, actual);
+            }
+            try (RecordReader reader = new MappedRecordReader(copo)) {
+                Assert.assertTrue(reader.next().getTextForPdf().contains(line));
+            }
+        }
+    }
+
+    protected static void assertSameRecords(RecordReader expected, RecordReader actual) throws Exception {
+        COPORecord e;
+        int count = 0;
+        while ((e = expected.next()) != null) {
+            COPORecord a = actual.next();
+            Assert.assertNotNull(a);
+            Assert.assertEquals(e.getIndex(), a.getIndex());
+            Assert.assertEquals(e.getVoucher(), a.getVoucher());
+            Assert.assertEquals(e.getCompany(), a.getCompany());
+            Assert.assertEquals(e.getInvoiceNumber(), a.getInvoiceNumber());
+            Assert.assertEquals(e.getInvoiceDateStr(), a.getInvoiceDateStr());
+            Assert.assertEquals(e.getInvoiceAmountStr(), a.getInvoiceAmountStr());
+            Assert.assertEquals(e.getPoNumber(), a.getPoNumber());
+            Assert.assertEquals(e.getTextForPdf(), a.getTextForPdf());
+            count += 1;
+        }
+        Assert.assertNull(actual.next());
+        Assert.assertEquals(5, count);
+    }
+}
@@ -0,0 +1,149 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.FileMetadataSink;
+import com.hyland.labs.copo.parser.Invoice;
+import com.hyland.labs.copo.parser.ManifestMetadataSink;
+import com.hyland.labs.copo.parser.OutputBuffer;
+import com.hyland.labs.copo.parser.MetadataWriter;
+
+public class MetadataSinkTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected Invoice newInvoice(int i) {
+        return new Invoice("V" + i, "0987", "INV" + i, "20240315", "12.5" + i, "PO" + i, "acme");
+    }
+
+    @Test
+    public void testSameFilesAsInvoice() throws Exception {
+
+        File expected = tmp.newFolder("expected");
+        File actual = tmp.newFolder("actual");
+        try (FileMetadataSink xml = new FileMetadataSink(actual.getAbsolutePath(), "xml", "acme", "CO_PO.txt");
+                FileMetadataSink json = new FileMetadataSink(actual.getAbsolutePath(), "json", null, "CO_PO.txt")) {
+            for (int i = 1; i <= 3; i++) {
+                newInvoice(i).toXmlFilePropertyForAlfrescoBulkImport(expected.getAbsolutePath(), i, "CO_PO.txt");
+                newInvoice(i).toJsonFile(expected.getAbsolutePath());
+                xml.write(newInvoice(i), i);
+                json.write(newInvoice(i), i);
+            }
+        }
+        Assert.assertEquals(6, actual.list().length);
+        Assert.assertEquals(RecordPipelineTest.readMetadata(expected), RecordPipelineTest.readMetadata(actual));
+    }
+
+    @Test
+    public void testWriters() throws Exception {
+
+        MetadataWriter writer = new MetadataWriter("acme", "CO_PO <1>.txt");
+        OutputBuffer buffer = new OutputBuffer(16);
+        Invoice invoice = new Invoice("V1234", "A&B", "INV<1>", "20240414", "128.10", "PO\"1'", "acme");
+        writer.writeXml(invoice, 4, buffer);
+        Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n" + "<properties>\n"
+                + "  <entry key=\"type\">cm:content</entry>\n"
+                + "  <entry key=\"aspects\">cm:versionable,test:Test</entry>\n"
+                + "  <entry key=\"cm:title\">INV&lt;1&gt;</entry>\n"
+                + "  <entry key=\"cm:description\">File #4 from bulk import of CO_PO &lt;1&gt;.txt</entry>\n"
+                + "  <entry key=\"acme:voucher\">V1234</entry>\n" + "  <entry key=\"acme:company\">A&amp;B</entry>\n"
+                + "  <entry key=\"acme:invoiceNumber\">INV&lt;1&gt;</entry>\n"
+                + "  <entry key=\"acme:invoiceDate\">20240414</entry>\n"
+                + "  <entry key=\"acme:invoiceAmount\">128.1</entry>\n"
+                + "  <entry key=\"acme:poNumber\">PO&quot;1&apos;</entry>\n" + "</properties>\n", buffer.toString());
+
+        buffer.clear();
+        writer.writeJson(invoice, buffer);
+        Assert.assertEquals("{\"voucher\":\"V1234\",\"company\":\"A&B\",\"invoiceNumber\":\"INV<1>\","
+                + "\"invoiceDateStr\":\"20240414\",\"invoiceAmount\":128.1,\"poNumber\":\"PO\\\"1'\"}",
+                buffer.toString());
+        Assert.assertTrue(new JSONObject(buffer.toString()).similar(invoice.getJson()));
+
+        // Integer amount, control and non-ASCII characters
+        invoice = new Invoice("V\t1", "Soci\u00e9t\u00e9", "INV\\1", "20240414", "128.00", "PO\u0001", "acme");
+        buffer.clear();
+        writer.writeJsonLine(invoice, 7, buffer);
+        String line = buffer.toString();
+        Assert.assertTrue(line, line.endsWith(",\"index\":7,\"pdf\":\"INV\\\\1.pdf\"}\n"));
+        JSONObject json = new JSONObject(line);
+        Assert.assertEquals(128, json.getInt("invoiceAmount"));
+        Assert.assertTrue(line.contains("\"invoiceAmount\":128,"));
+        Assert.assertEquals("PO\u0001", json.getString("poNumber"));
+        Assert.assertEquals("Soci\u00e9t\u00e9", json.getString("company"));
+        Assert.assertEquals("V\t1", json.getString("voucher"));
+    }
+
+    @Test
+    public void testXmlControlCharacters() throws Exception {
+
+        OutputBuffer buffer = new OutputBuffer(16);
+        buffer.appendXmlEscaped("PO\u0001\t1\r\n<\u001F>\u0000\u00e9");
+        Assert.assertEquals("PO?\t1\r\n&lt;?&gt;?\u00e9", buffer.toString());
+
+        MetadataWriter writer = new MetadataWriter("acme", "CO_PO.txt");
+        Invoice invoice = new Invoice("V\u000B1", "acme", "INV1", "20240414", "128.10", "PO\u0001", "acme");
+        buffer.clear();
+        writer.writeXml(invoice, 4, buffer);
+        String xml = buffer.toString();
+        Assert.assertTrue(xml, xml.contains("<entry key=\"acme:voucher\">V?1</entry>"));
+        Assert.assertTrue(xml, xml.contains("<entry key=\"acme:poNumber\">PO?</entry>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDestinationIsCheckedOnce() throws Exception {
+        new FileMetadataSink(new File(tmp.getRoot(), "missing").getAbsolutePath(), "xml", "acme", "CO_PO.txt");
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+
+        File dir = tmp.newFolder("manifest");
+        COPOParser parser = new COPOParser(RecordPipelineTest.SAMPLE_FILE, dir.getAbsolutePath(), "ndjson", null);
+        parser.setThreadCount(3);
+        parser.process();
+
+        // 5 PDFs and the manifest
+        Assert.assertEquals(6, dir.list().length);
+        List<String> lines = Files.readAllLines(new File(dir, "CO_PO-sample.txt.metadata.ndjson").toPath(),
+                StandardCharsets.UTF_8);
+        Map<Long, JSONObject> byIndex = new TreeMap<>();
+        for (String line : lines) {
+            JSONObject json = new JSONObject(line);
+            byIndex.put(json.getLong("index"), json);
+        }
+        Assert.assertEquals(5, byIndex.size());
+        Assert.assertEquals("CD789012", byIndex.get(4L).getString("invoiceNumber"));
+        Assert.assertEquals("CD789012.pdf", byIndex.get(4L).getString("pdf"));
+        Assert.assertTrue(new File(dir, "CD789012.pdf").exists());
+    }
+
+    @Test
+    public void testManifestParts() throws Exception {
+
+        File dir = tmp.newFolder("parts");
+        try (ManifestMetadataSink sink = new ManifestMetadataSink(dir.toPath(), "manifest", 2)) {
+            for (int i = 1; i <= 5; i++) {
+                sink.write(newInvoice(i), i);
+            }
+            Assert.assertEquals(3, sink.getPartCount());
+        }
+        Assert.assertEquals(2, Files.readAllLines(new File(dir, "manifest-00001.ndjson").toPath()).size());
+        Assert.assertEquals(2, Files.readAllLines(new File(dir, "manifest-00002.ndjson").toPath()).size());
+        Assert.assertEquals(1, Files.readAllLines(new File(dir, "manifest-00003.ndjson").toPath()).size());
+    }
+
+}
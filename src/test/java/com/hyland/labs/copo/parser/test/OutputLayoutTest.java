@@ -0,0 +1,99 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.Invoice;
+import com.hyland.labs.copo.parser.OutputLayout;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class OutputLayoutTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testDirectories() throws Exception {
+
+        Invoice invoice = new Invoice("V1", "A/B", "INV1", "20240314", "12.50", "PO1", "acme");
+        Path root = tmp.getRoot().toPath();
+        Assert.assertEquals("", new OutputLayout(root, "flat").getRelativeDirectory(invoice));
+        Assert.assertEquals("A_B/", new OutputLayout(root, "company").getRelativeDirectory(invoice));
+        Assert.assertEquals("2024/03/14/", new OutputLayout(root, "date").getRelativeDirectory(invoice));
+        String hash = new OutputLayout(root, "hash").getRelativeDirectory(invoice);
+        Assert.assertTrue(hash, hash.matches("[0-9a-f]{2}/[0-9a-f]{2}/"));
+
+        Invoice noDate = new Invoice("V1", "", "INV1", "2024", "12.50", "PO1", "acme");
+        Assert.assertEquals(OutputLayout.UNKNOWN_DIRECTORY + "/",
+                new OutputLayout(root, "date").getRelativeDirectory(noDate));
+        Assert.assertEquals(OutputLayout.UNKNOWN_DIRECTORY + "/",
+                new OutputLayout(root, "company").getRelativeDirectory(noDate));
+
+        OutputLayout layout = new OutputLayout(root, "date");
+        Path dir = layout.resolveDirectory(invoice);
+        Assert.assertFalse(Files.exists(dir));
+        Assert.assertEquals(dir, layout.getDirectory(invoice));
+        Assert.assertTrue(Files.isDirectory(dir));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLayout() {
+        new OutputLayout(tmp.getRoot().toPath(), "year");
+    }
+
+    @Test
+    public void testSidecarNextToPdf() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(200, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "xml", "acme");
+        parser.setOutputLayout("hash");
+        parser.setPdfRendererType("fast");
+        parser.process();
+
+        List<Path> pdfs;
+        try (Stream<Path> files = Files.walk(dest.toPath())) {
+            pdfs = files.filter(p -> p.toString().endsWith(".pdf")).collect(Collectors.toList());
+        }
+        Assert.assertEquals(200, pdfs.size());
+        for (Path pdf : pdfs) {
+            Assert.assertNotEquals(dest.toPath(), pdf.getParent());
+            Assert.assertTrue(Files.exists(pdf.resolveSibling(pdf.getFileName() + ".metadata.properties.xml")));
+        }
+        // Nothing else at the root than the hash directories
+        Assert.assertTrue(Stream.of(dest.listFiles()).allMatch(File::isDirectory));
+    }
+
+    @Test
+    public void testManifestPaths() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(100, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        File dest = tmp.newFolder("dest");
+        COPOParser parser = new COPOParser(copo, dest.getAbsolutePath(), "ndjson", null);
+        parser.setOutputLayout("company");
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(2);
+        parser.process();
+
+        List<String> lines = Files.readAllLines(new File(dest, copo.getName() + ".metadata.ndjson").toPath());
+        Assert.assertEquals(100, lines.size());
+        for (String line : lines) {
+            JSONObject json = new JSONObject(line);
+            String pdf = json.getString("pdf");
+            Assert.assertEquals(json.getString("company") + "/" + json.getString("invoiceNumber") + ".pdf", pdf);
+            Assert.assertTrue(pdf, new File(dest, pdf).exists());
+        }
+    }
+
+}
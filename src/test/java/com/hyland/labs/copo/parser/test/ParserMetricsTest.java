@@ -0,0 +1,131 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.LatencyHistogram;
+import com.hyland.labs.copo.parser.MetricsReporter;
+import com.hyland.labs.copo.parser.ParserMetrics;
+import com.hyland.labs.copo.parser.ParserMetrics.Stage;
+import com.hyland.labs.copo.parser.SyntheticCOPOGenerator;
+
+public class ParserMetricsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testHistogram() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentileNanos(99));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100_000);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(10_900, histogram.getMeanNanos());
+        Assert.assertEquals(100_000, histogram.getMaxNanos());
+        // 1000 is in the 512-1023 bucket, 100000 in the 65536-131071 one (capped by the maximum)
+        Assert.assertEquals(1023, histogram.getPercentileNanos(50));
+        Assert.assertEquals(1023, histogram.getPercentileNanos(90));
+        Assert.assertEquals(100_000, histogram.getPercentileNanos(99));
+        Assert.assertEquals(2, histogram.toJson().getJSONArray("buckets").length());
+    }
+
+    @Test
+    public void testRun() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(200, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        ParserMetrics metrics = new ParserMetrics();
+        COPOParser parser = new COPOParser(copo, tmp.newFolder("dest").getAbsolutePath(), "ndjson", null);
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(2);
+        parser.setMetrics(metrics);
+        parser.process();
+
+        // Shared by the files of a batch: same metrics, another parser
+        COPOParser split = new COPOParser(copo, tmp.newFolder("split").getAbsolutePath(), "ndjson", null);
+        split.setPdfRendererType("fast");
+        split.setSplitCount(3);
+        split.setThreadCount(2);
+        split.setMetrics(metrics);
+        split.process();
+        metrics.stop();
+
+        Assert.assertEquals(400, metrics.getRecordCount());
+        Assert.assertEquals(400, metrics.getInvoiceCount());
+        Assert.assertEquals(2 * copo.length(), metrics.getByteCount());
+        Assert.assertEquals(0, metrics.getInFlightRecordCount());
+        Assert.assertEquals(0, metrics.getMalformedRecordCount());
+        for (Stage stage : Stage.values()) {
+            Assert.assertEquals(stage.getName(), 400, metrics.getLatency(stage).getCount());
+        }
+        double seconds = metrics.getElapsedSeconds();
+        Thread.sleep(10);
+        Assert.assertEquals(seconds, metrics.getElapsedSeconds(), 0);
+
+        JSONObject json = metrics.toJson();
+        Assert.assertEquals(400, json.getLong("records"));
+        Assert.assertEquals(400, json.getJSONObject("stages").getJSONObject("buildPdf").getLong("count"));
+    }
+
+    @Test
+    public void testLinesReader() throws Exception {
+
+        File copo = new SyntheticCOPOGenerator(50, 2).generate(tmp.newFile("CO_PO-synthetic.txt"));
+        ParserMetrics metrics = new ParserMetrics();
+        COPOParser parser = new COPOParser(copo, tmp.newFolder("dest").getAbsolutePath(), "json", null);
+        parser.setReaderType("lines");
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(1);
+        parser.setMetrics(metrics);
+        parser.process();
+
+        Assert.assertEquals(50, metrics.getRecordCount());
+        Assert.assertEquals(50, metrics.getLatency(Stage.FRAMING).getCount());
+        Assert.assertEquals(0, metrics.getLatency(Stage.EXTRACTION).getCount());
+        Assert.assertEquals(50, metrics.getLatency(Stage.METADATA).getCount());
+    }
+
+    @Test
+    public void testReporterAndJmx() throws Exception {
+
+        ParserMetrics metrics = new ParserMetrics();
+        metrics.recordFramed(1000);
+        metrics.recordLatency(Stage.PDF, 2_000_000);
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        try (MetricsReporter reporter = new MetricsReporter(metrics, 20, lines::add)) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (lines.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        Assert.assertFalse(lines.isEmpty());
+        String line = lines.get(0);
+        Assert.assertTrue(line, line.contains(" 1 records ") && line.contains("buildPdf 2000/2000"));
+
+        ObjectName name = metrics.registerMBean(ParserMetrics.DEFAULT_MBEAN_NAME + ",name=test");
+        try {
+            Assert.assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RecordCount"));
+            Assert.assertEquals(1000L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ByteCount"));
+        } finally {
+            ParserMetrics.unregisterMBean(name);
+        }
+    }
+
+}
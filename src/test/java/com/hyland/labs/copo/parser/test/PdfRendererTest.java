@@ -0,0 +1,113 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.PageLayout;
+import com.hyland.labs.copo.parser.PdfRenderer;
+import com.hyland.labs.copo.parser.RecordText;
+
+public class PdfRendererTest {
+
+    protected static final String TEXT = "0.VOUCHER # V1234\n0.  COMPANY # 0987\n .  NOTE: (paid) C:\\INV caf\u00e9 \u20ac12\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected String renderAndExtract(PdfRenderer renderer, String text) throws Exception {
+        return renderAndExtract(renderer, text, 1);
+    }
+
+    protected String renderAndExtract(PdfRenderer renderer, String text, int expectedPageCount) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.render(RecordText.of(text), 2, out);
+        try (PDDocument document = Loader.loadPDF(out.toByteArray())) {
+            Assert.assertEquals(expectedPageCount, document.getNumberOfPages());
+            return new PDFTextStripper().getText(document);
+        }
+    }
+
+    @Test
+    public void testSameTextWithBothRenderers() throws Exception {
+
+        String pdfbox = renderAndExtract(PdfRenderer.newRenderer("pdfbox"), TEXT);
+        Assert.assertTrue(pdfbox.contains("VOUCHER # V1234"));
+        Assert.assertTrue(pdfbox.contains("NOTE: (paid) C:\\INV caf\u00e9 \u20ac12"));
+
+        // Reused renderer: the second document must not keep anything of the first one
+        PdfRenderer fast = PdfRenderer.newRenderer("fast");
+        renderAndExtract(fast, "-.  SOME VERY LONG LINE THAT IS LONGER THAN THE NEXT ONES\n");
+        Assert.assertEquals(pdfbox, renderAndExtract(fast, TEXT));
+    }
+
+    @Test
+    public void testLongRecordOnSeveralPages() throws Exception {
+
+        Assert.assertEquals(89, PageLayout.DEFAULT.getLinesPerPage());
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= 250; i++) {
+            text.append(" .  DETAIL LINE ").append(i).append('\n');
+        }
+        int pageCount = PageLayout.DEFAULT.getPageCount(250);
+        Assert.assertEquals(3, pageCount);
+
+        String pdfbox = renderAndExtract(PdfRenderer.newRenderer("pdfbox"), text.toString(), pageCount);
+        String fast = renderAndExtract(PdfRenderer.newRenderer("fast"), text.toString(), pageCount);
+        Assert.assertEquals(pdfbox, fast);
+        for (int i = 1; i <= 250; i++) {
+            Assert.assertTrue(fast.contains("DETAIL LINE " + i + "\n") || fast.endsWith("DETAIL LINE " + i));
+        }
+
+        // Exactly one page full
+        String full = text.substring(0, text.indexOf(" .  DETAIL LINE 90\n"));
+        renderAndExtract(PdfRenderer.newRenderer("fast"), full, 1);
+        renderAndExtract(PdfRenderer.newRenderer("fast"), "", 1);
+    }
+
+    @Test
+    public void testUnsupportedCharactersInFastMode() throws Exception {
+
+        String text = renderAndExtract(PdfRenderer.newRenderer("fast"), "0.TAB\tAND \u4e2d\n");
+        Assert.assertTrue(text, text.contains("TAB?AND ?"));
+    }
+
+    @Test
+    public void testFastRendererInParser() throws Exception {
+
+        File pdfbox = tmp.newFolder("pdfbox");
+        COPOParser.process(RecordPipelineTest.SAMPLE_FILE, pdfbox.getAbsolutePath(), "xml", "acme", 1);
+
+        File fast = tmp.newFolder("fast");
+        COPOParser parser = new COPOParser(RecordPipelineTest.SAMPLE_FILE, fast.getAbsolutePath(), "xml", "acme");
+        parser.setPdfRendererType("fast");
+        parser.setThreadCount(3);
+        parser.process();
+
+        String[] expected = pdfbox.list();
+        String[] actual = fast.list();
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        Assert.assertArrayEquals(expected, actual);
+        Assert.assertEquals(RecordPipelineTest.readMetadata(pdfbox), RecordPipelineTest.readMetadata(fast));
+        for (String name : actual) {
+            if (name.endsWith(".pdf")) {
+                try (PDDocument pdfboxDocument = Loader.loadPDF(new File(pdfbox, name));
+                        PDDocument fastDocument = Loader.loadPDF(new File(fast, name))) {
+                    Assert.assertEquals(new PDFTextStripper().getText(pdfboxDocument),
+                            new PDFTextStripper().getText(fastDocument));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.ProgressJournal;
+import com.hyland.labs.copo.parser.ProgressJournal.Checkpoint;
+
+public class ProgressJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testWatermarkAndTornEntry() throws Exception {
+
+        File journalFile = tmp.newFile("test.journal");
+        try (ProgressJournal journal = new ProgressJournal(journalFile, RecordPipelineTest.SAMPLE_FILE, null, 2)) {
+            journal.completed(2, 200, 2);
+            journal.completed(3, 300, 3);
+            Assert.assertEquals(0, journal.getWatermark().getIndex());
+            Assert.assertNull(ProgressJournal.readLastCheckpoint(journalFile, RecordPipelineTest.SAMPLE_FILE));
+
+            journal.completed(1, 100, 1);
+            Assert.assertEquals(3, journal.getWatermark().getIndex());
+            Assert.assertEquals(300, journal.getWatermark().getOffset());
+            // Committed, 3 records since the last checkpoint
+            Assert.assertEquals(3, ProgressJournal.readLastCheckpoint(journalFile, RecordPipelineTest.SAMPLE_FILE)
+                    .getIndex());
+
+            journal.completed(4, 400, 4);
+        }
+        Checkpoint last = ProgressJournal.readLastCheckpoint(journalFile, RecordPipelineTest.SAMPLE_FILE);
+        Assert.assertEquals(4, last.getIndex());
+        Assert.assertEquals(400, last.getOffset());
+        Assert.assertEquals(ProgressJournal.HEADER_SIZE + 2 * ProgressJournal.ENTRY_SIZE, journalFile.length());
+
+        // A crash in the middle of an entry
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            byte[] garbage = new byte[ProgressJournal.ENTRY_SIZE + 10];
+            Arrays.fill(garbage, (byte) 7);
+            out.write(garbage);
+        }
+        Checkpoint afterCrash = ProgressJournal.readLastCheckpoint(journalFile, RecordPipelineTest.SAMPLE_FILE);
+        Assert.assertEquals(4, afterCrash.getIndex());
+        Assert.assertEquals(last.getChecksum(), afterCrash.getChecksum());
+
+        try (ProgressJournal journal = new ProgressJournal(journalFile, RecordPipelineTest.SAMPLE_FILE, afterCrash, 1)) {
+            journal.completed(5, 500, 5);
+        }
+        Assert.assertEquals(5, ProgressJournal.readLastCheckpoint(journalFile, RecordPipelineTest.SAMPLE_FILE)
+                .getIndex());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJournalOfAnotherFile() throws Exception {
+
+        File journalFile = tmp.newFile("test.journal");
+        new ProgressJournal(journalFile, RecordPipelineTest.SAMPLE_FILE, null, 1).close();
+        ProgressJournal.readLastCheckpoint(journalFile, journalFile);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+
+        File complete = tmp.newFolder("complete");
+        COPOParser.process(RecordPipelineTest.SAMPLE_FILE, complete.getAbsolutePath(), "xml", "acme", 1);
+
+        File dest = tmp.newFolder("dest");
+        File journalFile = new File(tmp.getRoot(), "sample.journal");
+        COPOParser failing = new COPOParser(RecordPipelineTest.SAMPLE_FILE, dest.getAbsolutePath(), "xml", "acme") {
+            @Override
+            protected void processRecord(COPORecord record) throws IOException {
+                if (record.getIndex() == 4) {
+                    throw new IOException("No space left on device");
+                }
+                super.processRecord(record);
+            }
+        };
+        failing.setJournalFile(journalFile);
+        failing.setCheckpointInterval(1);
+        failing.setThreadCount(1);
+        try {
+            failing.process();
+            Assert.fail("The run should have failed");
+        } catch (IOException e) {
+            Assert.assertEquals("No space left on device", e.getMessage());
+        }
+        Assert.assertEquals(6, dest.list().length);
+
+        // The first 3 invoices are not generated again
+        for (File f : dest.listFiles()) {
+            f.delete();
+        }
+        COPOParser parser = new COPOParser(RecordPipelineTest.SAMPLE_FILE, dest.getAbsolutePath(), "xml", "acme");
+        parser.setJournalFile(journalFile);
+        parser.setResume(true);
+        parser.setThreadCount(2);
+        parser.process();
+        Assert.assertEquals(3, parser.getResumedInvoiceCount());
+        Assert.assertEquals(2, parser.getInvoiceCount());
+        Assert.assertEquals(4, dest.list().length);
+        Assert.assertEquals(RecordPipelineTest.readMetadata(complete).get("CD789012.pdf.metadata.properties.xml"),
+                RecordPipelineTest.readMetadata(dest).get("CD789012.pdf.metadata.properties.xml"));
+
+        Checkpoint last = ProgressJournal.readLastCheckpoint(journalFile, RecordPipelineTest.SAMPLE_FILE);
+        Assert.assertEquals(5, last.getIndex());
+        Assert.assertEquals(RecordPipelineTest.SAMPLE_FILE.length(), last.getOffset());
+
+        // Nothing left to do
+        parser.process();
+        Assert.assertEquals(5, parser.getResumedInvoiceCount());
+        Assert.assertEquals(0, parser.getInvoiceCount());
+    }
+
+}
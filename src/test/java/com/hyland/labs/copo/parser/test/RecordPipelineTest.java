@@ -0,0 +1,80 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.COPORecord;
+import com.hyland.labs.copo.parser.LineRecordReader;
+import com.hyland.labs.copo.parser.RecordPipeline;
+
+public class RecordPipelineTest {
+
+    public static final File SAMPLE_FILE = new File("src/test/resources/CO_PO-sample.txt");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPipelineOutputIsSameAsSequential() throws Exception {
+
+        File sequential = tmp.newFolder("sequential");
+        File pipelined = tmp.newFolder("pipelined");
+
+        COPOParser.process(SAMPLE_FILE, sequential.getAbsolutePath(), "xml", "acme", 1);
+        COPOParser.process(SAMPLE_FILE, pipelined.getAbsolutePath(), "xml", "acme", 4);
+
+        Map<String, String> expected = readMetadata(sequential);
+        Assert.assertEquals(5, expected.size());
+        Assert.assertTrue(expected.get("CD789012.pdf.metadata.properties.xml").contains("File #4 from bulk import"));
+        Assert.assertEquals(expected, readMetadata(pipelined));
+        Assert.assertEquals(10, pipelined.list().length);
+    }
+
+    @Test
+    public void testWorkerFailureStopsThePipeline() throws Exception {
+
+        try (LineRecordReader reader = new LineRecordReader(SAMPLE_FILE)) {
+            new RecordPipeline(2, 1).run(reader, record -> {
+                if (record.getIndex() == 2) {
+                    throw new IOException("Failing on " + record.getInvoiceNumber());
+                }
+            });
+            Assert.fail("The worker exception should have been rethrown");
+        } catch (IOException e) {
+            Assert.assertEquals("Failing on INV0000002", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRecordsAreReadInFileOrder() throws Exception {
+
+        try (LineRecordReader reader = new LineRecordReader(SAMPLE_FILE)) {
+            COPORecord record;
+            long expectedIndex = 1;
+            while ((record = reader.next()) != null) {
+                Assert.assertEquals(expectedIndex, record.getIndex());
+                expectedIndex += 1;
+            }
+            Assert.assertEquals(6, expectedIndex);
+        }
+    }
+
+    protected static Map<String, String> readMetadata(File dir) throws IOException {
+        Map<String, String> result = new TreeMap<>();
+        for (File f : dir.listFiles()) {
+            if (!f.getName().endsWith(".pdf")) {
+                result.put(f.getName(), FileUtils.readFileToString(f, "UTF-8"));
+            }
+        }
+        return result;
+    }
+}
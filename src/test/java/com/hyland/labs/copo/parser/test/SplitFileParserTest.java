@@ -0,0 +1,68 @@
+package com.hyland.labs.copo.parser.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hyland.labs.copo.parser.COPOParser;
+import com.hyland.labs.copo.parser.MappedRecordReader;
+import com.hyland.labs.copo.parser.SplitFileParser;
+
+public class SplitFileParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSameOutputAsSequential() throws Exception {
+
+        File sequential = tmp.newFolder("sequential");
+        COPOParser.process(RecordPipelineTest.SAMPLE_FILE, sequential.getAbsolutePath(), "xml", "acme", 1);
+        Map<String, String> expected = RecordPipelineTest.readMetadata(sequential);
+
+        // 16: more ranges than records
+        for (int splitCount : new int[] { 2, 3, 4, 16 }) {
+            File split = tmp.newFolder("split-" + splitCount);
+            COPOParser parser = new COPOParser(RecordPipelineTest.SAMPLE_FILE, split.getAbsolutePath(), "xml", "acme");
+            parser.setSplitCount(splitCount);
+            parser.setThreadCount(3);
+            parser.process();
+
+            Assert.assertEquals(5, parser.getInvoiceCount());
+            Assert.assertEquals(expected, RecordPipelineTest.readMetadata(split));
+            Assert.assertEquals(10, split.list().length);
+        }
+    }
+
+    @Test
+    public void testEachRecordIsFramedOnce() throws Exception {
+
+        List<String> invoiceNumbers = Collections.synchronizedList(new ArrayList<>());
+        long count = new SplitFileParser(RecordPipelineTest.SAMPLE_FILE, 7, 4).run(record -> invoiceNumbers.add(
+                record.getIndex() + ":" + record.getInvoiceNumber()));
+
+        Assert.assertEquals(5, count);
+        Collections.sort(invoiceNumbers);
+        Assert.assertEquals(List.of("1:INV0000001", "2:INV0000002", "3:AB123456", "4:CD789012", "5:EF345678"),
+                invoiceNumbers);
+    }
+
+    @Test
+    public void testAlignToRecordStart() throws Exception {
+
+        try (MappedRecordReader reader = new MappedRecordReader(RecordPipelineTest.SAMPLE_FILE)) {
+            long secondRecord = reader.alignToRecordStart(1);
+            Assert.assertTrue(secondRecord > 0);
+            Assert.assertEquals(secondRecord, reader.alignToRecordStart(secondRecord));
+            Assert.assertEquals(0, reader.alignToRecordStart(0));
+            Assert.assertEquals(reader.getRangeEnd(), reader.alignToRecordStart(reader.getRangeEnd() - 1));
+        }
+    }
+}